@@ -18,12 +18,10 @@ import it.unibz.instasearch.indexing.WorkspaceIndexerJDT;
 import it.unibz.instasearch.jobs.DeleteIndexJob;
 import it.unibz.instasearch.jobs.IndexUpdateJob;
 import it.unibz.instasearch.jobs.IndexingJob;
-import it.unibz.instasearch.prefs.PreferenceConstants;
 
 import java.io.IOException;
 
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.eclipse.core.resources.WorkspaceJob;
 import org.eclipse.core.runtime.jobs.Job;
 
@@ -56,25 +54,16 @@ public class InstaSearch
 		InstaSearchPlugin.addPreferenceChangeListener(indexer);
 		InstaSearchPlugin.addPreferenceChangeListener(searcher);
 		
-		String lastVer = InstaSearchPlugin.getDefault().getPreferenceStore().getString("version");
-		String curVer = InstaSearchPlugin.getVersion();
-		InstaSearchPlugin.getDefault().getPreferenceStore().setValue("version", curVer);
-
-		if( !indexer.isIndexed() || !indexer.isReadable() || !curVer.equals(lastVer) )
-			createIndex();
-		else
+		if( !indexer.isIndexed() || !indexer.isReadable() || !indexer.isSchemaCurrent() )
+			createIndex(); // created by a version with different fields or analysis
+		else {
 			searcher.onIndexUpdate();
+			reconcileIndex(); // files could have changed while not running
+		}
 		
-		int indexUpdateInterval = InstaSearchPlugin.getIntPref(PreferenceConstants.P_INDEX_UPDATE_INTERVAL);
-		boolean indexUpdateEnabled = InstaSearchPlugin.getBoolPref(PreferenceConstants.P_INDEX_UPDATE_ENABLED);
-		
-		indexUpdateJob = new IndexUpdateJob(indexer, searcher);
+		indexUpdateJob = new IndexUpdateJob(indexer, searcher); // scheduled by file changes
 		indexUpdateJob.setSystem(true);
 		
-		if ((indexUpdateEnabled) && (indexUpdateInterval > 0)){
-			indexUpdateJob.schedule(indexUpdateInterval);
-		}
-		
 		InstaSearchPlugin.addPreferenceChangeListener(indexUpdateJob);
 	}
 	
@@ -110,12 +99,24 @@ public class InstaSearch
 	 * 
 	 */
 	public void createIndex() {
+		scheduleIndexingJob(false);
+	}
+	
+	/**
+	 * Starts the indexing job which only updates files changed since the last run
+	 */
+	private void reconcileIndex() {
+		scheduleIndexingJob(true);
+	}
+	
+	private void scheduleIndexingJob(boolean reconcile) {
 		if( indexingJob == null ) {
 			indexingJob = new IndexingJob(indexer);
 			indexingJob.setPriority(Job.LONG); // long running job
 		} else if( isIndexing() )
 			return;
 		
+		indexingJob.setReconcile(reconcile);
 		indexingJob.schedule();
 	}
 	
@@ -142,10 +143,9 @@ public class InstaSearch
 	{
 		return new SearcherConfig()
 		{
-			@SuppressWarnings("deprecation")
 			public Directory getIndexDir() throws IOException
 			{
-				return FSDirectory.getDirectory(InstaSearchPlugin.getIndexDirLocation(), false);
+				return indexer.getIndexDir(); // same directory instance as the indexer
 			}
 
 			public boolean getBoolPref(String pref)
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits file contents into chunks of about the same size, so that a large file
+ * is indexed as several documents and the memory used for one document stays bounded.
+ * Chunks end at a line break after the chunk size is reached, so lines are not split between chunks
+ * (unless a line is longer than the chunk size). Lines are counted as in {@link LineLocator}
+ */
+class ChunkReader
+{
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Reader reader;
+	private final int chunkSize;
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int bufferPos = 0;
+	private int bufferEnd = 0;
+	private boolean eof = false;
+
+	private int chunk = -1;
+	private int chunkLine = 1;
+	private long chunkOffset = 0;
+
+	private int line = 1; // at the current position
+	private long offset = 0;
+	private char prev = 0;
+
+	private int chunkChars = 0;
+	private boolean chunkEnded = true;
+
+	/**
+	 * @param reader the file contents
+	 * @param chunkSize number of characters after which a chunk ends at the next line break
+	 */
+	ChunkReader(Reader reader, int chunkSize)
+	{
+		this.reader = reader;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Skips the rest of the current chunk (if the analyzer has stopped reading it)
+	 * and checks if there are more characters
+	 *
+	 * @return true if there is another chunk
+	 * @throws IOException
+	 */
+	boolean hasNextChunk() throws IOException
+	{
+		while( !chunkEnded )
+			skipChunk();
+
+		return chunk == -1 || fill();
+	}
+
+	/**
+	 * @return reader of the next chunk. Closing it does not close the file contents
+	 * @throws IOException
+	 */
+	Reader nextChunk() throws IOException
+	{
+		while( !chunkEnded )
+			skipChunk();
+
+		chunk++;
+		chunkLine = line;
+		chunkOffset = offset;
+		chunkChars = 0;
+		chunkEnded = false;
+
+		return new Reader() {
+			@Override
+			public int read(char[] cbuf, int off, int len) throws IOException {
+				return readChunk(cbuf, off, len);
+			}
+
+			@Override
+			public void close() {
+				// the next chunk is read from the same contents
+			}
+		};
+	}
+
+	/**
+	 * @return ordinal of the current chunk (starting from 0)
+	 */
+	int getChunk()
+	{
+		return chunk;
+	}
+
+	/**
+	 * @return number of the line where the current chunk starts (starting from 1)
+	 */
+	int getChunkLine()
+	{
+		return chunkLine;
+	}
+
+	/**
+	 * @return character offset of the current chunk in the file contents
+	 */
+	long getChunkOffset()
+	{
+		return chunkOffset;
+	}
+
+	/**
+	 * Closes the file contents
+	 *
+	 * @throws IOException
+	 */
+	void close() throws IOException
+	{
+		reader.close();
+	}
+
+	private void skipChunk() throws IOException
+	{
+		readChunk(null, 0, BUFFER_SIZE);
+	}
+
+	private boolean fill() throws IOException
+	{
+		if( bufferPos < bufferEnd )
+			return true;
+
+		if( eof )
+			return false;
+
+		int read = reader.read(buffer);
+
+		if( read == -1 )
+		{
+			eof = true;
+			return false;
+		}
+
+		bufferPos = 0;
+		bufferEnd = read;
+
+		return true;
+	}
+
+	/**
+	 * Copies characters of the current chunk, counts lines and ends the chunk at a line break after the chunk size
+	 *
+	 * @param cbuf destination or null to skip
+	 */
+	private int readChunk(char[] cbuf, int off, int len) throws IOException
+	{
+		if( chunkEnded || !fill() )
+		{
+			chunkEnded = true;
+			return -1;
+		}
+
+		int count = 0;
+
+		while( count < len && bufferPos < bufferEnd && !chunkEnded )
+		{
+			char c = buffer[bufferPos++];
+
+			if( cbuf != null )
+				cbuf[off + count] = c;
+
+			count++;
+			offset++;
+			chunkChars++;
+
+			boolean lineBreak = (c == '\r') || (c == '\n' && prev != '\r'); // \r\n is one line break
+			prev = c;
+
+			if( lineBreak )
+				line++;
+
+			if( chunkChars >= chunkSize && (c == '\r' || c == '\n' || chunkChars >= 2*chunkSize) ) // very long line is split
+			{
+				if( c == '\r' && fill() && buffer[bufferPos] == '\n' )
+					continue; // end after \r\n
+
+				chunkEnded = true;
+			}
+		}
+
+		return count;
+	}
+}
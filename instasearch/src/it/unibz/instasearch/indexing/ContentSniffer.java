@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Looks at the first bytes of a file before it is analyzed to find binary files
+ * that were taken for text (eg. by a wrong content type) and minified files with very long lines.
+ * The contents of such files are not indexed, only their name.
+ * Counts the skipped files and remembers the last ones with the reason
+ */
+public class ContentSniffer
+{
+	/** Number of bytes looked at */
+	public static final int SNIFF_BYTES = 8192;
+
+	private static final double MAX_CONTROL_CHAR_RATIO = 0.1;
+	private static final int MIN_ENTROPY_BYTES = 1024;
+	private static final double MAX_ENTROPY = 7.2; // bits per byte, compressed or encrypted data is close to 8
+	private static final int MAX_LINE_LENGTH = 2000;
+	private static final int MAX_AVERAGE_LINE_LENGTH = 300;
+	private static final int MAX_REMEMBERED_FILES = 100;
+
+	/**
+	 * Kind of contents
+	 */
+	public enum Kind
+	{
+		TEXT, BINARY, MINIFIED
+	}
+
+	private volatile boolean enabled = true;
+	private final AtomicInteger sniffedFiles = new AtomicInteger();
+	private final AtomicInteger binaryFiles = new AtomicInteger();
+	private final AtomicInteger minifiedFiles = new AtomicInteger();
+	private final LinkedList<String> skippedFiles = new LinkedList<String>(); // "path: reason"
+
+	/**
+	 * Reads the first bytes of the stream and resets it
+	 *
+	 * @param in stream that supports mark, see {@link #markable(InputStream)}
+	 * @return the first {@link #SNIFF_BYTES} bytes or less if the stream is shorter
+	 * @throws IOException
+	 */
+	public static byte[] readHead(InputStream in) throws IOException
+	{
+		byte[] buffer = new byte[SNIFF_BYTES];
+		int length = 0, read;
+
+		in.mark(SNIFF_BYTES);
+
+		while( length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) != -1 )
+			length += read;
+
+		in.reset();
+
+		byte[] head = new byte[length];
+		System.arraycopy(buffer, 0, head, 0, length);
+
+		return head;
+	}
+
+	/**
+	 * @param in
+	 * @return stream that can be reset after reading the head
+	 */
+	public static InputStream markable(InputStream in)
+	{
+		if( in.markSupported() )
+			return in;
+
+		return new BufferedInputStream(in, SNIFF_BYTES);
+	}
+
+	/**
+	 * Decides if the contents of a file should be indexed.
+	 * Skipped files are counted and remembered with the reason
+	 *
+	 * @param path of the file
+	 * @param head first bytes of the file
+	 * @return TEXT if the contents should be indexed
+	 */
+	public Kind sniff(String path, byte[] head)
+	{
+		if( !enabled )
+			return Kind.TEXT;
+
+		sniffedFiles.incrementAndGet();
+
+		String reason = getBinaryReason(head);
+		Kind kind = Kind.BINARY;
+
+		if( reason == null )
+		{
+			reason = getMinifiedReason(head);
+			kind = Kind.MINIFIED;
+		}
+
+		if( reason == null )
+			return Kind.TEXT;
+
+		if( kind == Kind.BINARY )
+			binaryFiles.incrementAndGet();
+		else
+			minifiedFiles.incrementAndGet();
+
+		synchronized(skippedFiles)
+		{
+			skippedFiles.add(path + ": " + reason);
+
+			if( skippedFiles.size() > MAX_REMEMBERED_FILES )
+				skippedFiles.removeFirst();
+		}
+
+		return kind;
+	}
+
+	/**
+	 * @param head
+	 * @return why the contents are binary or null if they look like text
+	 */
+	static String getBinaryReason(byte[] head)
+	{
+		int controlChars = 0;
+		int[] byteCounts = new int[256];
+
+		for(byte b: head)
+		{
+			int c = b & 0xFF;
+
+			if( c == 0 )
+				return "contains NUL bytes";
+
+			if( c < 0x20 && c != '\t' && c != '\n' && c != '\r' && c != '\f' && c != 0x1B ) // ESC is used in logs with colors
+				controlChars++;
+
+			byteCounts[c]++;
+		}
+
+		if( head.length > 0 && controlChars > head.length * MAX_CONTROL_CHAR_RATIO )
+			return "control characters " + (100 * controlChars / head.length) + "%";
+
+		if( head.length >= MIN_ENTROPY_BYTES )
+		{
+			double entropy = getEntropy(byteCounts, head.length);
+
+			if( entropy > MAX_ENTROPY )
+				return String.format("entropy %.1f bits/byte", entropy);
+		}
+
+		return null;
+	}
+
+	/**
+	 * @param head
+	 * @return why the contents look minified or null if the lines are short
+	 */
+	static String getMinifiedReason(byte[] head)
+	{
+		int lines = 0, lineLength = 0, maxLineLength = 0;
+
+		for(byte b: head)
+		{
+			if( b == '\n' )
+			{
+				lines++;
+				maxLineLength = Math.max(maxLineLength, lineLength);
+				lineLength = 0;
+			}
+			else if( b != '\r' )
+				lineLength++;
+		}
+
+		if( lineLength > 0 ) // last line, possibly cut
+		{
+			lines++;
+			maxLineLength = Math.max(maxLineLength, lineLength);
+		}
+
+		if( maxLineLength > MAX_LINE_LENGTH )
+			return "line of " + (maxLineLength == head.length ? "over " : "") + maxLineLength + " characters";
+
+		if( lines > 1 && head.length / lines > MAX_AVERAGE_LINE_LENGTH )
+			return "average line length " + (head.length / lines);
+
+		return null;
+	}
+
+	private static double getEntropy(int[] byteCounts, int length)
+	{
+		double entropy = 0;
+
+		for(int count: byteCounts)
+		{
+			if( count == 0 )
+				continue;
+
+			double p = count / (double) length;
+			entropy -= p * Math.log(p);
+		}
+
+		return entropy / Math.log(2);
+	}
+
+	/**
+	 * @param enabled false to index the contents of all files
+	 */
+	public void setEnabled(boolean enabled)
+	{
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return number of files looked at
+	 */
+	public int getSniffedFiles()
+	{
+		return sniffedFiles.get();
+	}
+
+	/**
+	 * @param kind
+	 * @return number of files of the kind whose contents were not indexed
+	 */
+	public int getSkippedFiles(Kind kind)
+	{
+		switch( kind )
+		{
+		case BINARY: return binaryFiles.get();
+		case MINIFIED: return minifiedFiles.get();
+		default: return 0;
+		}
+	}
+
+	/**
+	 * @return the last skipped files with the reason ("path: reason")
+	 */
+	public List<String> getLastSkippedFiles()
+	{
+		synchronized(skippedFiles)
+		{
+			return new ArrayList<String>(skippedFiles);
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ContentSniffer files: " + sniffedFiles.get() + ", binary: " + binaryFiles.get() + ", minified: " + minifiedFiles.get()
+			+ ", last skipped: " + getLastSkippedFiles();
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+
+/**
+ * Document frequencies of contents terms for one reader generation.
+ * Shared by the results of all searches on the same reader, so common terms (eg. get, string)
+ * are looked up in the term dictionary only once.
+ * Uses open addressing with parallel arrays of terms and frequencies (no boxed values or map entries)
+ */
+public class DocFreqCache
+{
+	private static final int INITIAL_CAPACITY = 1024; // power of 2
+
+	private IndexReader reader;
+	private String[] terms = new String[INITIAL_CAPACITY];
+	private int[] docFreqs = new int[INITIAL_CAPACITY];
+	private int size = 0;
+
+	private int lookups = 0;
+	private int seeks = 0;
+
+	/**
+	 * @param reader
+	 */
+	public DocFreqCache(IndexReader reader)
+	{
+		this.reader = reader;
+	}
+
+	/**
+	 * @return the reader whose frequencies are cached
+	 */
+	public IndexReader getReader()
+	{
+		return reader;
+	}
+
+	/**
+	 * @param term contents term
+	 * @return number of documents that contain the term
+	 * @throws IOException
+	 */
+	public synchronized int docFreq(String term) throws IOException
+	{
+		lookups++;
+
+		int slot = findSlot(terms, term);
+
+		if( terms[slot] != null )
+			return docFreqs[slot];
+
+		int docFreq = reader.docFreq(Field.CONTENTS.createTerm(term));
+		seeks++;
+
+		terms[slot] = term;
+		docFreqs[slot] = docFreq;
+
+		if( ++size > terms.length/2 )
+			grow();
+
+		return docFreq;
+	}
+
+	private static int findSlot(String[] terms, String term)
+	{
+		int mask = terms.length - 1;
+		int slot = term.hashCode() & mask;
+
+		while( terms[slot] != null && !terms[slot].equals(term) )
+			slot = (slot + 1) & mask; // linear probing
+
+		return slot;
+	}
+
+	private void grow()
+	{
+		String[] oldTerms = terms;
+		int[] oldDocFreqs = docFreqs;
+
+		terms = new String[oldTerms.length * 2];
+		docFreqs = new int[oldTerms.length * 2];
+
+		for(int i = 0; i < oldTerms.length; i++)
+		{
+			if( oldTerms[i] == null )
+				continue;
+
+			int slot = findSlot(terms, oldTerms[i]);
+			terms[slot] = oldTerms[i];
+			docFreqs[slot] = oldDocFreqs[i];
+		}
+	}
+
+	/**
+	 * @return number of cached terms
+	 */
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return number of term dictionary lookups (cache misses)
+	 */
+	public synchronized int getSeekCount()
+	{
+		return seeks;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "DocFreqCache terms: " + size + ", lookups: " + lookups + ", seeks: " + seeks;
+	}
+}
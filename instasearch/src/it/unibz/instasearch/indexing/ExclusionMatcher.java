@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Matches workspace paths against the excluded folder wildcard patterns.
+ *
+ * The patterns are compiled into a trie of path segments, so a path is matched by walking its segments once
+ * instead of running every pattern on it. Literal segments (eg. project/bin) are looked up in a map,
+ * segments with wildcards are matched by a regex of the segment only, and the rest of a pattern
+ * that can match across segments (** or ?) is matched as a regex of the rest of the path.
+ *
+ * Decisions for parent folders are remembered, so checking the folders of a traversal
+ * with {@link #isExcludedOrParent(String)} matches each folder only once
+ */
+public class ExclusionMatcher
+{
+	private static final int MAX_CACHED_DECISIONS = 1024;
+	/** Segments with these characters are matched as a regex of the rest of the path */
+	private static final String REGEX_CHARS = "?[](){}|+^$\\";
+
+	private final Node root = new Node();
+	private int patternCount = 0;
+
+	private final Map<String, Boolean> decisions = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > MAX_CACHED_DECISIONS;
+		}
+	};
+
+	/**
+	 * Adds a pattern of excluded folders
+	 *
+	 * @param wildcardPattern workspace path with * and ** wildcards
+	 * @throws PatternSyntaxException if the pattern is not valid
+	 */
+	public void add(String wildcardPattern) throws PatternSyntaxException
+	{
+		if( wildcardPattern.startsWith("/") )
+			wildcardPattern = wildcardPattern.substring(1);
+
+		wildcardToRegex(wildcardPattern); // check the whole pattern before changing the trie
+
+		addPattern(wildcardPattern);
+		patternCount++;
+
+		synchronized(decisions)
+		{
+			decisions.clear();
+		}
+	}
+
+	/**
+	 * @return true if there are no patterns
+	 */
+	public boolean isEmpty()
+	{
+		return patternCount == 0;
+	}
+
+	/**
+	 * @param path workspace path of a folder, eg. /project/folder
+	 * @return true if the path matches one of the patterns
+	 */
+	public boolean isExcluded(String path)
+	{
+		if( patternCount == 0 )
+			return false;
+
+		if( path.startsWith("/") )
+			path = path.substring(1);
+
+		List<Node> active = new ArrayList<Node>(2);
+		active.add(root);
+		int segmentStart = 0;
+
+		while( segmentStart < path.length() )
+		{
+			int segmentEnd = path.indexOf('/', segmentStart);
+			if( segmentEnd == -1 ) segmentEnd = path.length();
+
+			String rest = path.substring(segmentStart);
+			String segment = path.substring(segmentStart, segmentEnd);
+			List<Node> next = new ArrayList<Node>(2);
+
+			for(Node node: active)
+			{
+				if( node.matchesRest(rest) )
+					return true;
+
+				node.addChildren(segment, next);
+			}
+
+			if( next.isEmpty() )
+				return false;
+
+			active = next;
+			segmentStart = segmentEnd + 1;
+		}
+
+		for(Node node: active)
+		{
+			if( node.terminal )
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Checks the folder and its parents. Decisions are remembered,
+	 * so parents are not matched again when checking the other folders in them
+	 *
+	 * @param path workspace path of a folder
+	 * @return true if the folder or one of its parents is excluded
+	 */
+	public boolean isExcludedOrParent(String path)
+	{
+		if( patternCount == 0 )
+			return false;
+
+		if( path.endsWith("/") )
+			path = path.substring(0, path.length() - 1);
+
+		if( path.length() == 0 ) // the root
+			return isExcluded(path);
+
+		synchronized(decisions)
+		{
+			Boolean decision = decisions.get(path);
+			if( decision != null )
+				return decision;
+		}
+
+		String parent = path.substring(0, Math.max(0, path.lastIndexOf('/')));
+		boolean excluded = isExcludedOrParent(parent) || isExcluded(path);
+
+		synchronized(decisions)
+		{
+			decisions.put(path, excluded);
+		}
+
+		return excluded;
+	}
+
+	private void addPattern(String wildcardPattern)
+	{
+		Node node = root;
+		int segmentStart = 0;
+
+		while( segmentStart < wildcardPattern.length() )
+		{
+			int segmentEnd = wildcardPattern.indexOf('/', segmentStart);
+			if( segmentEnd == -1 ) segmentEnd = wildcardPattern.length();
+
+			String segment = wildcardPattern.substring(segmentStart, segmentEnd);
+
+			if( segment.contains("**") || !isSegmentPattern(segment) ) // can match across segments
+			{
+				node.restPatterns.add(wildcardToRegex(wildcardPattern.substring(segmentStart)));
+				return;
+			}
+
+			node = node.getChild(segment);
+			segmentStart = segmentEnd + 1;
+		}
+
+		if( wildcardPattern.endsWith("/") ) // pattern "folder/" only matches "folder/"
+			node.restPatterns.add(wildcardToRegex(""));
+		else
+			node.terminal = true;
+	}
+
+	private static boolean isSegmentPattern(String segment)
+	{
+		for(int i = 0; i < segment.length(); i++)
+		{
+			if( REGEX_CHARS.indexOf(segment.charAt(i)) != -1 )
+				return false;
+		}
+
+		return true;
+	}
+
+	private static boolean isLiteral(String segment)
+	{
+		return segment.indexOf('*') == -1; // . is escaped in the regex and ? sends the segment to the rest patterns
+	}
+
+	/**
+	 * Convert path matching wildcard pattern to regular expression.
+	 *
+	 * @param pathWildcardPattern
+	 * @return regex pattern
+	 */
+	public static Pattern wildcardToRegex(String pathWildcardPattern)
+	{
+		String regex = pathWildcardPattern;
+
+		regex = regex.replaceAll("\\*\\*", "<double-star>"); // escape initially
+		regex = regex.replaceAll("\\.", "\\\\."); // escape .
+		regex = regex.replaceAll("\\*", "[^/]*");
+		regex = regex.replaceAll("\\?", ".");
+		regex = regex.replaceAll("<double-star>", ".*");
+
+		Pattern pattern = Pattern.compile(regex);
+
+		return pattern;
+	}
+
+	private static class Node
+	{
+		private Map<String, Node> literalChildren;
+		private Map<String, Node> wildcardChildren;
+		private Map<String, Pattern> wildcardSegments;
+		private List<Pattern> restPatterns = new ArrayList<Pattern>(0);
+		private boolean terminal = false;
+
+		Node getChild(String segment)
+		{
+			boolean literal = isLiteral(segment);
+
+			if( literal && literalChildren == null )
+				literalChildren = new HashMap<String, Node>();
+			else if( !literal && wildcardChildren == null )
+			{
+				wildcardChildren = new HashMap<String, Node>();
+				wildcardSegments = new HashMap<String, Pattern>();
+			}
+
+			Map<String, Node> children = literal ? literalChildren : wildcardChildren;
+			Node child = children.get(segment);
+
+			if( child == null )
+			{
+				child = new Node();
+				children.put(segment, child);
+
+				if( !literal )
+					wildcardSegments.put(segment, wildcardToRegex(segment));
+			}
+
+			return child;
+		}
+
+		void addChildren(String segment, List<Node> matchingChildren)
+		{
+			if( literalChildren != null )
+			{
+				Node child = literalChildren.get(segment);
+				if( child != null ) matchingChildren.add(child);
+			}
+
+			if( wildcardChildren != null )
+			{
+				for(Map.Entry<String, Node> entry: wildcardChildren.entrySet())
+				{
+					if( wildcardSegments.get(entry.getKey()).matcher(segment).matches() )
+						matchingChildren.add(entry.getValue());
+				}
+			}
+		}
+
+		boolean matchesRest(String rest)
+		{
+			for(Pattern pattern: restPatterns)
+			{
+				if( pattern.matcher(rest).matches() )
+					return true;
+			}
+
+			return false;
+		}
+	}
+}
@@ -10,7 +10,9 @@ import org.apache.lucene.index.Term;
 public enum Field 
 {
 	EXT("Extension"), PROJ("Project"), WS("Working Set"),
-	CONTENTS, FILE, NAME, JAR, DIR, MODIFIED("Modified");
+	CONTENTS, FILE, NAME, JAR, DIR, MODIFIED("Modified"),
+	SIZE, HASH, // stored only, used to detect changed files
+	CHUNK, CHUNK_LINE, CHUNK_OFFSET; // stored only, position of a chunk of a large file (not stored in the first chunk)
 	
 	private String title;
 	
@@ -39,7 +39,10 @@ public class FileAnalyzer extends Analyzer {
 	
 	public TokenStream tokenStream(Reader reader) {
 		
-		TokenStream result = new StandardTokenizer(reader); // splits at ". ", etc.
+		return createFilters(new StandardTokenizer(reader)); // splits at ". ", etc.
+	}
+	
+	private TokenStream createFilters(TokenStream result) {
 		
 		// result = new SysoFilter(result);
 
@@ -57,6 +60,33 @@ public class FileAnalyzer extends Analyzer {
 	public TokenStream tokenStream(String fieldName, Reader reader) {
 		return tokenStream(reader);
 	}
+	
+	/**
+	 * Reuses the token stream of the current thread (the tokenizer and its filters) by resetting it to the new reader
+	 */
+	@Override
+	public TokenStream reusableTokenStream(String fieldName, Reader reader) throws IOException {
+		
+		SavedStreams streams = (SavedStreams) getPreviousTokenStream();
+		
+		if( streams == null ) {
+			streams = new SavedStreams();
+			streams.source = new StandardTokenizer(reader);
+			streams.result = createFilters(streams.source);
+			setPreviousTokenStream(streams);
+		} else {
+			streams.source.reset(reader);
+			streams.result.reset();
+		}
+		
+		return streams.result;
+	}
+	
+	private static class SavedStreams
+	{
+		StandardTokenizer source;
+		TokenStream result;
+	}
 
 	// used when debugging
 	public static class SysoFilter extends TokenFilter
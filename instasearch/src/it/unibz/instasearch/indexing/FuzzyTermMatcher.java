@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.util.ReaderUtil;
+
+/**
+ * Finds the terms within a few edits of a term (Levenshtein distance).
+ *
+ * The term dictionary of each segment is walked as a trie: the rows of the edit distance table are kept
+ * for the prefix shared with the previous term, and when no row entry is within the maximum edits
+ * the term enum seeks past all terms with the prefix. So only the prefixes that can still match are visited,
+ * like intersecting the dictionary with a Levenshtein automaton, instead of computing the distance to every term.
+ *
+ * At most a given number of terms is returned, the most similar and then the most frequent
+ */
+public class FuzzyTermMatcher
+{
+	/** Maximum number of edits, more edits would match too many terms */
+	public static final int MAX_EDITS = 2;
+
+	/**
+	 * Term similar to the searched term
+	 */
+	public static class SimilarTerm
+	{
+		private final Term term;
+		private final int edits;
+		private final float similarity;
+		private int docFreq;
+
+		SimilarTerm(Term term, int edits, float similarity, int docFreq)
+		{
+			this.term = term;
+			this.edits = edits;
+			this.similarity = similarity;
+			this.docFreq = docFreq;
+		}
+
+		/** @return the similar term */
+		public Term getTerm() { return term; }
+
+		/** @return Levenshtein distance to the searched term */
+		public int getEdits() { return edits; }
+
+		/** @return 1 - edits / length of the shorter term, as in FuzzyQuery */
+		public float getSimilarity() { return similarity; }
+
+		/** @return number of documents that contain the term */
+		public int getDocFreq() { return docFreq; }
+
+		@Override
+		public String toString() { return term.text() + " (" + edits + ", " + docFreq + ")"; }
+	}
+
+	/**
+	 * Finds the similar terms in all segments of the reader
+	 *
+	 * @param reader index or segment reader
+	 * @param term searched term
+	 * @param minSimilarity between 0 and 1, see {@link SimilarTerm#getSimilarity()}
+	 * @param maxTerms maximum number of returned terms
+	 * @return similar terms, the most similar and frequent first
+	 * @throws IOException
+	 */
+	public static List<SimilarTerm> getSimilarTerms(IndexReader reader, Term term, float minSimilarity, int maxTerms) throws IOException
+	{
+		String text = term.text();
+		int maxEdits = Math.min(MAX_EDITS, (int) ((1 - minSimilarity) * text.length()));
+
+		List<IndexReader> segments = new ArrayList<IndexReader>();
+		ReaderUtil.gatherSubReaders(segments, reader);
+
+		Map<String, SimilarTerm> similarTerms = new HashMap<String, SimilarTerm>();
+
+		for(IndexReader segment: segments)
+		{
+			new SegmentWalk(segment, term, maxEdits, minSimilarity).collect(similarTerms);
+		}
+
+		List<SimilarTerm> sortedTerms = new ArrayList<SimilarTerm>(similarTerms.values());
+
+		Collections.sort(sortedTerms, new Comparator<SimilarTerm>() {
+			public int compare(SimilarTerm term1, SimilarTerm term2) {
+				if( term1.similarity != term2.similarity )
+					return (term1.similarity > term2.similarity) ? -1 : 1;
+
+				if( term1.docFreq != term2.docFreq )
+					return term2.docFreq - term1.docFreq;
+
+				return term1.term.compareTo(term2.term);
+			}
+		});
+
+		if( sortedTerms.size() > maxTerms )
+			sortedTerms = new ArrayList<SimilarTerm>(sortedTerms.subList(0, maxTerms));
+
+		return sortedTerms;
+	}
+
+	/**
+	 * Computes the edit distance table of the searched term and the terms of one segment
+	 */
+	private static class SegmentWalk
+	{
+		private final IndexReader segment;
+		private final Term searchedTerm;
+		private final String field;
+		private final char[] text;
+		private final int maxEdits;
+		private final float minSimilarity;
+
+		private int[][] rows; // rows[d] are the distances of each prefix of the searched term to the first d characters
+
+		SegmentWalk(IndexReader segment, Term searchedTerm, int maxEdits, float minSimilarity)
+		{
+			this.segment = segment;
+			this.searchedTerm = searchedTerm;
+			this.field = searchedTerm.field(); // interned
+			this.text = searchedTerm.text().toCharArray();
+			this.maxEdits = maxEdits;
+			this.minSimilarity = minSimilarity;
+
+			rows = new int[16][];
+			rows[0] = new int[text.length + 1];
+
+			for(int i = 0; i <= text.length; i++)
+				rows[0][i] = i;
+		}
+
+		void collect(Map<String, SimilarTerm> similarTerms) throws IOException
+		{
+			String previous = "";
+			TermEnum termEnum = segment.terms(searchedTerm.createTerm(""));
+
+			try
+			{
+				while( termEnum.term() != null && termEnum.term().field() == field )
+				{
+					String term = termEnum.term().text();
+					int depth = commonPrefixLength(previous, term);
+					boolean pruned = false;
+
+					while( depth < term.length() )
+					{
+						int minDistance = computeRow(depth + 1, term.charAt(depth));
+						depth++;
+
+						if( minDistance > maxEdits ) // no term with this prefix can match
+						{
+							pruned = true;
+							break;
+						}
+					}
+
+					previous = term.substring(0, depth); // rows are valid up to here
+
+					if( pruned )
+					{
+						String next = getNextPrefix(previous);
+
+						if( next != null ) // seek over the terms starting with the prefix
+						{
+							termEnum.close();
+							termEnum = segment.terms(searchedTerm.createTerm(next));
+							continue;
+						}
+					}
+					else
+					{
+						int edits = rows[depth][text.length];
+
+						if( edits <= maxEdits )
+							addSimilarTerm(similarTerms, term, edits, termEnum.docFreq());
+					}
+
+					if( !termEnum.next() )
+						break;
+				}
+			}
+			finally
+			{
+				termEnum.close();
+			}
+		}
+
+		private void addSimilarTerm(Map<String, SimilarTerm> similarTerms, String term, int edits, int docFreq)
+		{
+			float similarity = 1 - edits / (float) Math.min(text.length, term.length());
+
+			if( similarity < minSimilarity && edits > 0 )
+				return;
+
+			SimilarTerm similarTerm = similarTerms.get(term);
+
+			if( similarTerm == null )
+				similarTerms.put(term, new SimilarTerm(searchedTerm.createTerm(term), edits, similarity, docFreq));
+			else
+				similarTerm.docFreq += docFreq; // in another segment
+		}
+
+		/**
+		 * @return minimum distance in the row
+		 */
+		private int computeRow(int depth, char c)
+		{
+			if( depth == rows.length )
+				rows = Arrays.copyOf(rows, rows.length * 2);
+
+			if( rows[depth] == null )
+				rows[depth] = new int[text.length + 1];
+
+			int[] previousRow = rows[depth - 1];
+			int[] row = rows[depth];
+			row[0] = depth;
+			int minDistance = depth;
+
+			for(int j = 1; j <= text.length; j++)
+			{
+				int cost = (text[j - 1] == c) ? 0 : 1;
+				row[j] = Math.min(Math.min(row[j - 1] + 1, previousRow[j] + 1), previousRow[j - 1] + cost);
+				minDistance = Math.min(minDistance, row[j]);
+			}
+
+			return minDistance;
+		}
+
+		/**
+		 * @return first string after all strings starting with the prefix or null if there is none
+		 */
+		private static String getNextPrefix(String prefix)
+		{
+			char last = prefix.charAt(prefix.length() - 1);
+
+			if( last == Character.MAX_VALUE )
+				return null;
+
+			return prefix.substring(0, prefix.length() - 1) + (char) (last + 1);
+		}
+
+		private static int commonPrefixLength(String s1, String s2)
+		{
+			int length = Math.min(s1.length(), s2.length());
+
+			for(int i = 0; i < length; i++)
+			{
+				if( s1.charAt(i) != s2.charAt(i) )
+					return i;
+			}
+
+			return length;
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.SimpleFSDirectory;
+
+/**
+ * Provides the Directory of the on-disk index.
+ * One instance is shared by the indexer and the searcher so that they use the same Directory implementation
+ * and the same Directory instance for a location. The directories must not be closed by their users,
+ * they are closed by the provider when their location is no longer read (see {@link #closeDirectoriesExcept(File)}).
+ * <p>
+ * In {@link Mode#AUTO} mode the implementation is chosen by platform and index size:
+ * memory-mapped on 64-bit JVMs (and for small indexes on 32-bit JVMs where address space is limited),
+ * otherwise SimpleFSDirectory on Windows (NIO positional reads are synchronized there) and NIOFSDirectory elsewhere
+ */
+public class IndexDirectoryProvider
+{
+	/** Largest index that is memory mapped on a 32-bit JVM */
+	static final long MAX_MMAP_SIZE_32BIT = 256L * 1024 * 1024;
+
+	/** Directory implementations */
+	public enum Mode {
+		/** chosen by platform and index size */
+		AUTO,
+		/** MMapDirectory */
+		MMAP,
+		/** NIOFSDirectory */
+		NIO,
+		/** SimpleFSDirectory */
+		SIMPLE;
+
+		/**
+		 * @param name (case insensitive)
+		 * @return Mode or AUTO if there is no such mode
+		 */
+		public static Mode getByName(String name)
+		{
+			try {
+				return Mode.valueOf(name.toUpperCase(Locale.ENGLISH));
+			} catch(Exception e) {
+				return AUTO;
+			}
+		}
+	}
+
+	private Mode mode;
+	private long maxIndexSize = 0;
+
+	private Map<File, FSDirectory> directories = new HashMap<File, FSDirectory>(); // current and new generation
+
+	/**
+	 * @param mode
+	 */
+	public IndexDirectoryProvider(Mode mode)
+	{
+		this.mode = mode;
+	}
+
+	/**
+	 * Returns the directory for the location, created on first use
+	 *
+	 * @param location
+	 * @return Directory that must not be closed
+	 * @throws IOException
+	 */
+	public synchronized Directory getDirectory(File location) throws IOException
+	{
+		FSDirectory dir = directories.get(location);
+
+		if( dir == null )
+		{
+			Mode dirMode = mode;
+
+			if( dirMode == Mode.AUTO )
+			{
+				maxIndexSize = Math.max(maxIndexSize, getSize(location)); // a new generation grows to the size of the previous
+				dirMode = chooseMode(isWindows(), is64BitJVM(), MMapDirectory.UNMAP_SUPPORTED, maxIndexSize);
+			}
+
+			dir = createDirectory(dirMode, location);
+			directories.put(location, dir);
+		}
+
+		return dir;
+	}
+
+	/**
+	 * Sets the mode used for directories created after this call (eg. for the next index generation).
+	 * Locations that already have a directory keep it, so the indexer and the searcher still share one instance
+	 *
+	 * @param mode
+	 */
+	public synchronized void setMode(Mode mode)
+	{
+		this.mode = mode;
+	}
+
+	/**
+	 * Closes the directory of the location, eg. when it is deleted
+	 *
+	 * @param location
+	 * @throws IOException
+	 */
+	public synchronized void closeDirectory(File location) throws IOException
+	{
+		FSDirectory dir = directories.remove(location);
+
+		if( dir != null )
+			dir.close();
+	}
+
+	/**
+	 * Closes the directories of all other locations.
+	 * Must only be called when no reader or writer uses them anymore (eg. replaced generations before they are deleted)
+	 *
+	 * @param location of the directory that is kept
+	 * @return number of closed directories
+	 * @throws IOException
+	 */
+	public synchronized int closeDirectoriesExcept(File location) throws IOException
+	{
+		int closedCount = 0;
+
+		for(Iterator<Map.Entry<File, FSDirectory>> it = directories.entrySet().iterator(); it.hasNext(); )
+		{
+			Map.Entry<File, FSDirectory> entry = it.next();
+
+			if( entry.getKey().equals(location) )
+				continue;
+
+			entry.getValue().close();
+			it.remove();
+			closedCount++;
+		}
+
+		return closedCount;
+	}
+
+	/**
+	 * @return configured mode
+	 */
+	public synchronized Mode getMode()
+	{
+		return mode;
+	}
+
+	/**
+	 * @param mode MMAP, NIO or SIMPLE
+	 * @param location
+	 * @return new directory
+	 * @throws IOException
+	 */
+	static FSDirectory createDirectory(Mode mode, File location) throws IOException
+	{
+		switch(mode)
+		{
+			case MMAP:
+				MMapDirectory mmapDir = new MMapDirectory(location);
+				if( MMapDirectory.UNMAP_SUPPORTED )
+					mmapDir.setUseUnmap(true); // release files immediately when closed, so old generations can be deleted
+				return mmapDir;
+			case NIO:
+				return new NIOFSDirectory(location);
+			case SIMPLE:
+				return new SimpleFSDirectory(location);
+			default:
+				return FSDirectory.open(location);
+		}
+	}
+
+	/**
+	 * @param windows
+	 * @param jvm64bit
+	 * @param unmapSupported whether mapped files can be released before garbage collection
+	 * @param indexSize in bytes
+	 * @return directory implementation for the platform
+	 */
+	static Mode chooseMode(boolean windows, boolean jvm64bit, boolean unmapSupported, long indexSize)
+	{
+		boolean canMap = jvm64bit || indexSize <= MAX_MMAP_SIZE_32BIT;
+
+		if( windows && !unmapSupported )
+			canMap = false; // mapped files of replaced generations could not be deleted
+
+		if( canMap )
+			return Mode.MMAP;
+
+		return windows ? Mode.SIMPLE : Mode.NIO;
+	}
+
+	private static long getSize(File location)
+	{
+		long size = 0;
+		File[] files = location.listFiles();
+
+		if( files != null )
+		{
+			for(File file: files)
+				size += file.length();
+		}
+
+		return size;
+	}
+
+	private static boolean isWindows()
+	{
+		return System.getProperty("os.name", "").toLowerCase(Locale.ENGLISH).startsWith("windows");
+	}
+
+	private static boolean is64BitJVM()
+	{
+		String dataModel = System.getProperty("sun.arch.data.model");
+
+		if( dataModel != null )
+			return "64".equals(dataModel);
+
+		return System.getProperty("os.arch", "").contains("64");
+	}
+}
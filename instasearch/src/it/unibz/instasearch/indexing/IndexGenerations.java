@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexFileNameFilter;
+
+/**
+ * Generations of the index, each in its own directory (gen-1, gen-2, ...) in the base index directory.
+ * <p>
+ * A rebuild writes a new generation while the current one keeps serving searches.
+ * The new generation becomes current when it is published by creating its marker file (gen-N.published),
+ * which is atomic, so an aborted rebuild leaves the current generation untouched.
+ * The current generation is the published one with the highest number.
+ * Before the first generation is published, the base directory itself is the index (as in older versions)
+ */
+public class IndexGenerations
+{
+	private static final String GENERATION_PREFIX = "gen-";
+	private static final String PUBLISHED_SUFFIX = ".published";
+
+	private File baseDir;
+	private File currentDir;
+
+	/**
+	 * @param baseDir directory that contains the generations
+	 */
+	public IndexGenerations(File baseDir)
+	{
+		this.baseDir = baseDir;
+	}
+
+	/**
+	 * @return directory of the current index
+	 */
+	public synchronized File getCurrentDir()
+	{
+		if( currentDir == null )
+		{
+			int current = getCurrentGeneration();
+			currentDir = (current == 0) ? baseDir : getGenerationDir(current);
+		}
+
+		return currentDir;
+	}
+
+	/**
+	 * Creates an empty directory for a new generation. It is not used until published
+	 *
+	 * @return directory of the new generation
+	 * @throws IOException
+	 */
+	public synchronized File createGeneration() throws IOException
+	{
+		int generation = getLastGeneration() + 1;
+		File generationDir = getGenerationDir(generation);
+
+		if( !generationDir.mkdirs() )
+			throw new IOException("Unable to create index directory " + generationDir);
+
+		return generationDir;
+	}
+
+	/**
+	 * Makes the generation current
+	 *
+	 * @param generationDir directory returned by {@link #createGeneration()}
+	 * @throws IOException
+	 */
+	public synchronized void publish(File generationDir) throws IOException
+	{
+		File marker = new File(baseDir, generationDir.getName() + PUBLISHED_SUFFIX);
+
+		if( !marker.createNewFile() )
+			throw new IOException("Index generation already published " + generationDir);
+
+		currentDir = null;
+	}
+
+	/**
+	 * Deletes the generations that are not current: older ones and aborted rebuilds.
+	 * Files that are still open (eg. by searches of an older generation on Windows) can't be deleted,
+	 * their generations are deleted next time
+	 *
+	 * @return number of deleted generations
+	 */
+	public synchronized int deleteOldGenerations()
+	{
+		File currentDir = getCurrentDir();
+		int deletedCount = 0;
+
+		if( currentDir.equals(baseDir) )
+			return deletedCount; // index of an older version, not using generations yet
+
+		for(File legacyFile: baseDir.listFiles((FilenameFilter) IndexFileNameFilter.getFilter()))
+			if( legacyFile.isFile() )
+				legacyFile.delete();
+
+		for(File dir: baseDir.listFiles())
+		{
+			int generation = parseGeneration(dir.getName());
+
+			if( generation == 0 || !dir.isDirectory() || dir.equals(currentDir) )
+				continue;
+
+			new File(baseDir, dir.getName() + PUBLISHED_SUFFIX).delete(); // unpublish first
+
+			if( deleteDir(dir) )
+				deletedCount++;
+		}
+
+		return deletedCount;
+	}
+
+	/**
+	 * @param generationDir
+	 * @return true if the directory was deleted
+	 */
+	public synchronized boolean deleteGeneration(File generationDir)
+	{
+		return deleteDir(generationDir);
+	}
+
+	private int getCurrentGeneration()
+	{
+		int current = 0;
+
+		for(String name: listNames())
+		{
+			if( !name.endsWith(PUBLISHED_SUFFIX) )
+				continue;
+
+			int generation = parseGeneration(name.substring(0, name.length() - PUBLISHED_SUFFIX.length()));
+
+			if( generation > current && getGenerationDir(generation).isDirectory() )
+				current = generation;
+		}
+
+		return current;
+	}
+
+	private int getLastGeneration()
+	{
+		int last = 0;
+
+		for(String name: listNames())
+			last = Math.max(last, parseGeneration(name));
+
+		return last;
+	}
+
+	private String[] listNames()
+	{
+		String[] names = baseDir.list();
+
+		return (names == null) ? new String[0] : names;
+	}
+
+	private File getGenerationDir(int generation)
+	{
+		return new File(baseDir, GENERATION_PREFIX + generation);
+	}
+
+	/**
+	 * @return generation number of the directory or 0 if it is not a generation
+	 */
+	private static int parseGeneration(String dirName)
+	{
+		if( !dirName.startsWith(GENERATION_PREFIX) )
+			return 0;
+
+		try {
+			return Integer.parseInt(dirName.substring(GENERATION_PREFIX.length()));
+		} catch(NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static boolean deleteDir(File dir)
+	{
+		File[] files = dir.listFiles();
+
+		if( files != null )
+		{
+			for(File file: files)
+				file.delete();
+		}
+
+		return dir.delete();
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.eclipse.core.resources.IStorage;
+
+/**
+ * Workspace files recorded in the index with their modification stamps, sizes and content hashes.
+ * The stamps are stored in the documents, so the manifest is always committed together with the index.
+ * A file indexed in chunks has its stamp in the last chunk, the hash is only known after all contents were read.
+ * Used at startup to find the files that changed while the index was not being updated (eg. Eclipse was closed)
+ */
+public class IndexManifest
+{
+	private static final FieldSelector FIELD_SELECTOR = new MapFieldSelector(new String[] {
+		Field.FILE.toString(), Field.MODIFIED.toString(), Field.SIZE.toString(), Field.HASH.toString(), Field.JAR.toString()});
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private Map<String, FileStamp> files = new HashMap<String, FileStamp>();
+
+	private IndexManifest()
+	{
+	}
+
+	/**
+	 * Reads the stamps of workspace files (not JAR entries) from the index
+	 *
+	 * @param reader
+	 * @return IndexManifest
+	 * @throws IOException
+	 */
+	public static IndexManifest read(IndexReader reader) throws IOException
+	{
+		IndexManifest manifest = new IndexManifest();
+
+		for(int docId = 0; docId < reader.maxDoc(); docId++)
+		{
+			if( reader.isDeleted(docId) )
+				continue;
+
+			Document doc = reader.document(docId, FIELD_SELECTOR);
+
+			if( !StorageIndexer.NO_VALUE.equals(doc.get(Field.JAR.toString())) )
+				continue;
+
+			FileStamp stamp = null;
+			String hash = doc.get(Field.HASH.toString());
+
+			if( hash != null ) // indexed with a stamp
+				stamp = new FileStamp(Long.parseLong(doc.get(Field.MODIFIED.toString())),
+						Long.parseLong(doc.get(Field.SIZE.toString())), StorageIndexer.NO_VALUE.equals(hash) ? null : hash);
+
+			String filePath = doc.get(Field.FILE.toString());
+
+			if( stamp != null || !manifest.files.containsKey(filePath) ) // don't replace the stamp by a chunk without one
+				manifest.files.put(filePath, stamp);
+		}
+
+		return manifest;
+	}
+
+	/**
+	 * @param filePath full path of the file in the workspace
+	 * @return true if the file is in the index
+	 */
+	public boolean contains(String filePath)
+	{
+		return files.containsKey(filePath);
+	}
+
+	/**
+	 * Removes the file from the manifest
+	 *
+	 * @param filePath
+	 * @return stamp of the indexed file or null if the file is not in the index or has no stamp
+	 */
+	public FileStamp remove(String filePath)
+	{
+		return files.remove(filePath);
+	}
+
+	/**
+	 * @return paths of the files in the manifest
+	 */
+	public Collection<String> getFilePaths()
+	{
+		return files.keySet();
+	}
+
+	/**
+	 * @return number of files
+	 */
+	public int size()
+	{
+		return files.size();
+	}
+
+	/**
+	 * Checks if the indexed file is the same as the current file.
+	 * The contents are only hashed if the modification stamp has changed but the size has not.
+	 * If the contents were not read when indexing (eg. binary files) only the modification stamp is compared
+	 *
+	 * @param indexedStamp stamp stored in the index, can be null
+	 * @param storage the current file
+	 * @param modificationStamp current modification stamp
+	 * @param size current size
+	 * @return true if the file doesn't need to be re-indexed
+	 * @throws IOException
+	 */
+	public static boolean isUnchanged(FileStamp indexedStamp, IStorage storage, long modificationStamp, long size) throws IOException
+	{
+		if( indexedStamp == null )
+			return false;
+
+		if( indexedStamp.getHash() == null )
+			return indexedStamp.getModificationStamp() == modificationStamp;
+
+		if( indexedStamp.getSize() != size )
+			return false;
+
+		if( indexedStamp.getModificationStamp() == modificationStamp )
+			return true;
+
+		return indexedStamp.getHash().equals(computeStamp(storage, modificationStamp).getHash()); // eg. touched or checked out again
+	}
+
+	/**
+	 * Reads the contents of the storage to compute its size and hash.
+	 * When indexing, the stamp is computed by {@link StampingInputStream} from the contents being indexed instead
+	 *
+	 * @param storage
+	 * @param modificationStamp
+	 * @return FileStamp
+	 * @throws IOException
+	 */
+	public static FileStamp computeStamp(IStorage storage, long modificationStamp) throws IOException
+	{
+		InputStream contents;
+
+		try {
+			contents = storage.getContents();
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+
+		StampingInputStream stampedContents = new StampingInputStream(contents);
+		byte[] buffer = new byte[BUFFER_SIZE];
+
+		try {
+			while( stampedContents.read(buffer) != -1 )
+				; // hashed while reading
+		} finally {
+			stampedContents.close();
+		}
+
+		return stampedContents.getStamp(modificationStamp);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "IndexManifest files: " + files.size();
+	}
+
+	/**
+	 * Computes the size and hash of the contents while they are read
+	 */
+	public static class StampingInputStream extends CheckedInputStream
+	{
+		private long size = 0;
+
+		/**
+		 * @param in the contents
+		 */
+		public StampingInputStream(InputStream in)
+		{
+			super(in, new CRC32());
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+
+			if( b != -1 )
+				size++;
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buf, int off, int len) throws IOException
+		{
+			int read = super.read(buf, off, len);
+
+			if( read != -1 )
+				size += read;
+
+			return read;
+		}
+
+		/**
+		 * @param modificationStamp
+		 * @return stamp of the contents read so far, complete once the end of the contents was reached
+		 */
+		public FileStamp getStamp(long modificationStamp)
+		{
+			return new FileStamp(modificationStamp, size, Long.toHexString(getChecksum().getValue()));
+		}
+	}
+
+	/**
+	 * Modification stamp, size and content hash of a file
+	 */
+	public static class FileStamp
+	{
+		private long modificationStamp;
+		private long size;
+		private String hash;
+
+		FileStamp(long modificationStamp, long size, String hash)
+		{
+			this.modificationStamp = modificationStamp;
+			this.size = size;
+			this.hash = hash;
+		}
+
+		/**
+		 * @return the modification stamp
+		 */
+		public long getModificationStamp()
+		{
+			return modificationStamp;
+		}
+
+		/**
+		 * @return size in bytes
+		 */
+		public long getSize()
+		{
+			return size;
+		}
+
+		/**
+		 * @return hash of the contents or null if the contents were not read when indexing
+		 */
+		public String getHash()
+		{
+			return hash;
+		}
+	}
+}
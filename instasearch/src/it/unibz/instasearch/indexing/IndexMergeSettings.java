@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LogByteSizeMergePolicy;
+
+/**
+ * How segments of the index are merged.
+ * <p>
+ * Segments are merged by byte size in levels: when a level has more segments than the segment budget,
+ * they are merged into one segment of the next level. Merges run in a background thread of low priority
+ * and segments larger than the maximum merge size are not merged again, so small updates never rewrite the whole index.
+ * The index is only optimized (merged to a single segment) on request or when many of its documents are deleted
+ */
+public class IndexMergeSettings
+{
+	/** Default number of segments per level */
+	public static final int DEFAULT_SEGMENTS_PER_LEVEL = 10;
+	/** Default size of the largest segments that are merged, in MB */
+	public static final double DEFAULT_MAX_MERGE_MB = 512;
+	/** Default ratio of deleted documents above which the index is optimized */
+	public static final double DEFAULT_MAX_DELETED_RATIO = 0.2;
+
+	private int segmentsPerLevel = DEFAULT_SEGMENTS_PER_LEVEL;
+	private double maxMergeMB = DEFAULT_MAX_MERGE_MB;
+	private double maxDeletedRatio = DEFAULT_MAX_DELETED_RATIO;
+
+	/**
+	 * Sets the merge policy and scheduler of the writer
+	 *
+	 * @param indexWriter
+	 * @throws IOException
+	 */
+	public void apply(IndexWriter indexWriter) throws IOException
+	{
+		LogByteSizeMergePolicy mergePolicy = new LogByteSizeMergePolicy(indexWriter);
+		mergePolicy.setMergeFactor(getSegmentsPerLevel());
+		mergePolicy.setMaxMergeMB(getMaxMergeMB());
+		indexWriter.setMergePolicy(mergePolicy);
+
+		ConcurrentMergeScheduler mergeScheduler = new ConcurrentMergeScheduler();
+		mergeScheduler.setMaxThreadCount(1);
+		mergeScheduler.setMergeThreadPriority(Thread.MIN_PRIORITY); // don't compete with the UI and builds
+		indexWriter.setMergeScheduler(mergeScheduler);
+	}
+
+	/**
+	 * @param reader
+	 * @return true if the ratio of deleted documents is above the threshold
+	 */
+	public boolean needsOptimize(IndexReader reader)
+	{
+		return needsOptimize(reader.maxDoc(), reader.numDeletedDocs());
+	}
+
+	/**
+	 * @param maxDoc number of documents including deleted ones
+	 * @param deletedDocs
+	 * @return true if the ratio of deleted documents is above the threshold
+	 */
+	public boolean needsOptimize(int maxDoc, int deletedDocs)
+	{
+		if( maxDoc == 0 )
+			return false;
+
+		return deletedDocs / (double) maxDoc > getMaxDeletedRatio();
+	}
+
+	/**
+	 * @return the number of segments per level (merge factor)
+	 */
+	public synchronized int getSegmentsPerLevel()
+	{
+		return segmentsPerLevel;
+	}
+
+	/**
+	 * @param segmentsPerLevel at least 2
+	 */
+	public synchronized void setSegmentsPerLevel(int segmentsPerLevel)
+	{
+		this.segmentsPerLevel = Math.max(2, segmentsPerLevel);
+	}
+
+	/**
+	 * @return the size of the largest segments that are merged, in MB
+	 */
+	public synchronized double getMaxMergeMB()
+	{
+		return maxMergeMB;
+	}
+
+	/**
+	 * @param maxMergeMB
+	 */
+	public synchronized void setMaxMergeMB(double maxMergeMB)
+	{
+		this.maxMergeMB = maxMergeMB;
+	}
+
+	/**
+	 * @return the ratio of deleted documents above which the index is optimized
+	 */
+	public synchronized double getMaxDeletedRatio()
+	{
+		return maxDeletedRatio;
+	}
+
+	/**
+	 * @param maxDeletedRatio
+	 */
+	public synchronized void setMaxDeletedRatio(double maxDeletedRatio)
+	{
+		this.maxDeletedRatio = maxDeletedRatio;
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+import org.apache.lucene.store.Directory;
+
+/**
+ * Counts the bytes written to the index during the last hour.
+ * Index files are never modified once written, so the bytes written by a writer
+ * are the sizes of the files that were not in the directory when the writer was opened.
+ * Files that were written and merged away before the writer closed are not counted
+ */
+public class IndexWriteStats
+{
+	private static final long HOUR = 60 * 60 * 1000;
+
+	private LinkedList<long[]> writes = new LinkedList<long[]>(); // {time, bytes}
+	private long totalBytes = 0;
+
+	/**
+	 * @param dir
+	 * @return names of the files in the directory
+	 * @throws IOException
+	 */
+	public static Set<String> listFiles(Directory dir) throws IOException
+	{
+		return new HashSet<String>(Arrays.asList(dir.listAll()));
+	}
+
+	/**
+	 * Records the files written since the directory contained the given files
+	 *
+	 * @param dir
+	 * @param filesBefore names of files returned by {@link #listFiles(Directory)} before writing
+	 * @return number of bytes written
+	 * @throws IOException
+	 */
+	public long recordWrites(Directory dir, Set<String> filesBefore) throws IOException
+	{
+		long bytes = 0;
+
+		for(String file: dir.listAll())
+		{
+			if( filesBefore.contains(file) || !dir.fileExists(file) )
+				continue;
+
+			try {
+				bytes += dir.fileLength(file);
+			} catch(IOException e) {
+				// deleted meanwhile
+			}
+		}
+
+		record(System.currentTimeMillis(), bytes);
+
+		return bytes;
+	}
+
+	synchronized void record(long time, long bytes)
+	{
+		writes.add(new long[]{time, bytes});
+		totalBytes += bytes;
+
+		expire(time);
+	}
+
+	/**
+	 * @return bytes written during the last hour
+	 */
+	public long getBytesPerHour()
+	{
+		return getBytesPerHour(System.currentTimeMillis());
+	}
+
+	synchronized long getBytesPerHour(long now)
+	{
+		expire(now);
+
+		long bytes = 0;
+
+		for(long[] write: writes)
+			bytes += write[1];
+
+		return bytes;
+	}
+
+	/**
+	 * @return bytes written since startup
+	 */
+	public synchronized long getTotalBytes()
+	{
+		return totalBytes;
+	}
+
+	private void expire(long now)
+	{
+		while( !writes.isEmpty() && writes.getFirst()[0] < now - HOUR )
+			writes.removeFirst();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "written " + getBytesPerHour()/1024 + " KB in the last hour, " + getTotalBytes()/1024 + " KB total";
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import it.unibz.instasearch.InstaSearchPlugin;
+
+import java.io.IOException;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.PrefixFilter;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+import org.eclipse.core.resources.IStorage;
+
+/**
+ * Keeps one IndexWriter open for a whole batch of index updates.
+ * Deletions are buffered by the writer and all changes are committed once when the session is closed,
+ * instead of opening, committing and closing a writer (or reader) for every changed file
+ */
+public class IndexWriterSession
+{
+	private IndexWriter indexWriter;
+	private Directory directory;
+	private IndexWriteStats writeStats;
+	private Set<String> filesBefore;
+
+	private int updatedCount = 0;
+	private int deletedCount = 0;
+	private long startTime;
+
+	/**
+	 * @param indexWriter
+	 * @param writeStats where the bytes written by the session are recorded
+	 * @throws IOException 
+	 */
+	IndexWriterSession(IndexWriter indexWriter, IndexWriteStats writeStats) throws IOException
+	{
+		this.indexWriter = indexWriter;
+		this.writeStats = writeStats;
+		this.directory = indexWriter.getDirectory();
+		this.filesBefore = IndexWriteStats.listFiles(directory);
+		this.startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return the writer of this session
+	 */
+	public IndexWriter getIndexWriter()
+	{
+		return indexWriter;
+	}
+
+	/**
+	 * Removes the storage from the index.
+	 * Only affects documents added before this call, so the storage can be re-added afterwards
+	 *
+	 * @param storage
+	 * @throws IOException
+	 */
+	public void deleteStorage(IStorage storage) throws IOException
+	{
+		deleteFile(storage.getFullPath().toString());
+	}
+
+	/**
+	 * Removes the file from the index
+	 *
+	 * @param filePath full path of the file
+	 * @throws IOException
+	 */
+	public void deleteFile(String filePath) throws IOException
+	{
+		Term term = Field.FILE.createTerm(filePath);
+
+		indexWriter.deleteDocuments(term);
+		deletedCount++;
+	}
+
+	/**
+	 * Removes all files in the folder and its subfolders, including files added earlier in this session.
+	 * The deletion walks the FILE terms that start with the folder path and marks their documents,
+	 * without scoring or collecting the matching documents
+	 *
+	 * @param folderPath full path of the folder
+	 * @throws IOException
+	 */
+	public void deleteFolder(String folderPath) throws IOException
+	{
+		String prefix = folderPath.endsWith("/") ? folderPath : folderPath + "/";
+		PrefixFilter filesInFolder = new PrefixFilter(Field.FILE.createTerm(prefix));
+
+		indexWriter.deleteDocuments(new ConstantScoreQuery(filesInFolder));
+		deletedCount++;
+	}
+
+	/**
+	 * Removes all documents matching the query
+	 *
+	 * @param query
+	 * @throws IOException
+	 */
+	public void deleteDocuments(Query query) throws IOException
+	{
+		indexWriter.deleteDocuments(query);
+		deletedCount++;
+	}
+
+	/**
+	 * Should be called after a file has been (re-)indexed using this session's writer
+	 */
+	void storageIndexed()
+	{
+		updatedCount++;
+	}
+
+	/**
+	 * @return number of files indexed during this session
+	 */
+	public int getUpdatedCount()
+	{
+		return updatedCount;
+	}
+
+	/**
+	 * @return number of delete operations during this session
+	 */
+	public int getDeletedCount()
+	{
+		return deletedCount;
+	}
+
+	/**
+	 * Commits all changes of the session and closes the writer
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException
+	{
+		try {
+			indexWriter.commit();
+		} finally {
+			indexWriter.close(); // waits for background merges
+		}
+
+		long elapsed = System.currentTimeMillis() - startTime;
+		int changes = Math.max(1, Math.max(updatedCount, deletedCount));
+		long bytes = writeStats.recordWrites(directory, filesBefore);
+
+		InstaSearchPlugin.debug("Index update session", "updated " + updatedCount, "deleted " + deletedCount,
+				elapsed + " ms", (elapsed / (double)changes) + " ms/file", bytes/1024 + " KB written", writeStats);
+	}
+}
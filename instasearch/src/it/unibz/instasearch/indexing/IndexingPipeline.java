@@ -0,0 +1,561 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.core.resources.IStorage;
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Indexes files in stages connected by bounded queues.
+ * The producer (eg. the workspace traversal) submits files while the stages process earlier ones,
+ * each stage on its own threads (eg. reading files on some threads and analyzing them on others),
+ * so I/O and CPU work overlap. When a queue is full the previous stage waits, which keeps memory bounded.
+ * <p>
+ * The progress monitor is only used from the thread that submits files and waits for completion
+ */
+public class IndexingPipeline
+{
+	/** How often to check for cancellation while waiting */
+	private static final long POLL_INTERVAL_MS = 100;
+	private static final PipelineFile END = new PipelineFile(null, null, 0);
+
+	private final int queueCapacity;
+	private List<Stage> stages = new ArrayList<Stage>();
+	private volatile Exception failure;
+	private volatile boolean stopped = false;
+	private boolean started = false;
+
+	private AtomicInteger completedFiles = new AtomicInteger();
+	private int submittedFiles = 0;
+	private int reportedFiles = 0;
+	private long startTime;
+
+	/**
+	 * @param queueCapacity number of files that can wait in front of each stage
+	 */
+	public IndexingPipeline(int queueCapacity)
+	{
+		this.queueCapacity = Math.max(1, queueCapacity);
+	}
+
+	/**
+	 * Adds a stage after the previously added stages
+	 *
+	 * @param name
+	 * @param threadCount
+	 * @param processor
+	 */
+	public void addStage(String name, int threadCount, FileProcessor processor)
+	{
+		if( started )
+			throw new IllegalStateException("Pipeline already started");
+
+		stages.add(new Stage(name, Math.max(1, threadCount), processor, queueCapacity));
+	}
+
+	/**
+	 * Starts the threads of all stages
+	 */
+	public void start()
+	{
+		startTime = System.currentTimeMillis();
+		started = true;
+
+		for(int i = 0; i < stages.size(); i++)
+			stages.get(i).start(i + 1 < stages.size() ? stages.get(i + 1) : null);
+	}
+
+	/**
+	 * Submits a file to the first stage. Waits while the first queue is full
+	 *
+	 * @param file
+	 * @param monitor
+	 * @return false if the file was not accepted because the pipeline has stopped (failed) or the monitor was canceled
+	 * @throws InterruptedException
+	 */
+	public boolean submit(PipelineFile file, IProgressMonitor monitor) throws InterruptedException
+	{
+		Stage first = stages.get(0);
+		boolean accepted = false;
+
+		while( !accepted && !stopped && !monitor.isCanceled() )
+		{
+			accepted = first.offer(file, POLL_INTERVAL_MS);
+			reportProgress(monitor);
+		}
+
+		if( accepted )
+			submittedFiles++;
+
+		return accepted;
+	}
+
+	/**
+	 * @return true if the pipeline doesn't accept files anymore (stopped or failed)
+	 */
+	public boolean isStopped()
+	{
+		return stopped;
+	}
+
+	/**
+	 * Waits until all submitted files have passed all stages or the monitor has been canceled
+	 * and stops the threads of the stages.
+	 *
+	 * @param monitor
+	 * @throws Exception the first exception thrown by a stage
+	 */
+	public void finish(IProgressMonitor monitor) throws Exception
+	{
+		try
+		{
+			stages.get(0).end(); // no more files
+
+			Stage last = stages.get(stages.size() - 1);
+
+			while( !last.awaitThreads(POLL_INTERVAL_MS) )
+			{
+				if( monitor.isCanceled() )
+					stopped = true; // skip queued files
+
+				reportProgress(monitor);
+			}
+
+			reportProgress(monitor);
+		}
+		finally
+		{
+			stop();
+		}
+
+		checkFailure();
+	}
+
+	/**
+	 * Stops processing. Queued files are skipped, files being processed are allowed to finish
+	 * (threads are not interrupted since that closes NIO channels of the index files).
+	 * Waits for the threads of all stages
+	 *
+	 * @throws InterruptedException
+	 */
+	public void stop() throws InterruptedException
+	{
+		stopped = true;
+
+		if( !started )
+			return;
+
+		stages.get(0).drain();
+		stages.get(0).end(); // the other stages are ended by the threads of the previous stage
+
+		for(Stage stage: stages)
+		{
+			while( !stage.awaitThreads(POLL_INTERVAL_MS) )
+				stage.drain();
+		}
+	}
+
+	private void reportProgress(IProgressMonitor monitor)
+	{
+		int completed = completedFiles.get();
+
+		if( completed > reportedFiles )
+		{
+			monitor.worked(completed - reportedFiles);
+			reportedFiles = completed;
+		}
+	}
+
+	private void checkFailure() throws Exception
+	{
+		if( failure != null )
+			throw failure;
+	}
+
+	private synchronized void failed(Exception e)
+	{
+		if( failure == null )
+			failure = e;
+
+		stopped = true;
+	}
+
+	/**
+	 * @return number of files that have passed all stages
+	 */
+	public int getCompletedFiles()
+	{
+		return completedFiles.get();
+	}
+
+	/**
+	 * @return number of submitted files
+	 */
+	public int getSubmittedFiles()
+	{
+		return submittedFiles;
+	}
+
+	/**
+	 * @return files that have passed all stages per second since the pipeline was started
+	 */
+	public double getThroughput()
+	{
+		long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+
+		return completedFiles.get() * 1000d / elapsed;
+	}
+
+	/**
+	 * @return metrics of the stages in the order they were added
+	 */
+	public List<StageMetrics> getStageMetrics()
+	{
+		List<StageMetrics> metrics = new ArrayList<StageMetrics>();
+
+		for(Stage stage: stages)
+			metrics.add(stage.metrics);
+
+		return metrics;
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder("IndexingPipeline files: " + completedFiles.get() + ", files/s: " + (int) getThroughput());
+
+		for(Stage stage: stages)
+			sb.append("\n  ").append(stage.metrics);
+
+		return sb.toString();
+	}
+
+	/**
+	 * Processes a file in a stage
+	 */
+	public interface FileProcessor
+	{
+		/**
+		 * Called concurrently by the threads of the stage
+		 *
+		 * @param file
+		 * @return file passed to the next stage or null if the file is skipped
+		 * @throws Exception
+		 */
+		public PipelineFile process(PipelineFile file) throws Exception;
+	}
+
+	/**
+	 * A file passed between the stages
+	 */
+	public static class PipelineFile
+	{
+		private final IStorage storage;
+		private final String projectName;
+		private final long modificationStamp;
+
+		/**
+		 * @param storage
+		 * @param projectName
+		 * @param modificationStamp
+		 */
+		public PipelineFile(IStorage storage, String projectName, long modificationStamp)
+		{
+			this.storage = storage;
+			this.projectName = projectName;
+			this.modificationStamp = modificationStamp;
+		}
+
+		/**
+		 * @return the storage
+		 */
+		public IStorage getStorage()
+		{
+			return storage;
+		}
+
+		/**
+		 * @return the project name
+		 */
+		public String getProjectName()
+		{
+			return projectName;
+		}
+
+		/**
+		 * @return the modification stamp
+		 */
+		public long getModificationStamp()
+		{
+			return modificationStamp;
+		}
+	}
+
+	/**
+	 * Counters of a stage
+	 */
+	public static class StageMetrics
+	{
+		private final String name;
+		private final int threadCount;
+		private final AtomicInteger processed = new AtomicInteger();
+		private final AtomicInteger skipped = new AtomicInteger();
+		private final AtomicLong busyNanos = new AtomicLong();
+		private final AtomicLong queueDepthSum = new AtomicLong();
+		private final AtomicInteger queueDepthSamples = new AtomicInteger();
+		private volatile int maxQueueDepth = 0;
+
+		StageMetrics(String name, int threadCount)
+		{
+			this.name = name;
+			this.threadCount = threadCount;
+		}
+
+		void sampleQueueDepth(int depth)
+		{
+			queueDepthSum.addAndGet(depth);
+			queueDepthSamples.incrementAndGet();
+
+			if( depth > maxQueueDepth )
+				maxQueueDepth = depth;
+		}
+
+		/**
+		 * @return the name of the stage
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @return number of threads
+		 */
+		public int getThreadCount()
+		{
+			return threadCount;
+		}
+
+		/**
+		 * @return number of processed files (including skipped)
+		 */
+		public int getProcessed()
+		{
+			return processed.get();
+		}
+
+		/**
+		 * @return number of files not passed to the next stage
+		 */
+		public int getSkipped()
+		{
+			return skipped.get();
+		}
+
+		/**
+		 * @return time spent processing files, summed over all threads (ms)
+		 */
+		public long getBusyTime()
+		{
+			return busyNanos.get() / 1000000;
+		}
+
+		/**
+		 * @return average number of queued files when a file was taken from the queue
+		 */
+		public double getAverageQueueDepth()
+		{
+			int samples = queueDepthSamples.get();
+
+			return (samples == 0) ? 0 : queueDepthSum.get() / (double) samples;
+		}
+
+		/**
+		 * @return maximum number of queued files
+		 */
+		public int getMaxQueueDepth()
+		{
+			return maxQueueDepth;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("%s: threads %d, files %d, skipped %d, busy %d ms, queue avg %.1f max %d",
+					name, threadCount, getProcessed(), getSkipped(), getBusyTime(), getAverageQueueDepth(), maxQueueDepth);
+		}
+	}
+
+	private class Stage
+	{
+		private final FileProcessor processor;
+		private final BlockingQueue<PipelineFile> queue;
+		private final StageMetrics metrics;
+		private final CountDownLatch threadsDone;
+		private final AtomicInteger runningThreads;
+		private boolean ended = false;
+		private Stage next;
+
+		Stage(String name, int threadCount, FileProcessor processor, int queueCapacity)
+		{
+			this.processor = processor;
+			this.queue = new ArrayBlockingQueue<PipelineFile>(queueCapacity);
+			this.metrics = new StageMetrics(name, threadCount);
+			this.threadsDone = new CountDownLatch(threadCount);
+			this.runningThreads = new AtomicInteger(threadCount);
+		}
+
+		void start(Stage next)
+		{
+			this.next = next;
+
+			for(int i = 0; i < metrics.getThreadCount(); i++)
+			{
+				Thread thread = new Thread(new Runnable() {
+					public void run() {
+						runStage();
+					}
+				}, "InstaSearch Indexer " + metrics.getName() + " " + (i + 1));
+
+				thread.setDaemon(true);
+				thread.setPriority(Thread.NORM_PRIORITY - 1); // don't compete with the UI
+				thread.start();
+			}
+		}
+
+		boolean offer(PipelineFile file, long timeoutMs) throws InterruptedException
+		{
+			return queue.offer(file, timeoutMs, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Signals the threads of this stage that no more files will come.
+		 * Waits for room in the queue, only called when nothing else puts files into it
+		 *
+		 * @throws InterruptedException
+		 */
+		synchronized void end() throws InterruptedException
+		{
+			if( ended )
+				return;
+
+			ended = true;
+
+			for(int i = 0; i < metrics.getThreadCount(); i++)
+				queue.put(END); // one for each thread
+		}
+
+		/**
+		 * Removes queued files, keeps the end markers
+		 */
+		void drain()
+		{
+			List<PipelineFile> queued = new ArrayList<PipelineFile>();
+			queue.drainTo(queued);
+
+			for(PipelineFile file: queued)
+			{
+				if( file == END )
+					queue.offer(END); // room, just drained
+			}
+		}
+
+		boolean awaitThreads(long timeoutMs) throws InterruptedException
+		{
+			return threadsDone.await(timeoutMs, TimeUnit.MILLISECONDS);
+		}
+
+		private void runStage()
+		{
+			try
+			{
+				while( true )
+				{
+					metrics.sampleQueueDepth(queue.size());
+					PipelineFile file = queue.take();
+
+					if( file == END )
+						break;
+
+					if( stopped )
+						continue; // skip, keep taking so that the previous stage doesn't wait
+
+					process(file);
+				}
+			}
+			catch(InterruptedException e)
+			{
+				failed(e);
+			}
+			finally
+			{
+				if( runningThreads.decrementAndGet() == 0 && next != null )
+					endNext();
+
+				threadsDone.countDown();
+			}
+		}
+
+		/**
+		 * Called by the last thread of this stage, nothing else puts files into the next stage then
+		 */
+		private void endNext()
+		{
+			try {
+				next.end();
+			} catch(InterruptedException e) {
+				failed(e);
+			}
+		}
+
+		private void process(PipelineFile file) throws InterruptedException
+		{
+			long start = System.nanoTime();
+			PipelineFile result;
+
+			try {
+				result = processor.process(file);
+			} catch(Exception e) {
+				failed(e);
+				return;
+			} finally {
+				metrics.busyNanos.addAndGet(System.nanoTime() - start);
+				metrics.processed.incrementAndGet();
+			}
+
+			if( result == null )
+			{
+				metrics.skipped.incrementAndGet();
+				completedFiles.incrementAndGet(); // done with this file
+				return;
+			}
+
+			if( next == null )
+			{
+				completedFiles.incrementAndGet();
+				return;
+			}
+
+			while( !stopped && !next.offer(result, POLL_INTERVAL_MS) )
+				; // next stage is busy, wait
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Finds the lines of a file that contain given character offsets (eg. term offsets stored in the index).
+ * The file is only scanned for line breaks, it is not analyzed, and reading stops after the line of the last offset
+ */
+public class LineLocator
+{
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Reads the lines that contain the offsets.
+	 * Line breaks are counted as in {@link java.io.LineNumberReader} (\n, \r or \r\n)
+	 *
+	 * @param reader the file contents, read the same way as during indexing
+	 * @param offsets sorted character offsets
+	 * @param maxLines maximum number of lines to return
+	 * @return map of line numbers (starting from 1) to line text, in line order
+	 * @throws IOException
+	 */
+	public static Map<Integer, String> readLines(Reader reader, int[] offsets, int maxLines) throws IOException
+	{
+		Map<Integer, String> lines = new LinkedHashMap<Integer, String>();
+		StringBuilder line = new StringBuilder();
+		char[] buffer = new char[BUFFER_SIZE];
+
+		int lineNumber = 1;
+		int pos = 0;
+		int nextOffset = 0;
+		boolean lineMatched = false;
+		char prev = 0;
+		int read;
+
+		while( (read = reader.read(buffer)) != -1 )
+		{
+			for(int i = 0; i < read; i++, pos++)
+			{
+				char c = buffer[i];
+
+				if( c == '\n' && prev == '\r' ) { // \r\n is one line break
+					prev = c;
+					continue;
+				}
+
+				prev = c;
+
+				while( nextOffset < offsets.length && offsets[nextOffset] <= pos ) {
+					lineMatched = true;
+					nextOffset++;
+				}
+
+				if( c == '\r' || c == '\n' )
+				{
+					if( lineMatched )
+						lines.put(lineNumber, line.toString());
+
+					if( nextOffset == offsets.length || lines.size() == maxLines )
+						return lines; // no more lines needed
+
+					lineNumber++;
+					line.setLength(0);
+					lineMatched = false;
+					continue;
+				}
+
+				line.append(c);
+			}
+		}
+
+		if( lineMatched && lines.size() < maxLines ) // last line without a line break
+			lines.put(lineNumber, line.toString());
+
+		return lines;
+	}
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermAttribute;
+
+/**
+ * Terms of a line of text and their offsets in the line.
+ * <p>
+ * One instance per thread is reused for every line, together with the analyzer's token stream,
+ * so the terms are only valid until the thread analyzes the next line.
+ * Token offsets are kept in int arrays and a term string is only created the first time the term appears on the line
+ */
+public class LineTerms
+{
+	private static final int INITIAL_CAPACITY = 16; // power of 2
+
+	private static final ThreadLocal<LineTerms> threadLineTerms = new ThreadLocal<LineTerms>() {
+		@Override
+		protected LineTerms initialValue() {
+			return new LineTerms();
+		}
+	};
+
+	private LineReader lineReader = new LineReader();
+
+	private String[] terms = new String[INITIAL_CAPACITY];
+	private int termCount = 0;
+	private int[] termSlots = new int[INITIAL_CAPACITY * 2]; // hash table of term index + 1, 0 if empty
+
+	private int[] tokenTerms = new int[INITIAL_CAPACITY];
+	private int[] tokenOffsets = new int[INITIAL_CAPACITY];
+	private int tokenCount = 0;
+
+	private LineTerms()
+	{
+	}
+
+	/**
+	 * Analyzes the text using the reusable token stream of the analyzer
+	 *
+	 * @param analyzer
+	 * @param text
+	 * @return terms of the text, valid until the next call in the same thread
+	 * @throws IOException
+	 */
+	public static LineTerms extract(Analyzer analyzer, String text) throws IOException
+	{
+		LineTerms lineTerms = threadLineTerms.get();
+		lineTerms.analyze(analyzer, text);
+
+		return lineTerms;
+	}
+
+	private void analyze(Analyzer analyzer, String text) throws IOException
+	{
+		clear();
+
+		lineReader.reset(text);
+		TokenStream tokenStream = analyzer.reusableTokenStream(Field.CONTENTS.toString(), lineReader);
+
+		TermAttribute termAtt = (TermAttribute) tokenStream.addAttribute(TermAttribute.class);
+		OffsetAttribute offsetAtt = (OffsetAttribute) tokenStream.addAttribute(OffsetAttribute.class);
+
+		while( tokenStream.incrementToken() )
+		{
+			int termIndex = addTerm(termAtt.termBuffer(), termAtt.termLength()); // already lower case
+			addToken(termIndex, offsetAtt.startOffset());
+		}
+
+		tokenStream.end();
+	}
+
+	private void clear()
+	{
+		Arrays.fill(terms, 0, termCount, null);
+		Arrays.fill(termSlots, 0);
+		termCount = 0;
+		tokenCount = 0;
+	}
+
+	private int addTerm(char[] buffer, int length)
+	{
+		int slot = findSlot(buffer, length);
+
+		if( termSlots[slot] != 0 )
+			return termSlots[slot] - 1;
+
+		if( termCount == terms.length )
+		{
+			terms = Arrays.copyOf(terms, terms.length * 2);
+			rehash(terms.length * 2);
+			slot = findSlot(buffer, length);
+		}
+
+		terms[termCount] = new String(buffer, 0, length);
+		termSlots[slot] = termCount + 1;
+
+		return termCount++;
+	}
+
+	private void addToken(int termIndex, int offset)
+	{
+		if( tokenCount == tokenTerms.length )
+		{
+			tokenTerms = Arrays.copyOf(tokenTerms, tokenCount * 2);
+			tokenOffsets = Arrays.copyOf(tokenOffsets, tokenCount * 2);
+		}
+
+		tokenTerms[tokenCount] = termIndex;
+		tokenOffsets[tokenCount] = offset;
+		tokenCount++;
+	}
+
+	private void rehash(int capacity)
+	{
+		termSlots = new int[capacity];
+
+		for(int i = 0; i < termCount; i++)
+		{
+			int slot = findSlot(terms[i]);
+			termSlots[slot] = i + 1;
+		}
+	}
+
+	/**
+	 * @return slot of the term or the empty slot where it should be added
+	 */
+	private int findSlot(char[] buffer, int length)
+	{
+		int hash = 0;
+		for(int i = 0; i < length; i++)
+			hash = 31*hash + buffer[i]; // same as String.hashCode()
+
+		int mask = termSlots.length - 1;
+		int slot = hash & mask;
+
+		while( termSlots[slot] != 0 && !equals(terms[termSlots[slot] - 1], buffer, length) )
+			slot = (slot + 1) & mask; // linear probing
+
+		return slot;
+	}
+
+	private int findSlot(String term)
+	{
+		int mask = termSlots.length - 1;
+		int slot = term.hashCode() & mask;
+
+		while( termSlots[slot] != 0 && !terms[termSlots[slot] - 1].equals(term) )
+			slot = (slot + 1) & mask;
+
+		return slot;
+	}
+
+	private static boolean equals(String term, char[] buffer, int length)
+	{
+		if( term.length() != length )
+			return false;
+
+		for(int i = 0; i < length; i++)
+			if( term.charAt(i) != buffer[i] )
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * @return true if the line has no terms
+	 */
+	public boolean isEmpty()
+	{
+		return termCount == 0;
+	}
+
+	/**
+	 * @return number of distinct terms
+	 */
+	public int size()
+	{
+		return termCount;
+	}
+
+	/**
+	 * @param term
+	 * @return true if the term appears in the line
+	 */
+	public boolean contains(String term)
+	{
+		return indexOf(term) != -1;
+	}
+
+	/**
+	 * @param term
+	 * @return index of the term or -1 if it doesn't appear in the line
+	 */
+	public int indexOf(String term)
+	{
+		return termSlots[findSlot(term)] - 1;
+	}
+
+	/**
+	 * @return distinct terms of the line
+	 */
+	public List<String> getTerms()
+	{
+		return Arrays.asList(terms).subList(0, termCount);
+	}
+
+	/**
+	 * @return number of tokens in the line
+	 */
+	public int getTokenCount()
+	{
+		return tokenCount;
+	}
+
+	/**
+	 * @param token
+	 * @return index of the token's term
+	 */
+	public int getTokenTerm(int token)
+	{
+		return tokenTerms[token];
+	}
+
+	/**
+	 * @param token
+	 * @return start offset of the token in the line
+	 */
+	public int getTokenOffset(int token)
+	{
+		return tokenOffsets[token];
+	}
+
+	/**
+	 * Reader of a string that can be reset to another string (java.io.StringReader can't)
+	 */
+	private static class LineReader extends Reader
+	{
+		private String text;
+		private int pos;
+
+		public void reset(String text)
+		{
+			this.text = text;
+			this.pos = 0;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len)
+		{
+			if( pos >= text.length() )
+				return -1;
+
+			int count = Math.min(len, text.length() - pos);
+			text.getChars(pos, pos + count, cbuf, off);
+			pos += count;
+
+			return count;
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the number of bytes of file contents that are loaded into memory and wait to be indexed.
+ * The read stage reserves the size of a file before loading it and the index stage releases it when done
+ */
+class LoadBudget
+{
+	private final int maxBytes;
+	private final Semaphore available;
+
+	/**
+	 * @param maxBytes maximum number of loaded bytes
+	 */
+	LoadBudget(int maxBytes)
+	{
+		this.maxBytes = Math.max(1, maxBytes);
+		this.available = new Semaphore(this.maxBytes);
+	}
+
+	/**
+	 * Waits until the bytes can be loaded. 
+	 * A size larger than the whole budget reserves the whole budget
+	 *
+	 * @param size of the file
+	 * @param timeoutMs
+	 * @return number of reserved bytes, to be passed to {@link #release(int)}, or -1 if timed out
+	 * @throws InterruptedException
+	 */
+	int reserve(long size, long timeoutMs) throws InterruptedException
+	{
+		int bytes = (int) Math.min(Math.max(0, size), maxBytes);
+
+		if( !available.tryAcquire(bytes, timeoutMs, TimeUnit.MILLISECONDS) )
+			return -1;
+
+		return bytes;
+	}
+
+	/**
+	 * @param bytes reserved bytes
+	 */
+	void release(int bytes)
+	{
+		available.release(bytes);
+	}
+
+	/**
+	 * @return number of bytes that can be reserved without waiting
+	 */
+	int getAvailable()
+	{
+		return available.availablePermits();
+	}
+}
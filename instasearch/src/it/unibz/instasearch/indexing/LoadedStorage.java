@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.eclipse.core.resources.IStorage;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * Storage with its contents read into memory, so that it can be analyzed on another thread than the one that read it.
+ * The loaded bytes are reserved in a {@link LoadBudget} until {@link #release()}
+ */
+class LoadedStorage implements IStorage
+{
+	private static final int BUFFER_SIZE = 8192;
+
+	private final IStorage storage;
+	private final byte[] contents;
+	private final LoadBudget budget;
+	private int reservedBytes;
+
+	/**
+	 * @param storage
+	 * @param contents of the storage
+	 */
+	LoadedStorage(IStorage storage, byte[] contents)
+	{
+		this(storage, contents, null, 0);
+	}
+
+	/**
+	 * @param storage
+	 * @param contents of the storage
+	 * @param budget where the contents are reserved, or null
+	 * @param reservedBytes
+	 */
+	LoadedStorage(IStorage storage, byte[] contents, LoadBudget budget, int reservedBytes)
+	{
+		this.storage = storage;
+		this.contents = contents;
+		this.budget = budget;
+		this.reservedBytes = reservedBytes;
+	}
+
+	/**
+	 * Reads the contents of the storage
+	 *
+	 * @param storage
+	 * @return LoadedStorage
+	 * @throws CoreException
+	 * @throws IOException
+	 */
+	static LoadedStorage load(IStorage storage) throws CoreException, IOException
+	{
+		return load(storage, null, 0);
+	}
+
+	/**
+	 * Reads the contents of the storage. The reserved bytes are released if reading fails
+	 *
+	 * @param storage
+	 * @param budget where the bytes were reserved, or null
+	 * @param reservedBytes
+	 * @return LoadedStorage
+	 * @throws CoreException
+	 * @throws IOException
+	 */
+	static LoadedStorage load(IStorage storage, LoadBudget budget, int reservedBytes) throws CoreException, IOException
+	{
+		boolean loaded = false;
+		
+		try {
+			LoadedStorage loadedStorage = new LoadedStorage(storage, readContents(storage), budget, reservedBytes);
+			loaded = true;
+			
+			return loadedStorage;
+		} finally {
+			if( !loaded && budget != null )
+				budget.release(reservedBytes);
+		}
+	}
+
+	private static byte[] readContents(IStorage storage) throws CoreException, IOException
+	{
+		InputStream in = storage.getContents();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int read;
+
+		try {
+			while( (read = in.read(buffer)) != -1 )
+				out.write(buffer, 0, read);
+		} finally {
+			in.close();
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Releases the reserved bytes, called once the contents have been indexed
+	 */
+	synchronized void release()
+	{
+		if( budget != null )
+			budget.release(reservedBytes);
+
+		reservedBytes = 0;
+	}
+
+	/**
+	 * @return the storage that was loaded
+	 */
+	IStorage getStorage()
+	{
+		return storage;
+	}
+
+	public InputStream getContents() throws CoreException
+	{
+		return new ByteArrayInputStream(contents);
+	}
+
+	public IPath getFullPath()
+	{
+		return storage.getFullPath();
+	}
+
+	public String getName()
+	{
+		return storage.getName();
+	}
+
+	public boolean isReadOnly()
+	{
+		return storage.isReadOnly();
+	}
+
+	@SuppressWarnings("rawtypes")
+	public Object getAdapter(Class adapter)
+	{
+		return storage.getAdapter(adapter);
+	}
+}
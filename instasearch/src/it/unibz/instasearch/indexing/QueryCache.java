@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import it.unibz.instasearch.indexing.querying.FieldAliasConverter;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Query;
+
+/**
+ * LRU cache of parsed and rewritten queries.
+ * Retyping or deleting characters of the search string then skips query parsing and rewriting
+ * (expanding prefix, wildcard and fuzzy terms against the term dictionary).
+ * Rewritten queries depend on the index terms, so entries are only valid for one reader version
+ */
+public class QueryCache
+{
+	private static final int MAX_CACHED_QUERIES = 100;
+	private static final Pattern FIELD_PATTERN = Pattern.compile("(\\w+):");
+
+	private Map<Key, Query> cache = new LinkedHashMap<Key, Query>(MAX_CACHED_QUERIES, 0.75f, true) // access order
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Query> eldest)
+		{
+			return size() > MAX_CACHED_QUERIES;
+		}
+	};
+
+	private int hits = 0;
+	private int misses = 0;
+
+	/**
+	 * Creates a cache key for the current state of the search query
+	 *
+	 * @param searchQuery
+	 * @param reader the reader that the query will be rewritten with
+	 * @return cache key or null if the query should not be cached
+	 */
+	public Key createKey(SearchQuery searchQuery, IndexReader reader)
+	{
+		if( ! isCacheable(searchQuery) )
+			return null;
+
+		return new Key(searchQuery, reader.getVersion());
+	}
+
+	/**
+	 * @param key
+	 * @return cached query or null if not found
+	 */
+	public synchronized Query get(Key key)
+	{
+		if( key == null )
+			return null;
+
+		Query query = cache.get(key);
+
+		if( query == null )
+			misses++;
+		else
+			hits++;
+
+		return query;
+	}
+
+	/**
+	 * @param key if null, nothing is cached
+	 * @param query
+	 */
+	public synchronized void put(Key key, Query query)
+	{
+		if( key == null || query == null )
+			return;
+
+		cache.put(key, query);
+	}
+
+	/**
+	 * Removes all cached queries. Should be called when the reader changes
+	 */
+	public synchronized void clear()
+	{
+		cache.clear();
+	}
+
+	/**
+	 * @return number of cache hits
+	 */
+	public synchronized int getHitCount()
+	{
+		return hits;
+	}
+
+	/**
+	 * @return number of cache misses
+	 */
+	public synchronized int getMissCount()
+	{
+		return misses;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		int lookups = Math.max(1, hits + misses);
+
+		return "QueryCache hits: " + hits + ", misses: " + misses + ", hit ratio: " + (hits * 100 / lookups) + "%";
+	}
+
+	/**
+	 * Queries on modification time and working sets depend on the current time
+	 * and working set contents, not only on the index, so they are not cached
+	 *
+	 * @param searchQuery
+	 * @return isCacheable
+	 */
+	private static boolean isCacheable(SearchQuery searchQuery)
+	{
+		Map<Field, Set<String>> filter = searchQuery.getFilter();
+
+		if( filter != null && (filter.containsKey(Field.MODIFIED) || filter.containsKey(Field.WS)) )
+			return false;
+
+		Matcher matcher = FIELD_PATTERN.matcher(searchQuery.getSearchString());
+
+		while( matcher.find() )
+		{
+			Field field = FieldAliasConverter.getField(matcher.group(1));
+
+			if( field == Field.MODIFIED || field == Field.WS )
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Identifies a rewritten query
+	 */
+	public static class Key
+	{
+		private String searchString;
+		private boolean exact;
+		private boolean fuzzy;
+		private Map<Field, Set<String>> filter;
+		private String currentProject;
+		private long readerVersion;
+
+		private Key(SearchQuery searchQuery, long readerVersion)
+		{
+			this.searchString = searchQuery.getSearchString();
+			this.exact = searchQuery.isExact();
+			this.fuzzy = searchQuery.isFuzzy();
+			this.currentProject = searchQuery.getCurrentProject();
+			this.readerVersion = readerVersion;
+
+			if( searchQuery.getFilter() != null )
+				this.filter = new HashMap<Field, Set<String>>(searchQuery.getFilter()); // copy since it can be modified
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int hash = searchString.hashCode();
+			hash = 31*hash + (exact ? 1 : 0);
+			hash = 31*hash + (fuzzy ? 1 : 0);
+			hash = 31*hash + (filter == null ? 0 : filter.hashCode());
+			hash = 31*hash + (currentProject == null ? 0 : currentProject.hashCode());
+			hash = 31*hash + (int)(readerVersion ^ (readerVersion >>> 32));
+
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if( obj == this ) return true;
+			if( !(obj instanceof Key) ) return false;
+
+			Key key = (Key) obj;
+
+			if( exact != key.exact || fuzzy != key.fuzzy || readerVersion != key.readerVersion ) return false;
+			if( ! searchString.equals(key.searchString) ) return false;
+			if( filter == null ? key.filter != null : !filter.equals(key.filter) ) return false;
+			if( currentProject == null ? key.currentProject != null : !currentProject.equals(key.currentProject) ) return false;
+
+			return true;
+		}
+	}
+}
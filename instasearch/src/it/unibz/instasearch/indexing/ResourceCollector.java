@@ -11,11 +11,8 @@
  */
 package it.unibz.instasearch.indexing;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
-import java.util.List;
-import java.util.regex.Pattern;
 
 import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IProject;
@@ -26,7 +23,7 @@ import org.eclipse.core.runtime.CoreException;
 public class ResourceCollector implements IResourceVisitor
 {
 	private Collection<IContainer> containers = new LinkedList<IContainer>();
-	private List<Pattern> excludedPatterns = new ArrayList<Pattern>();
+	private ExclusionMatcher exclusionMatcher = new ExclusionMatcher();
 	
 	public ResourceCollector() {
 	}
@@ -36,7 +33,7 @@ public class ResourceCollector implements IResourceVisitor
 		if( !(resource instanceof IContainer) )
 			return false;
 		
-		if( isResourceExcluded(resource, excludedPatterns) )
+		if( exclusionMatcher.isExcluded(resource.getFullPath().toString()) )
 			return false;
 		
 		switch(resource.getType()) 
@@ -52,27 +49,6 @@ public class ResourceCollector implements IResourceVisitor
 	}
 	
 	
-	/**
-	 * @param resource
-	 * @param excludedDirPatterns
-	 * @return
-	 */
-	static boolean isResourceExcluded(IResource resource,
-			List<Pattern> excludedDirPatterns)
-	{
-		String path = resource.getFullPath().toString();
-		
-		if( path.startsWith("/") ) path = path.substring(1);
-		
-		for(Pattern pattern: excludedDirPatterns)
-		{
-			if( pattern.matcher(path).matches() )
-				return true;
-		}
-		
-		return false;
-	}
-
 	public boolean visit(IProject project) {
 		if( !project.isOpen()  ) // don't visit closed projects
 			return false;
@@ -91,14 +67,14 @@ public class ResourceCollector implements IResourceVisitor
 	 */
 	public void clear() {
 		 containers.clear();
-		 excludedPatterns.clear();
+		 exclusionMatcher = new ExclusionMatcher();
 	}
 
 	/**
-	 * @param excludedDirRegExes 
+	 * @param exclusionMatcher matcher of excluded folders
 	 */
-	public void setExcludedDirRegExes(List<Pattern> excludedDirRegExes) {
-		 this.excludedPatterns = new ArrayList<Pattern>(excludedDirRegExes);
+	public void setExclusionMatcher(ExclusionMatcher exclusionMatcher) {
+		 this.exclusionMatcher = exclusionMatcher;
 	}
 
 }
\ No newline at end of file
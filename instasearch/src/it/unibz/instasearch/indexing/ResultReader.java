@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.TermFreqVector;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.Similarity;
+import org.apache.lucene.util.ReaderUtil;
+
+/**
+ * Index reader shared by the documents of one search result.
+ * Keeps the reader that produced the result open until the result is released,
+ * so term vectors and document frequencies are read without opening the index again.
+ * Document frequencies are cached for the reader and shared with other results.
+ * Modification times are read from the field cache of each segment, which is kept for the
+ * segment while it is open, so only new segments are loaded after the index changes
+ */
+public class ResultReader
+{
+	private IndexReader reader;
+	private int maxDoc;
+	private DocFreqCache docFreqCache;
+	private boolean released = false;
+	private long[][] segmentStamps; // modification times per segment
+	private int[] segmentStarts;
+
+	/**
+	 * Increases the reference count of the reader until {@link #release()} is called
+	 *
+	 * @param docFreqCache document frequencies of the reader that was searched
+	 */
+	ResultReader(DocFreqCache docFreqCache)
+	{
+		this.docFreqCache = docFreqCache;
+		this.reader = docFreqCache.getReader();
+		this.maxDoc = reader.maxDoc();
+
+		reader.incRef();
+	}
+
+	/**
+	 * @param docId
+	 * @return term frequency vector of document contents or null if not available (or released)
+	 * @throws IOException
+	 */
+	public synchronized TermFreqVector getTermFreqVector(int docId) throws IOException
+	{
+		if( released )
+			return null;
+
+		return reader.getTermFreqVector(docId, Field.CONTENTS.toString());
+	}
+
+	/**
+	 * Inverse document frequency of a contents term
+	 *
+	 * @param term
+	 * @return idf or 0 if released
+	 * @throws IOException
+	 */
+	public synchronized float idf(String term) throws IOException
+	{
+		if( released )
+			return 0;
+
+		int docFreq = docFreqCache.docFreq(term);
+		Similarity sim = Searcher.SIMILARITY;
+
+		return sim.idf(docFreq, maxDoc);
+	}
+
+	/**
+	 * @param docId
+	 * @return modification time of the document in milliseconds or 0 if released
+	 * @throws IOException
+	 */
+	public synchronized long getModificationStamp(int docId) throws IOException
+	{
+		if( released )
+			return 0;
+
+		if( segmentStamps == null )
+			loadModificationStamps();
+
+		int segment = ReaderUtil.subIndex(docId, segmentStarts);
+
+		return segmentStamps[segment][docId - segmentStarts[segment]];
+	}
+
+	private void loadModificationStamps() throws IOException
+	{
+		List<IndexReader> segments = new ArrayList<IndexReader>();
+		ReaderUtil.gatherSubReaders(segments, reader);
+
+		segmentStamps = new long[segments.size()][];
+		segmentStarts = new int[segments.size()];
+		int start = 0;
+
+		for(int i = 0; i < segments.size(); i++)
+		{
+			IndexReader segment = segments.get(i);
+
+			segmentStamps[i] = FieldCache.DEFAULT.getLongs(segment, Field.MODIFIED.toString(), FieldCache.NUMERIC_UTILS_LONG_PARSER);
+			segmentStarts[i] = start;
+			start += segment.maxDoc();
+		}
+	}
+
+	/**
+	 * @return document frequencies of the reader
+	 */
+	public DocFreqCache getDocFreqCache()
+	{
+		return docFreqCache;
+	}
+
+	/**
+	 * @return true if the reader has been released
+	 */
+	public synchronized boolean isReleased()
+	{
+		return released;
+	}
+
+	/**
+	 * Releases the reader. It is closed when no other searches use it.
+	 * Documents of the result don't have term scores after this
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void release() throws IOException
+	{
+		if( released )
+			return;
+
+		released = true;
+		reader.decRef();
+	}
+}
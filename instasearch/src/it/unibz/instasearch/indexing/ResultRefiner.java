@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.analysis.StopAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.TopDocCollector;
+import org.apache.lucene.util.OpenBitSet;
+import org.apache.lucene.util.ReaderUtil;
+
+/**
+ * Refines the results of the previous search when the user continues typing the last word of the query.
+ * <p>
+ * The matching documents of the previous (non-exact, non-fuzzy) search are kept in a bitset.
+ * If the new search string only appends letters to the last word, every document that matches the new query
+ * also matched the previous one, so the previous matches are used as a filter and only they are scored.
+ * In all other cases a full search is done.
+ * <p>
+ * The narrowing is only provable for plain multi-word queries of lowercase letters:
+ * <ul>
+ * <li>a single word query also searches the file name field which is not prefixed</li>
+ * <li>upper case letters and other characters can be split into several terms by the query analyzer</li>
+ * <li>stop words are removed from the exact phrase, but not from the token query</li>
+ * <li>the last word of the previous query must have been long enough to be searched as a prefix</li>
+ * </ul>
+ */
+public class ResultRefiner
+{
+	private static final Pattern REFINABLE_SEARCH_STRING = Pattern.compile("[a-z]+( +[a-z]+)+");
+	private static final Pattern APPENDED_LETTERS = Pattern.compile("[a-z]+");
+
+	private int minPrefixLength;
+
+	private String searchString;
+	private Map<Field, Set<String>> filter;
+	private String currentProject;
+	private long readerVersion;
+	private OpenBitSet matches;
+
+	private int refinedCount = 0;
+	private int fullCount = 0;
+
+	/**
+	 * @param minPrefixLength minimum length of the last word to be searched as a prefix
+	 * @see it.unibz.instasearch.indexing.querying.LastTermQueryPrefixer
+	 */
+	public ResultRefiner(int minPrefixLength)
+	{
+		this.minPrefixLength = minPrefixLength;
+	}
+
+	/**
+	 * @param searchQuery
+	 * @return true if the matches of this query can be used to refine the following queries
+	 */
+	public boolean isRefinable(SearchQuery searchQuery)
+	{
+		if( searchQuery.isExact() || searchQuery.isFuzzy() )
+			return false;
+
+		String searchString = searchQuery.getSearchString();
+
+		if( ! REFINABLE_SEARCH_STRING.matcher(searchString).matches() )
+			return false;
+
+		for(String word: searchString.split(" +"))
+		{
+			if( StopAnalyzer.ENGLISH_STOP_WORDS_SET.contains(word) )
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns a filter of the previous matches if the query provably narrows the previous one
+	 *
+	 * @param searchQuery
+	 * @param reader the reader that will be searched
+	 * @return filter or null if a full search is needed
+	 */
+	public synchronized Filter getRefinementFilter(SearchQuery searchQuery, IndexReader reader)
+	{
+		if( matches == null || !isRefinable(searchQuery) || !isNarrower(searchQuery, reader) )
+		{
+			fullCount++;
+			return null;
+		}
+
+		refinedCount++;
+
+		return new MatchFilter(matches, reader);
+	}
+
+	private boolean isNarrower(SearchQuery searchQuery, IndexReader reader)
+	{
+		if( reader.getVersion() != readerVersion || !equal(searchQuery.getCurrentProject(), currentProject) )
+			return false;
+
+		if( !equal(searchQuery.getFilter(), filter) )
+			return false;
+
+		String newSearchString = searchQuery.getSearchString();
+
+		if( newSearchString.length() <= searchString.length() || !newSearchString.startsWith(searchString) )
+			return false;
+
+		String lastWord = searchString.substring(searchString.lastIndexOf(' ') + 1);
+
+		if( lastWord.length() < minPrefixLength ) // was not searched as a prefix
+			return false;
+
+		String appended = newSearchString.substring(searchString.length());
+
+		return APPENDED_LETTERS.matcher(appended).matches(); // extends the last word
+	}
+
+	/**
+	 * Remembers the matches of a search for refining the next one
+	 *
+	 * @param searchQuery
+	 * @param reader the reader that was searched
+	 * @param prefixed true if the last word was searched as a prefix
+	 * @param matches all matching documents of the query
+	 */
+	public synchronized void setPreviousMatches(SearchQuery searchQuery, IndexReader reader, boolean prefixed, OpenBitSet matches)
+	{
+		if( !prefixed || !isRefinable(searchQuery) )
+		{
+			clear();
+			return;
+		}
+
+		this.searchString = searchQuery.getSearchString();
+		this.currentProject = searchQuery.getCurrentProject();
+		this.readerVersion = reader.getVersion();
+		this.matches = matches;
+
+		if( searchQuery.getFilter() == null )
+			this.filter = null;
+		else
+			this.filter = new HashMap<Field, Set<String>>(searchQuery.getFilter());
+	}
+
+	/**
+	 * Forgets the previous matches. Should be called when the reader changes
+	 */
+	public synchronized void clear()
+	{
+		searchString = null;
+		matches = null;
+		filter = null;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "ResultRefiner refined: " + refinedCount + ", full searches: " + fullCount;
+	}
+
+	private static boolean equal(Object o1, Object o2)
+	{
+		return o1 == null ? o2 == null : o1.equals(o2);
+	}
+
+	/**
+	 * Collects the top documents and records all matching documents in a bitset
+	 */
+	public static class MatchCollector extends TopDocCollector
+	{
+		private OpenBitSet matches;
+
+		/**
+		 * @param numHits number of top documents to collect
+		 * @param maxDoc
+		 */
+		public MatchCollector(int numHits, int maxDoc)
+		{
+			super(numHits);
+			matches = new OpenBitSet(maxDoc);
+		}
+
+		@Override
+		public void collect(int doc, float score)
+		{
+			if( score > 0.0f )
+				matches.fastSet(doc);
+
+			super.collect(doc, score);
+		}
+
+		/**
+		 * @return all collected documents
+		 */
+		public OpenBitSet getMatches()
+		{
+			return matches;
+		}
+	}
+
+	/**
+	 * Filter of previously matched documents.
+	 * The matches use document numbers of the top level reader while filters are applied to each segment
+	 */
+	private static class MatchFilter extends Filter
+	{
+		private static final long serialVersionUID = 1L;
+
+		private OpenBitSet matches;
+		private Map<IndexReader, Integer> docBases = new IdentityHashMap<IndexReader, Integer>();
+
+		public MatchFilter(OpenBitSet matches, IndexReader reader)
+		{
+			this.matches = matches;
+
+			List<IndexReader> subReaders = new ArrayList<IndexReader>();
+			ReaderUtil.gatherSubReaders(subReaders, reader);
+
+			int docBase = 0;
+
+			for(IndexReader subReader: subReaders)
+			{
+				docBases.put(subReader, docBase);
+				docBase += subReader.maxDoc();
+			}
+
+			docBases.put(reader, 0);
+		}
+
+		@Override
+		public DocIdSet getDocIdSet(IndexReader reader) throws IOException
+		{
+			Integer docBase = docBases.get(reader);
+
+			if( docBase == null )
+				throw new IOException("Reader not part of the refined search");
+
+			return new SegmentMatches(matches, docBase, reader.maxDoc());
+		}
+	}
+
+	/**
+	 * Matches of one segment
+	 */
+	private static class SegmentMatches extends DocIdSet
+	{
+		private OpenBitSet matches;
+		private int docBase;
+		private int maxDoc;
+
+		public SegmentMatches(OpenBitSet matches, int docBase, int maxDoc)
+		{
+			this.matches = matches;
+			this.docBase = docBase;
+			this.maxDoc = maxDoc;
+		}
+
+		@Override
+		public DocIdSetIterator iterator()
+		{
+			return new DocIdSetIterator() {
+				private int doc = -1;
+
+				@Override
+				public int docID()
+				{
+					return doc;
+				}
+
+				@Override
+				public int nextDoc()
+				{
+					if( doc == NO_MORE_DOCS )
+						return doc;
+
+					return advance(doc + 1);
+				}
+
+				@Override
+				public int advance(int target)
+				{
+					int next = (target < maxDoc) ? matches.nextSetBit(docBase + target) : -1;
+
+					if( next == -1 || next >= docBase + maxDoc )
+						doc = NO_MORE_DOCS;
+					else
+						doc = next - docBase;
+
+					return doc;
+				}
+			};
+		}
+	}
+}
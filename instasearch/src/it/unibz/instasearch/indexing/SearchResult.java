@@ -11,6 +11,7 @@
  */
 package it.unibz.instasearch.indexing;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -22,12 +23,32 @@ public class SearchResult {
 	private List<SearchResultDoc> resultDocs;
 	private Map<String, Float> searchTerms;
 	private SearchQuery query;
+	private ResultReader resultReader;
 	
-	public SearchResult(SearchQuery searchQuery, List<SearchResultDoc> resultDocs, Map<String, Float> searchTerms)
+	public SearchResult(SearchQuery searchQuery, List<SearchResultDoc> resultDocs, Map<String, Float> searchTerms, ResultReader resultReader)
 	{
 		this.query = searchQuery;
 		this.resultDocs = resultDocs;
 		this.searchTerms = searchTerms;
+		this.resultReader = resultReader;
+	}
+	
+	/**
+	 * @return the reader shared by the result docs
+	 */
+	ResultReader getResultReader()
+	{
+		return resultReader;
+	}
+	
+	/**
+	 * Releases the index reader of the result. Should be called when the result is no longer displayed
+	 * 
+	 * @throws IOException
+	 */
+	public void release() throws IOException
+	{
+		resultReader.release();
 	}
 
 	public boolean isEmpty()
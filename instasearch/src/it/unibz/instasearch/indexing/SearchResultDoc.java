@@ -14,15 +14,17 @@ package it.unibz.instasearch.indexing;
 import it.unibz.instasearch.InstaSearchPlugin;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Locale;
 
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermFreqVector;
+import org.apache.lucene.index.TermPositionVector;
+import org.apache.lucene.index.TermVectorOffsetInfo;
 import org.apache.lucene.search.Similarity;
-import org.apache.lucene.store.Directory;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.runtime.IPath;
@@ -34,13 +36,20 @@ public class SearchResultDoc {
 	private Document doc;
 	private int docId;
 	private TermFreqVector termFreqVector;
-	private float[] termScoreVector;
+	private float[] termScoreVector; // computed only for requested terms
 	private float score;
 	private int matchCount;
-	private Directory indexDir;
+	private ResultReader resultReader;
+	private List<Chunk> chunks; // other matching chunks of a large file or null
 
-	public SearchResultDoc(Directory dir, Document doc, int docId, float score) {
-		this.indexDir = dir;
+	/**
+	 * @param resultReader the reader of the search that found this document
+	 * @param doc
+	 * @param docId
+	 * @param score
+	 */
+	public SearchResultDoc(ResultReader resultReader, Document doc, int docId, float score) {
+		this.resultReader = resultReader;
 		this.docId = docId;
 		this.doc = doc;
 		this.score = score;
@@ -96,45 +105,48 @@ public class SearchResultDoc {
 	}
 	
 	/**
+	 * Adds another matching chunk of the same (large) file. Matches in it are included in
+	 * the match count and term offsets
 	 * 
-	 * @return
-	 * @throws IOException
+	 * @param chunkDoc
+	 * @param chunkDocId
 	 */
-	private float[] getTermScoreVector()  throws IOException
+	void addChunk(Document chunkDoc, int chunkDocId)
 	{
-		if( termScoreVector == null ) {
-			IndexReader reader = IndexReader.open(indexDir, true);
-
-			if( termFreqVector == null ) 
-				createFreqVect(reader);
-
-			termScoreVector = createTermScoreVector(termFreqVector, reader);
-			reader.close();
-		}
-
-		return termScoreVector;
+		if( chunks == null )
+			chunks = new ArrayList<Chunk>(2);
+		
+		chunks.add(new Chunk(chunkDocId, getChunkOffset(chunkDoc)));
 	}
-
+	
+	/**
+	 * @return number of matching chunks of the file (1 if the file is not split into chunks)
+	 */
+	public int getChunkCount()
+	{
+		return (chunks == null) ? 1 : chunks.size() + 1;
+	}
+	
+	private static int getChunkOffset(Document doc)
+	{
+		String offset = doc.get(Field.CHUNK_OFFSET.toString());
+		
+		return (offset == null) ? 0 : Integer.parseInt(offset); // the first chunk has no offset
+	}
+	
 	private TermFreqVector getTermFreqVector() throws IOException
 	{
-		if( termFreqVector == null ) {
-			IndexReader reader = IndexReader.open(indexDir, true);
-			createFreqVect(reader);
-			reader.close();
-		}
+		if( termFreqVector == null )
+			termFreqVector = resultReader.getTermFreqVector(docId); // obtain only when requested
 
 		return termFreqVector;
 	}
 
-	private void createFreqVect(IndexReader reader) throws IOException
-	{
-		termFreqVector = reader.getTermFreqVector(docId, Field.CONTENTS.toString()); // obtain only when requested
-	}
-
 	/**
 	 * Returns a vector of given term scores (tf-idf). 
 	 * The size of the vector is the number of terms in this document
 	 * The term positions in the vector are the same as in the term frequency vector
+	 * Only scores of the given terms are computed
 	 * 
 	 * @param terms
 	 * @return TermScoreVector
@@ -142,58 +154,106 @@ public class SearchResultDoc {
 	 */
 	public float[] getTermScoreVector(Collection<String> terms) throws IOException
 	{
-		float[] allTermScoreVect = getTermScoreVector();
-		float[] termScoreVect = new float[allTermScoreVect.length]; 
 		TermFreqVector freqVector = getTermFreqVector();
+		
+		if( freqVector == null ) return new float[0];
+		
+		float[] termScoreVect = new float[freqVector.size()]; 
 
 		for(String term: terms){
 			int idx = freqVector.indexOf(term); // does a binary search
 			if( idx == -1 ) continue;
-			termScoreVect[idx] = allTermScoreVect[idx];
+			termScoreVect[idx] = getTermScore(freqVector, idx);
 		}
 
 		return termScoreVect;
 	}
 
+	/**
+	 * Returns start offsets of the terms in the file contents, so matches can be located without analyzing the file.
+	 * Offsets are in characters of the contents as read during indexing, also in the other matching chunks of a large file
+	 * 
+	 * @param terms
+	 * @return sorted offsets or null if offsets are not available (eg. index created by an older version)
+	 * @throws IOException
+	 */
+	public int[] getTermOffsets(Collection<String> terms) throws IOException
+	{
+		TermFreqVector freqVector = getTermFreqVector();
+		
+		if( !(freqVector instanceof TermPositionVector) ) return null;
+		
+		int[] offsets = new int[0];
+		int count = 0;
+		
+		for(int chunk = 0; chunk < getChunkCount(); chunk++)
+		{
+			int chunkOffset = (chunk == 0) ? getChunkOffset(doc) : chunks.get(chunk-1).offset;
+			
+			if( chunk != 0 )
+				freqVector = resultReader.getTermFreqVector(chunks.get(chunk-1).docId);
+			
+			if( !(freqVector instanceof TermPositionVector) ) continue;
+			
+			TermPositionVector positionVector = (TermPositionVector) freqVector;
+			
+			for(String term: terms){
+				int idx = positionVector.indexOf(term); // does a binary search
+				if( idx == -1 ) continue;
+				
+				TermVectorOffsetInfo[] termOffsets = positionVector.getOffsets(idx);
+				if( termOffsets == null ) return null; // stored without offsets
+				
+				if( count + termOffsets.length > offsets.length )
+					offsets = Arrays.copyOf(offsets, Math.max(count + termOffsets.length, offsets.length * 2));
+				
+				for(TermVectorOffsetInfo offset: termOffsets)
+					offsets[count++] = chunkOffset + offset.getStartOffset();
+			}
+		}
+		
+		offsets = Arrays.copyOf(offsets, count);
+		Arrays.sort(offsets);
+		
+		return offsets;
+	}
+
 	public double getTermScore(String term) throws IOException
 	{
-		float[] allTermScoreVect = getTermScoreVector();
 		TermFreqVector freqVector = getTermFreqVector();
 
 		if( freqVector == null ) return 0;
 		
 		int idx = freqVector.indexOf(term); // does a binary search
 		if( idx == -1 ) return 0;
-		return allTermScoreVect[idx];
+		return getTermScore(freqVector, idx);
 	}
 
-	private float[] createTermScoreVector(TermFreqVector vect, IndexReader reader) throws IOException
-	{		
-		if( vect == null )
-			return new float[0];
-
-		int[] termFrequencies = vect.getTermFrequencies();
-		String[] terms = vect.getTerms();
-		float[] scores = new float[terms.length];
-
-		int numDocs = reader.maxDoc();
-		Similarity sim = Searcher.SIMILARITY;
+	/**
+	 * Computes the score (tf-idf) of the term at the index of the term vector when it is first requested
+	 */
+	private float getTermScore(TermFreqVector vect, int idx) throws IOException
+	{
+		if( termScoreVector == null ) {
+			termScoreVector = new float[vect.size()];
+			Arrays.fill(termScoreVector, Float.NaN); // not computed
+		}
+		
+		float score = termScoreVector[idx];
 		
-		for(int i = 0; i < terms.length; i++) {
-			String termText = terms[i];
-			Term term = new Term(Field.CONTENTS.toString(), termText);
+		if( Float.isNaN(score) ) {
+			Similarity sim = Searcher.SIMILARITY;
 			
-			float termFreq = sim.tf( termFrequencies[i] );
-
-			int docFreq = reader.docFreq(term);
-			float idf = sim.idf(docFreq, numDocs); 
-
-			float tfIdf = termFreq * idf;
-
-			scores[i] = tfIdf;
+			float termFreq = sim.tf( vect.getTermFrequencies()[idx] );
+			float idf = resultReader.idf(vect.getTerms()[idx]); // doc freqs are shared by all results of the reader
+			
+			score = termFreq * idf;
+			
+			if( !resultReader.isReleased() ) // replaced by a newer search, don't keep zero scores
+				termScoreVector[idx] = score;
 		}
-
-		return scores; 
+		
+		return score;
 	}
 
 	public IFile getFile() 
@@ -243,37 +303,63 @@ public class SearchResultDoc {
 	}
 
 	/**
-	 * Computes match count as SUM( tf ) of all query terms in the document
+	 * Computes match count as SUM( tf ) of all query terms in the document and its matching chunks
 	 * Accesses the index thus affects performance
 	 * 
-	 * @param reader
 	 * @param queryTerms
 	 * @throws IOException
 	 */
-	public void computeMatchCount(IndexReader reader, Collection<String> queryTerms) throws IOException 
+	public void computeMatchCount(Collection<String> queryTerms) throws IOException 
 	{
-		if( termFreqVector == null )
-			createFreqVect(reader);
+		getTermFreqVector();
 
 		if( termFreqVector == null )
 			return;
 		
-		int freqs[] = termFreqVector.getTermFrequencies();
+		int freqSum = getTermFreqSum(termFreqVector, queryTerms);
+		
+		if( chunks != null )
+		{
+			for(Chunk chunk: chunks)
+				freqSum += getTermFreqSum(resultReader.getTermFreqVector(chunk.docId), queryTerms);
+		}
+
+		matchCount = freqSum;
+	}
+	
+	private static int getTermFreqSum(TermFreqVector freqVector, Collection<String> terms)
+	{
+		if( freqVector == null )
+			return 0;
+		
+		int freqs[] = freqVector.getTermFrequencies();
 		int freqSum = 0;
 
-		for(String term: queryTerms){
-			int idx = termFreqVector.indexOf(term); // does a binary search
+		for(String term: terms){
+			int idx = freqVector.indexOf(term); // does a binary search
 			if( idx == -1 ) continue;
 			freqSum += freqs[idx]; 
 		}
-
-		matchCount = freqSum;
+		
+		return freqSum;
 	}
 	
 	@Override
 	public String toString() {
 		return getFilePath();
 	}
+	
+	private static class Chunk
+	{
+		private final int docId;
+		private final int offset;
+		
+		Chunk(int docId, int offset)
+		{
+			this.docId = docId;
+			this.offset = offset;
+		}
+	}
 }
 
 
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import java.util.Locale;
+
+/**
+ * Times of the search tiers: exact text, tokens and the fuzzy search done when nothing else is found.
+ * Kept separately so the slower fuzzy tier does not hide in the times of the other searches
+ */
+public class SearchTierTimes
+{
+	/**
+	 * Tier of a search, in the order they are tried
+	 */
+	public enum Tier
+	{
+		EXACT, TOKENS, FUZZY
+	}
+
+	private final long[] counts = new long[Tier.values().length];
+	private final long[] totalTimes = new long[Tier.values().length]; // ns
+	private final long[] maxTimes = new long[Tier.values().length];
+
+	/**
+	 * @param tier
+	 * @param time in nanoseconds
+	 */
+	public synchronized void record(Tier tier, long time)
+	{
+		int i = tier.ordinal();
+
+		counts[i]++;
+		totalTimes[i] += time;
+		maxTimes[i] = Math.max(maxTimes[i], time);
+	}
+
+	/**
+	 * @param tier
+	 * @return number of searches of the tier
+	 */
+	public synchronized long getCount(Tier tier)
+	{
+		return counts[tier.ordinal()];
+	}
+
+	/**
+	 * @param tier
+	 * @return average time of a search of the tier in ms or 0 if there were none
+	 */
+	public synchronized double getAverageTime(Tier tier)
+	{
+		int i = tier.ordinal();
+
+		if( counts[i] == 0 )
+			return 0;
+
+		return totalTimes[i] / (double) counts[i] / 1000000;
+	}
+
+	/**
+	 * @param tier
+	 * @return the longest search of the tier in ms
+	 */
+	public synchronized double getMaxTime(Tier tier)
+	{
+		return maxTimes[tier.ordinal()] / 1000000d;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		StringBuilder sb = new StringBuilder("Search tier times");
+
+		for(Tier tier: Tier.values())
+		{
+			sb.append(String.format(Locale.ENGLISH, ", %s: %d, avg %.1f ms, max %.1f ms", tier.name().toLowerCase(Locale.ENGLISH),
+					getCount(tier), getAverageTime(tier), getMaxTime(tier)));
+		}
+
+		return sb.toString();
+	}
+}
@@ -11,6 +11,8 @@
  */
 package it.unibz.instasearch.indexing;
 
+import it.unibz.instasearch.InstaSearchPlugin;
+import it.unibz.instasearch.indexing.SearchTierTimes.Tier;
 import it.unibz.instasearch.indexing.StorageIndexer.IndexChangeListener;
 import it.unibz.instasearch.indexing.querying.CSVExpander;
 import it.unibz.instasearch.indexing.querying.CurrentProjectSetter;
@@ -49,10 +51,12 @@ import org.apache.lucene.queryParser.QueryParser.Operator;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.BooleanQuery.TooManyClauses;
+import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.PhraseQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocCollector;
 import org.apache.lucene.search.highlight.QueryTermExtractor;
 import org.apache.lucene.search.highlight.WeightedTerm;
@@ -78,6 +82,7 @@ public class Searcher implements IPropertyChangeListener, IndexChangeListener {
 	private static final Version LUCENE_VERSION = Version.LUCENE_29;
 	
 	private IndexSearcher indexSearcher;
+	private DocFreqCache docFreqCache;
 	
 	public static final LengthNormSimilarity SIMILARITY = new LengthNormSimilarity();  //TODO: share with WorkspaceIndexer
 	private static final QueryAnalyzer queryAnalyzer = new QueryAnalyzer(MIN_WORD_LENGTH);
@@ -93,8 +98,14 @@ public class Searcher implements IPropertyChangeListener, IndexChangeListener {
 	private FileNameSearcher fileNameSearcher = new FileNameSearcher();
 	private CurrentProjectSetter currentProjectSetter = new CurrentProjectSetter();
 	private QueryFuzzifier queryFuzzifier = new QueryFuzzifier();
-	private LastTermQueryPrefixer lastTermQueryPrefixer = new LastTermQueryPrefixer(MIN_QUERY_LENGTH+1);
+	private static final int MIN_PREFIX_LENGTH = MIN_QUERY_LENGTH+1;
+	private LastTermQueryPrefixer lastTermQueryPrefixer = new LastTermQueryPrefixer(MIN_PREFIX_LENGTH);
 	private FilterSetter filterSetter = new FilterSetter();
+	
+	private QueryCache queryCache = new QueryCache();
+	private SearchTierTimes tierTimes = new SearchTierTimes();
+	private ResultRefiner resultRefiner = new ResultRefiner(MIN_PREFIX_LENGTH);
+	private boolean refineResults = true;
 
 	private boolean showMatchCounts = true;
 	private boolean fuzzySearchAuto = true;
@@ -121,41 +132,69 @@ public class Searcher implements IPropertyChangeListener, IndexChangeListener {
 	
 	private SearchResult searchIndex(SearchQuery searchQuery) throws Exception {
 		
-		IndexSearcher indexSearcher = getIndexSearcher();
+		IndexSearcher indexSearcher = acquireIndexSearcher();
+		
+		try {
+			return searchIndex(searchQuery, indexSearcher);
+		} finally {
+			releaseIndexSearcher(indexSearcher);
+		}
+	}
+	
+	private SearchResult searchIndex(SearchQuery searchQuery, IndexSearcher indexSearcher) throws Exception {
+		
 		IndexReader reader = indexSearcher.getIndexReader();
 		boolean exact = searchQuery.isExact();
 		
-		Query query = null;
+		QueryCache.Key cacheKey = queryCache.createKey(searchQuery, reader);
+		Query query = queryCache.get(cacheKey); // skip parsing and rewriting if already done
+		Boolean prefixed = null; // unknown if the query is cached
 		
-		try {
-			query = parseSearchQuery(searchQuery, reader, exact, true);
-			
-		} catch(TooManyClauses e) { // too many, try without prefix search
-			query = parseSearchQuery(searchQuery, reader, exact, false);
-			
-		} catch(ParseException e) {
-			
-			// remove special query characters
-			String newSearchString = searchQuery.getSearchString().replaceAll("[\\(\\)\"\\[\\]'\\{\\}]", " ");
-			
+		if( query == null )
+		{
 			try {
-				searchQuery.setSearchString(newSearchString);
 				query = parseSearchQuery(searchQuery, reader, exact, true);
+				prefixed = true;
+				
+			} catch(TooManyClauses e) { // too many, try without prefix search
+				query = parseSearchQuery(searchQuery, reader, exact, false);
+				prefixed = false;
 				
-			} catch(ParseException ignored) {
-				// can have error while typing query, just ignore
-				//debug(newSearchString, " - ", ignored.getMessage());
-				return null; 
+			} catch(ParseException e) {
+				
+				cacheKey = null; // search string is changed, don't cache
+				
+				// remove special query characters
+				String newSearchString = searchQuery.getSearchString().replaceAll("[\\(\\)\"\\[\\]'\\{\\}]", " ");
+				
+				try {
+					searchQuery.setSearchString(newSearchString);
+					query = parseSearchQuery(searchQuery, reader, exact, true);
+					prefixed = true;
+					
+				} catch(ParseException ignored) {
+					// can have error while typing query, just ignore
+					//debug(newSearchString, " - ", ignored.getMessage());
+					return null; 
+				}
 			}
+			
+			queryCache.put(cacheKey, query);
 		}
 		
-		SearchResult searchResut = collectSearchResults(searchQuery, indexSearcher, reader, query);
+		SearchResult searchResut = collectSearchResults(searchQuery, indexSearcher, reader, query, prefixed);
 		
 		return searchResut;
 	}
 
+	/**
+	 * Chunks of a large file are collapsed into one result. Since they can take several of the collected hits,
+	 * more hits are collected (twice as many each time) until there are enough files or no more hits
+	 * 
+	 * @param prefixed true if the last term was searched as a prefix, null if unknown
+	 */
 	private SearchResult collectSearchResults(SearchQuery searchQuery,
-			IndexSearcher indexSearcher, IndexReader reader, Query query)
+			IndexSearcher indexSearcher, IndexReader reader, Query query, Boolean prefixed)
 			throws IOException
 	{
 		int maxResults = reader.numDocs(); // all documents
@@ -164,18 +203,70 @@ public class Searcher implements IPropertyChangeListener, IndexChangeListener {
 			maxResults = searchQuery.getMaxResults();
 		
 		Map<String, Float> searchTerms = extractTerms(query);
-		TopDocCollector collector = new TopDocCollector( maxResults );
+		boolean refinable = refineResults && resultRefiner.isRefinable(searchQuery);
+		Filter refinementFilter = null;
 		
-		if( searchQuery.isCanceled() ) 
-			return null;
+		if( refinable )
+			refinementFilter = resultRefiner.getRefinementFilter(searchQuery, reader); // only score previous matches
 		
-		indexSearcher.search(query, collector); // do the actual search
+		ResultReader resultReader = new ResultReader(getDocFreqCache(reader)); // keeps the reader open for the result docs
+		ArrayList<SearchResultDoc> resultDocs = null;
+		boolean success = false;
 		
-		if( collector.getTotalHits() == 0 )
-			return null;
+		try {
+			for(int numHits = maxResults; ; numHits = (int) Math.min(2L * numHits, reader.numDocs()))
+			{
+				TopDocCollector collector;
+				
+				if( refinable )
+					collector = new ResultRefiner.MatchCollector( numHits, reader.maxDoc() );
+				else
+					collector = new TopDocCollector( numHits );
+				
+				if( searchQuery.isCanceled() ) 
+					return null;
+				
+				indexSearcher.search(query, refinementFilter, collector); // do the actual search
+				
+				if( collector instanceof ResultRefiner.MatchCollector && prefixed != null && resultDocs == null )
+					resultRefiner.setPreviousMatches(searchQuery, reader, prefixed, ((ResultRefiner.MatchCollector)collector).getMatches());
+				
+				if( collector.getTotalHits() == 0 )
+					return null;
+				
+				ScoreDoc[] hits = collector.topDocs().scoreDocs;
+				sortRecentFirst(hits, resultReader);
+				resultDocs = collapseChunks(hits, reader, resultReader, searchQuery);
+				
+				if( resultDocs.size() >= maxResults || hits.length >= collector.getTotalHits() 
+						|| numHits >= reader.numDocs() || searchQuery.isCanceled() )
+					break;
+			}
+			
+			while( resultDocs.size() > maxResults )
+				resultDocs.remove(resultDocs.size() - 1);
+			
+			for (int i = 0; i < resultDocs.size() && showMatchCounts && !searchQuery.isCanceled(); i++)
+				resultDocs.get(i).computeMatchCount(searchTerms.keySet());
+			
+			success = true;
+		} finally {
+			if( !success ) // the result is not returned, nothing else releases the reader
+				resultReader.release();
+		}
 		
-		ScoreDoc[] hits = collector.topDocs().scoreDocs;
+		return new SearchResult(searchQuery, resultDocs, searchTerms, resultReader);
+	}
+
+	/**
+	 * Creates one result per file. Hits are sorted by score, so the best chunk of a large file is its result
+	 * and the other chunks are added to it
+	 */
+	private static ArrayList<SearchResultDoc> collapseChunks(ScoreDoc[] hits, IndexReader reader, 
+			ResultReader resultReader, SearchQuery searchQuery) throws IOException
+	{
 		ArrayList<SearchResultDoc> resultDocs = new ArrayList<SearchResultDoc>(hits.length);
+		Map<String, SearchResultDoc> fileDocs = new HashMap<String, SearchResultDoc>(hits.length);
 		
 		for (int i = 0; i < hits.length && !searchQuery.isCanceled(); i++) 
 		{
@@ -183,23 +274,84 @@ public class Searcher implements IPropertyChangeListener, IndexChangeListener {
 			float score = hits[i].score;
 			
 			Document doc = reader.document(docId);
+			SearchResultDoc fileDoc = fileDocs.get(doc.get(Field.FILE.toString()));
 			
-			SearchResultDoc resultDoc = new SearchResultDoc(getIndexDir(), doc, docId, score);
+			if( fileDoc != null ) // another chunk of a large file
+			{
+				fileDoc.addChunk(doc, docId);
+				continue;
+			}
 			
-			if( showMatchCounts )
-				resultDoc.computeMatchCount(reader, searchTerms.keySet());
+			SearchResultDoc resultDoc = new SearchResultDoc(resultReader, doc, docId, score);
 			
+			fileDocs.put(resultDoc.getFilePath(), resultDoc);
 			resultDocs.add(resultDoc);
 		}
 		
-		return new SearchResult(searchQuery, resultDocs, searchTerms);
+		return resultDocs;
+	}
+
+	/**
+	 * Orders hits with equal scores by modification time, most recent first.
+	 * Hits are already ordered by score, so only runs of equal scores are sorted.
+	 * Times come from the field cache into an array parallel to the hits, so documents are not loaded for it
+	 */
+	static void sortRecentFirst(ScoreDoc[] hits, ResultReader resultReader) throws IOException
+	{
+		long[] stamps = new long[hits.length];
+		
+		for(int i = 0; i < hits.length; i++)
+			stamps[i] = resultReader.getModificationStamp(hits[i].doc);
+		
+		int runStart = 0;
+		
+		for(int i = 1; i <= hits.length; i++)
+		{
+			if( i < hits.length && hits[i].score == hits[runStart].score )
+				continue;
+			
+			sortByStamp(hits, stamps, runStart, i);
+			runStart = i;
+		}
+	}
+	
+	/**
+	 * Stable merge sort of hits in [from, to) by their stamps, most recent first. Moves stamps along with the hits
+	 */
+	private static void sortByStamp(ScoreDoc[] hits, long[] stamps, int from, int to)
+	{
+		if( to - from < 2 )
+			return;
+		
+		int mid = (from + to) >>> 1;
+		sortByStamp(hits, stamps, from, mid);
+		sortByStamp(hits, stamps, mid, to);
+		
+		if( stamps[mid - 1] >= stamps[mid] ) // already in order
+			return;
+		
+		ScoreDoc[] mergedHits = new ScoreDoc[to - from];
+		long[] mergedStamps = new long[to - from];
+		
+		for(int i = from, j = mid, k = 0; k < mergedHits.length; k++)
+		{
+			int next = (j == to || (i < mid && stamps[i] >= stamps[j])) ? i++ : j++;
+			
+			mergedHits[k] = hits[next];
+			mergedStamps[k] = stamps[next];
+		}
+		
+		System.arraycopy(mergedHits, 0, hits, from, mergedHits.length);
+		System.arraycopy(mergedStamps, 0, stamps, from, mergedStamps.length);
 	}
 
 	/**
-	 * Performs a search using the search query
+	 * Performs a search using the search query.
+	 * The returned result keeps the index reader open until it is released
 	 * @param searchQuery
 	 * 
 	 * @return SearchResult or null if nothing is found
+	 * @see SearchResult#release()
 	 * @throws Exception
 	 */
 	public SearchResult search(SearchQuery searchQuery) throws Exception {
@@ -214,49 +366,120 @@ public class Searcher implements IPropertyChangeListener, IndexChangeListener {
 		if( searchQuery.isFuzzy() )
 		{
 			searchQuery.setExact(false);
-			result = searchIndex(searchQuery); // search fuzzy
+			result = searchTier(searchQuery, Tier.FUZZY); // search fuzzy
 		}
 		else
 		{
 			// 1. search exact text
 			if( searchQuery.isExact() )
-				result = searchIndex(searchQuery);
+				result = searchTier(searchQuery, Tier.EXACT);
 			
 			// 2. split search text into tokens and search (non-exact)
 			if( (result==null || result.isEmpty()) && !searchQuery.isCanceled() )
 			{
+				releaseResult(result);
 				searchQuery.setExact(false);
-				result = searchIndex(searchQuery);
+				result = searchTier(searchQuery, Tier.TOKENS);
 			}
 			
 			// 3. search wildcarded and fuzzy matches
 			if( (result==null || result.isEmpty()) && fuzzySearchAuto && !searchQuery.isCanceled() ){ // if fuzzy search enabled
+				releaseResult(result);
 				searchQuery.setFuzzy(true);
 				searchQuery.setExact(false);
 				
-				result = searchIndex(searchQuery);
+				result = searchTier(searchQuery, Tier.FUZZY);
 			}
 		}
 		
 		return result;
 	}
+	
+	private SearchResult searchTier(SearchQuery searchQuery, Tier tier) throws Exception
+	{
+		long startTime = System.nanoTime();
+		
+		try {
+			return searchIndex(searchQuery);
+		} finally {
+			tierTimes.record(tier, System.nanoTime() - startTime);
+		}
+	}
+	
+	/**
+	 * @return times of the exact, token and fuzzy searches
+	 */
+	public SearchTierTimes getTierTimes()
+	{
+		return tierTimes;
+	}
+
+	/**
+	 * Returns document frequencies of the reader. 
+	 * They are shared by all searches until the reader is reopened
+	 * 
+	 * @param reader
+	 * @return docFreqCache
+	 */
+	private synchronized DocFreqCache getDocFreqCache(IndexReader reader)
+	{
+		if( docFreqCache != null && docFreqCache.getReader() == reader )
+			return docFreqCache;
+		
+		if( indexSearcher != null && indexSearcher.getIndexReader() != reader ) 
+			return new DocFreqCache(reader); // searching an old reader, don't share
+		
+		docFreqCache = new DocFreqCache(reader);
+		
+		return docFreqCache;
+	}
+
+	private static void releaseResult(SearchResult result) throws IOException
+	{
+		if( result != null )
+			result.release();
+	}
 
 	/**
+	 * Returns the current searcher and increases the reference count of its reader
+	 * so that it stays open even if the searcher is reopened meanwhile.
+	 * Must be released using {@link #releaseIndexSearcher(IndexSearcher)}
+	 * 
 	 * @return the indexSearcher
 	 * @throws IOException 
 	 */
-	private IndexSearcher getIndexSearcher() throws IOException
+	private synchronized IndexSearcher acquireIndexSearcher() throws IOException
 	{
 		if( indexSearcher == null ) 
 		{
-			indexSearcher = new IndexSearcher( getIndexDir(), true );
-			indexSearcher.setSimilarity( SIMILARITY );
+			IndexReader reader = IndexReader.open(getIndexDir(), true);
+			indexSearcher = createIndexSearcher(reader);
 		}
 		
-		// indexSearcher.getIndexReader().isCurrent()
+		indexSearcher.getIndexReader().incRef();
 		
 		return indexSearcher;
 	}
+	
+	/**
+	 * Releases a searcher obtained with {@link #acquireIndexSearcher()}.
+	 * Its reader is closed if it has been replaced and no other searches are using it
+	 * 
+	 * @param searcher
+	 * @throws IOException
+	 */
+	private void releaseIndexSearcher(IndexSearcher searcher) throws IOException
+	{
+		searcher.getIndexReader().decRef();
+	}
+	
+	private static IndexSearcher createIndexSearcher(IndexReader reader)
+	{
+		IndexSearcher searcher = new IndexSearcher(reader); // does not close the reader, it is reference counted
+		searcher.setSimilarity( SIMILARITY );
+		
+		return searcher;
+	}
 		
 	/**
 	 * Get all terms that start with prefixText
@@ -269,12 +492,15 @@ public class Searcher implements IPropertyChangeListener, IndexChangeListener {
 	public List<String> getProposals(String prefixText, Field prefixField) throws IOException 
 	{
 	    ArrayList<String> proposals = new ArrayList<String>();
-	    IndexReader reader = getIndexSearcher().getIndexReader();
+	    IndexSearcher searcher = acquireIndexSearcher();
+	    IndexReader reader = searcher.getIndexReader();
 	    Term prefix = prefixField.createTerm(prefixText);
-	    TermEnum enumerator = reader.terms(prefix);
+	    TermEnum enumerator = null;
 	    prefixText = prefixText.toLowerCase(Locale.ENGLISH);
 	    
 	    try {
+	      enumerator = reader.terms(prefix);
+	      
 	      do {
 	        Term term = enumerator.term();
 	        
@@ -289,7 +515,9 @@ public class Searcher implements IPropertyChangeListener, IndexChangeListener {
 	        }
 	      } while (enumerator.next());
 	    } finally {
-	      enumerator.close();
+	      if( enumerator != null )
+	        enumerator.close();
+	      releaseIndexSearcher(searcher);
 	    }
 	    
 	    return proposals;
@@ -317,36 +545,126 @@ public class Searcher implements IPropertyChangeListener, IndexChangeListener {
 		resetSearcher();
 	}
 	
-	private void resetSearcher()
+	private synchronized void resetSearcher()
 	{
 		if( indexSearcher != null ) {
 			try {
-				indexSearcher.close();
+				indexSearcher.getIndexReader().decRef(); // closed after running searches release it
 			} catch (IOException e) {
 				config.log(e);
 			} finally {
 				indexSearcher = null;
+				docFreqCache = null;
+				queryCache.clear();
+				resultRefiner.clear();
 			}	
 		}
 	}
 	
+	/**
+	 * Reopens the reader of the searcher. Only new or changed segments are loaded, 
+	 * unchanged segments are shared with the previous reader.
+	 * The previous reader is closed once searches that are still using it complete
+	 * 
+	 * @throws IOException
+	 */
+	private synchronized void reopenSearcher() throws IOException
+	{
+		if( indexSearcher == null )
+			return; // will be opened on next search
+		
+		long startTime = System.currentTimeMillis();
+		
+		IndexReader reader = indexSearcher.getIndexReader();
+		IndexReader newReader = reader.reopen();
+		
+		if( newReader != reader ) 
+		{
+			indexSearcher = createIndexSearcher(newReader);
+			reader.decRef();
+			
+			InstaSearchPlugin.debug(queryCache, resultRefiner, docFreqCache, tierTimes);
+			docFreqCache = null;
+			queryCache.clear(); // cached queries were rewritten using the old reader
+			resultRefiner.clear();
+		}
+		
+		InstaSearchPlugin.debug("Searcher reopened", (System.currentTimeMillis() - startTime) + " ms");
+	}
+	
+	/**
+	 * Switches to the index in the new directory. The new reader is opened and warmed up first,
+	 * searches use the previous reader until it replaces it.
+	 * The previous reader is closed once searches that are still using it complete
+	 * 
+	 * @throws Exception
+	 */
+	private void switchSearcher() throws Exception
+	{
+		long startTime = System.currentTimeMillis();
+		
+		IndexSearcher newSearcher = createIndexSearcher(IndexReader.open(getIndexDir(), true));
+		IndexSearcher oldSearcher;
+		
+		newSearcher.search(new TermQuery(Field.CONTENTS.createTerm("warmup")), 1); // load term index and norms
+		
+		synchronized(this)
+		{
+			oldSearcher = indexSearcher;
+			indexSearcher = newSearcher;
+			
+			docFreqCache = null;
+			queryCache.clear();
+			resultRefiner.clear();
+		}
+		
+		if( oldSearcher != null )
+			oldSearcher.getIndexReader().decRef();
+		
+		InstaSearchPlugin.debug("Searcher switched", (System.currentTimeMillis() - startTime) + " ms");
+	}
+	
 	/**
 	 * Warmup search. Searches after this will be faster
 	 * 
 	 * @throws Exception
 	 */
 	private void warmup() throws Exception {
-		search(new SearchQuery("<warmup search>", 1));
+		releaseResult( search(new SearchQuery("<warmup search>", 1)) );
 	}
 
 	/**
-	 * Closes and re-opens the index for searching
+	 * Refreshes the searcher to see the latest index changes
 	 * Should be called after the index is updated
 	 * 
 	 */
 	public void onIndexUpdate() {
 		
-		resetSearcher();
+		try {
+			reopenSearcher();
+		} catch (IOException e) {
+			config.log(e);
+			resetSearcher(); // open a new one on next search
+		}
+		
+		try {
+			warmup();
+		} catch (Exception e) {
+			config.log(e);
+		}
+	}
+
+	/**
+	 * Moves searches to the new index directory, should be called after the index was rebuilt in a new directory
+	 */
+	public void onIndexSwitch() {
+		
+		try {
+			switchSearcher();
+		} catch (Exception e) {
+			config.log(e);
+			resetSearcher(); // open a new one on next search
+		}
 		
 		try {
 			warmup();
@@ -462,7 +780,7 @@ public class Searcher implements IPropertyChangeListener, IndexChangeListener {
 		
 		if( searchQuery.getFilter() != null )
 		{
-			filterSetter.setFilter( searchQuery.getFilter() );
+			filterSetter.setFilter( new HashMap<Field, Set<String>>(searchQuery.getFilter()) ); // is modified by the setter
 			visitableQuery.accept(filterSetter);
 		}
 		
@@ -520,6 +838,18 @@ public class Searcher implements IPropertyChangeListener, IndexChangeListener {
 		return terms;
 	}
 
+	/**
+	 * Enables or disables refining the previous results when the user extends the last word of the query
+	 * 
+	 * @param refineResults
+	 * @see ResultRefiner
+	 */
+	public void setRefineResults(boolean refineResults)
+	{
+		this.refineResults = refineResults;
+		resultRefiner.clear();
+	}
+
 	protected void initPrefs() 
 	{
 		fuzzySearchAuto = config.getBoolPref(PreferenceConstants.P_FUZZY_SEARCH_AUTO);
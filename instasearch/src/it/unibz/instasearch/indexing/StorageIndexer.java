@@ -11,28 +11,27 @@
  */
 package it.unibz.instasearch.indexing;
 
+import it.unibz.instasearch.InstaSearchPlugin;
+
 import java.io.BufferedReader;
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
-import org.apache.lucene.analysis.tokenattributes.TermAttribute;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.document.Field.TermVector;
+import org.apache.lucene.document.NumericField;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriter.MaxFieldLength;
-import org.apache.lucene.index.Term;
 import org.apache.lucene.search.Similarity;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.RAMDirectory;
@@ -47,17 +46,29 @@ public class StorageIndexer
 {
 	/** Maximum number of terms indexed per one document */
 	private static final int MAX_TERMS_PER_DOC = 200000;
+	/** Number of characters after which a large file continues in another document (chunk) */
+	public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
 	/** */
 	public static final String NO_VALUE = "<none>";
 	/** */
 	public static final int MIN_WORD_LENGTH = 1;
+	/** Version of the indexed fields and their analysis. Must be increased when they change, the index is then rebuilt */
+	public static final int SCHEMA_VERSION = 5;
+	/** Bits per indexed term of the numeric modification time, fewer bits index more terms but range queries visit less */
+	public static final int MODIFIED_PRECISION_STEP = 6;
+	private static final String SCHEMA_VERSION_KEY = "schemaVersion";
 	protected static final FileAnalyzer fileAnalyzer = new FileAnalyzer(MIN_WORD_LENGTH);
 
 	private IndexChangeListener changeListener = new NullIndexChangeListener();
 	
 	private static final Similarity similarity = new LengthNormSimilarity();
 	private static final int MAX_RETRY_ATTEMPTS = 10;
+	private static final int CHUNK_READ_BUFFER_SIZE = 8192;
 	private Directory indexDir;
+	private IndexMergeSettings mergeSettings = new IndexMergeSettings();
+	private IndexWriteStats writeStats = new IndexWriteStats();
+	private ContentSniffer contentSniffer = new ContentSniffer();
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
 
 	/**
 	 * @throws IOException 
@@ -90,15 +101,38 @@ public class StorageIndexer
 	 */
 	public IndexWriter createIndexWriter(boolean create) throws IOException 
 	{
-		IndexWriter indexWriter = new IndexWriter(getIndexDir(), fileAnalyzer, create, MaxFieldLength.UNLIMITED);
+		return createIndexWriter(getIndexDir(), create);
+	}
+	
+	/**
+	 * @param dir index directory
+	 * @param create index
+	 * @return IndexWriter
+	 * @throws IOException 
+	 */
+	protected IndexWriter createIndexWriter(Directory dir, boolean create) throws IOException 
+	{
+		IndexWriter indexWriter = new IndexWriter(dir, fileAnalyzer, create, MaxFieldLength.UNLIMITED);
 
-		indexWriter.setMergeFactor(2); // use less resources (although slower)
+		mergeSettings.apply(indexWriter); // merged in the background
 		indexWriter.setSimilarity(similarity);
 		indexWriter.setMaxFieldLength(MAX_TERMS_PER_DOC);
 
 		return indexWriter;
 	}
 
+	/**
+	 * Opens a session for updating the index with a batch of changes.
+	 * The session must be closed to commit the changes
+	 * 
+	 * @return IndexWriterSession
+	 * @throws IOException
+	 */
+	public IndexWriterSession openSession() throws IOException
+	{
+		return new IndexWriterSession(createIndexWriter(false), writeStats);
+	}
+
 	/**
 	 * @return isIndexed
 	 * @throws IOException 
@@ -108,6 +142,51 @@ public class StorageIndexer
 		return IndexReader.indexExists(getIndexDir());
 	}
 
+	/**
+	 * Checks if the index was created with the current fields and analysis
+	 * 
+	 * @return true if the index doesn't need to be rebuilt
+	 * @throws IOException 
+	 */
+	public boolean isSchemaCurrent() throws IOException
+	{
+		@SuppressWarnings("unchecked")
+		Map<String, String> commitUserData = IndexReader.getCommitUserData(getIndexDir());
+		
+		return Integer.toString(SCHEMA_VERSION).equals(commitUserData.get(SCHEMA_VERSION_KEY));
+	}
+	
+	/**
+	 * Commits the changes of the writer and records the schema version of the index.
+	 * Later commits keep the version
+	 * 
+	 * @param indexWriter
+	 * @throws IOException
+	 */
+	protected static void commitSchemaVersion(IndexWriter indexWriter) throws IOException
+	{
+		Map<String, String> commitUserData = new HashMap<String, String>();
+		commitUserData.put(SCHEMA_VERSION_KEY, Integer.toString(SCHEMA_VERSION));
+		
+		indexWriter.commit(commitUserData);
+	}
+	
+	/**
+	 * Commits deletions of the reader and closes it. 
+	 * Keeps the data of the last commit, a reader would clear it otherwise
+	 * 
+	 * @param reader
+	 * @throws IOException
+	 */
+	protected static void commitAndClose(IndexReader reader) throws IOException
+	{
+		try {
+			reader.flush(reader.getCommitUserData());
+		} finally {
+			reader.close();
+		}
+	}
+
 	/**
 	 * Check if the index can be read
 	 * 
@@ -150,7 +229,6 @@ public class StorageIndexer
 						dir.deleteFile(file);
 					}
 				}
-				dir.close();
 			}
 			
 			public boolean handleException(Throwable e) 
@@ -165,19 +243,73 @@ public class StorageIndexer
 	}
 
 	/**
+	 * Merges the index into a single segment. Rewrites the whole index, so only done on request
+	 * 
 	 * @throws Exception
 	 */
 	public void optimizeIndex() throws Exception {
 		if( ! isIndexed() )
 			return;
 
+		Directory dir = getIndexDir();
+		Set<String> filesBefore = IndexWriteStats.listFiles(dir);
+		
 		IndexWriter w = createIndexWriter(false);
 		w.optimize();
 		w.close();
 
+		long bytes = writeStats.recordWrites(dir, filesBefore);
+		InstaSearchPlugin.debug("Index optimized", bytes/1024 + " KB", writeStats);
+		
 		changeListener.onIndexUpdate();
 	}
 
+	/**
+	 * Optimizes the index if the ratio of deleted documents is above the threshold of the merge settings
+	 * 
+	 * @return true if the index was optimized
+	 * @throws Exception
+	 */
+	public boolean optimizeIndexIfNeeded() throws Exception {
+		if( ! isIndexed() )
+			return false;
+		
+		IndexReader reader = IndexReader.open(getIndexDir(), true);
+		boolean needsOptimize;
+		
+		try {
+			needsOptimize = mergeSettings.needsOptimize(reader);
+		} finally {
+			reader.close();
+		}
+		
+		if( needsOptimize )
+			optimizeIndex();
+		
+		return needsOptimize;
+	}
+
+	/**
+	 * @return merge settings used by new index writers
+	 */
+	public IndexMergeSettings getMergeSettings() {
+		return mergeSettings;
+	}
+
+	/**
+	 * @return sniffer that skips the contents of binary and minified files
+	 */
+	public ContentSniffer getContentSniffer() {
+		return contentSniffer;
+	}
+
+	/**
+	 * @return bytes written to the index
+	 */
+	public IndexWriteStats getWriteStats() {
+		return writeStats;
+	}
+
 	/**
 	 * @param changeListener the changeListener to set
 	 */
@@ -205,31 +337,131 @@ public class StorageIndexer
 	public void indexStorage(IndexWriter indexWriter, IStorage storage, String projectName,
 			long modificationStamp, String jar) throws IOException 
 			{
+		IndexManifest.StampingInputStream stampedContents = null;
 		InputStream contents;
 		try
 		{
 			contents = storage.getContents();
+			
+			if( jar == null ) // workspace file, can change while not running. Stamped while it is read for indexing
+				contents = stampedContents = new IndexManifest.StampingInputStream(contents);
+			
+			contents = ContentSniffer.markable(contents);
 		}
 		catch (Exception e)
 		{
 			throw new IOException(e);
 		}
-		BufferedReader isReader = new BufferedReader(new InputStreamReader(contents));
+		
+		try
+		{
+			indexContents(indexWriter, storage, projectName, modificationStamp, jar, contents, stampedContents);
+		}
+		finally
+		{
+			contents.close(); // also when reading or sniffing the contents fails
+		}
+	}
+	
+	/**
+	 * Indexes the opened contents of the storage as one document or as chunk documents of a large file
+	 */
+	private void indexContents(IndexWriter indexWriter, IStorage storage, String projectName, long modificationStamp,
+			String jar, InputStream contents, IndexManifest.StampingInputStream stampedContents) throws IOException
+	{
 		IPath fullPath = storage.getFullPath();
 		String ext = fullPath.getFileExtension();
 		if( ext == null ) ext = NO_VALUE;
 
 		Document doc = new Document();
-
-		doc.add(createLuceneField(Field.CONTENTS, 	isReader));
+		
 		doc.add(createLuceneField(Field.FILE, 		fullPath.toString()));
 		doc.add(createLuceneField(Field.PROJ, 		projectName));
 		doc.add(createLuceneField(Field.NAME, 		fullPath.lastSegment()));
 		doc.add(createLuceneField(Field.EXT, 		ext.toLowerCase(Locale.ENGLISH)));
-		doc.add(createLuceneField(Field.MODIFIED, 	Long.toString(modificationStamp)));
+		doc.add(createNumericField(Field.MODIFIED, 	modificationStamp));
 		doc.add(createLuceneField(Field.JAR, 		(jar==null)?NO_VALUE:jar));
+		addFolderFields(doc, fullPath);
+		
+		byte[] head = ContentSniffer.readHead(contents);
+		
+		if( contentSniffer.sniff(fullPath.toString(), head) != ContentSniffer.Kind.TEXT ) // binary or minified, only the name is indexed
+		{
+			if( stampedContents != null ) // not read, stamped without a hash
+				addStampFields(doc, -1, NO_VALUE);
+			
+			indexWriter.addDocument(doc);
+			return;
+		}
+		
+		ChunkReader chunks = new ChunkReader(new BufferedReader(new InputStreamReader(contents)), chunkSize);
+		Reader chunk = readChunk(chunks);
+		
+		while( true ) // a large file is indexed as chunk documents with the same fields
+		{
+			boolean lastChunk = !chunks.hasNextChunk();
+			
+			if( lastChunk && stampedContents != null ) { // all contents were read
+				IndexManifest.FileStamp fileStamp = stampedContents.getStamp(modificationStamp);
+				addStampFields(doc, fileStamp.getSize(), fileStamp.getHash());
+			}
+			
+			doc.add(createLuceneField(Field.CONTENTS, chunk));
+			indexWriter.addDocument(doc);
+			
+			if( lastChunk )
+				break;
+			
+			chunk = readChunk(chunks);
+			
+			doc.removeField(Field.CONTENTS.toString());
+			doc.removeField(Field.CHUNK.toString());
+			doc.removeField(Field.CHUNK_LINE.toString());
+			doc.removeField(Field.CHUNK_OFFSET.toString());
+			
+			doc.add(createStoredField(Field.CHUNK, 			Integer.toString(chunks.getChunk())));
+			doc.add(createStoredField(Field.CHUNK_LINE, 	Integer.toString(chunks.getChunkLine())));
+			doc.add(createStoredField(Field.CHUNK_OFFSET, 	Long.toString(chunks.getChunkOffset())));
+		}
+	}
+	
+	/**
+	 * Reads the next chunk into memory, so that it is known if it is the last one before it is indexed.
+	 * A chunk is at most twice the chunk size
+	 */
+	private static Reader readChunk(ChunkReader chunks) throws IOException
+	{
+		Reader chunk = chunks.nextChunk();
+		CharArrayWriter buffer = new CharArrayWriter();
+		char[] chars = new char[CHUNK_READ_BUFFER_SIZE];
+		int read;
+		
+		while( (read = chunk.read(chars)) != -1 )
+			buffer.write(chars, 0, read);
+		
+		return new CharArrayReader(buffer.toCharArray());
+	}
+	
+	private static void addStampFields(Document doc, long size, String hash)
+	{
+		doc.add(createStoredField(Field.SIZE, 	Long.toString(size)));
+		doc.add(createStoredField(Field.HASH, 	hash));
+	}
+	
+	/**
+	 * @param chunkSize number of characters after which the contents of a file continue in a new document
+	 */
+	public void setChunkSize(int chunkSize)
+	{
+		this.chunkSize = chunkSize;
+	}
 
-		indexWriter.addDocument(doc);
+	/**
+	 * @return number of characters after which the contents of a file continue in a new document
+	 */
+	public int getChunkSize()
+	{
+		return chunkSize;
 	}
 
 	private static void runRetryingRunnable(RetryingRunnable runnable) throws Exception
@@ -284,8 +516,14 @@ public class StorageIndexer
 	{
 		RetryingRunnable runnable = new RetryingRunnable()
 		{
+			private boolean retry = false;
+			
 			public void run() throws Exception 
 			{
+				if( retry ) // remove chunks of a large file that were added before the failure
+					indexWriter.deleteDocuments(Field.FILE.createTerm(storage.getFullPath().toString()));
+				
+				retry = true;
 				indexStorage(indexWriter, storage, projectName, modificationStamp, jar);
 			}
 			
@@ -323,60 +561,84 @@ public class StorageIndexer
 		public boolean handleException(Throwable e);
 	}
 	
+	/**
+	 * Removes the storage from the index in its own session.
+	 * Use {@link IndexWriterSession#deleteStorage(IStorage)} to delete several files with one commit
+	 * 
+	 * @param storage
+	 * @throws Exception
+	 */
 	public void deleteStorage(IStorage storage) throws Exception 
 	{	
-		IndexReader reader = IndexReader.open(getIndexDir(), false);
+		IndexWriterSession session = openSession();
+		
+		try {
+			session.deleteStorage(storage);
+		} finally {
+			session.close();
+		}
+	}
 
-		String filePath = storage.getFullPath().toString();
 
-		Term term = Field.FILE.createTerm(filePath);
-		reader.deleteDocuments(term);
+	private static org.apache.lucene.document.Field createLuceneField(Field fieldName, String value) {
+		return new org.apache.lucene.document.Field(fieldName.toString(), value, 
+				Store.YES, org.apache.lucene.document.Field.Index.NOT_ANALYZED);
+	}
 
-		reader.close();
+	/**
+	 * Indexes the folders of a file as terms of the DIR field: the path of each folder (/proj/src, /proj/src/pkg)
+	 * and the name of each folder in the project (src, pkg), so folders are found by term and prefix lookups
+	 * 
+	 * @param doc
+	 * @param fullPath of the file
+	 */
+	private static void addFolderFields(Document doc, IPath fullPath)
+	{
+		StringBuilder folderPath = new StringBuilder();
+		
+		for(int i = 0; i < fullPath.segmentCount() - 1; i++)
+		{
+			String folder = fullPath.segment(i);
+			folderPath.append('/').append(folder);
+			
+			doc.add(createFolderField(folderPath.toString()));
+			
+			if( i > 0 ) // the first segment is the project
+				doc.add(createFolderField(folder));
+		}
+	}
+	
+	private static org.apache.lucene.document.Field createFolderField(String value) {
+		return new org.apache.lucene.document.Field(Field.DIR.toString(), value, 
+				Store.NO, org.apache.lucene.document.Field.Index.NOT_ANALYZED_NO_NORMS);
 	}
 
+	/**
+	 * Indexed as trie terms for numeric range queries and the field cache, stored as the decimal string
+	 */
+	private static NumericField createNumericField(Field fieldName, long value) {
+		return new NumericField(fieldName.toString(), MODIFIED_PRECISION_STEP, Store.YES, true).setLongValue(value);
+	}
 
-	private static org.apache.lucene.document.Field createLuceneField(Field fieldName, String value) {
+	private static org.apache.lucene.document.Field createStoredField(Field fieldName, String value) {
 		return new org.apache.lucene.document.Field(fieldName.toString(), value, 
-				Store.YES, org.apache.lucene.document.Field.Index.NOT_ANALYZED);
+				Store.YES, org.apache.lucene.document.Field.Index.NO);
 	}
 
 	private static org.apache.lucene.document.Field createLuceneField(Field fieldName, Reader reader) {
 		return new org.apache.lucene.document.Field(fieldName.toString(), 
-				reader, TermVector.YES);
+				reader, TermVector.WITH_POSITIONS_OFFSETS); // offsets locate matching lines without reading the whole file
 	}
 
 	/**
 	 * Extracts terms from text
 	 * 
 	 * @param text
-	 * @return a map of terms to their offsets in text
+	 * @return terms and their offsets in text, valid until the next call in the same thread
 	 * @throws IOException
 	 */
-	public static Map<String, List<Integer>> extractTextTerms(String text) throws IOException {
-		Map<String, List<Integer>> terms = new HashMap<String, List<Integer>>();
-		TokenStream tokenStream = fileAnalyzer.tokenStream(Field.CONTENTS.toString(), new StringReader(text));
-		
-		TermAttribute termAtt = (TermAttribute) tokenStream.addAttribute(TermAttribute.class);
-		OffsetAttribute offsetAtt = (OffsetAttribute) tokenStream.addAttribute(OffsetAttribute.class);
-		
-		while(tokenStream.incrementToken())
-		{
-			String termText = termAtt.term().toLowerCase(Locale.ENGLISH);// t.termText().toLowerCase(Locale.ENGLISH);
-			int offset = offsetAtt.startOffset();
-			
-			List<Integer> offsets = terms.get(termText);
-
-			if( offsets == null ) {
-				offsets = new LinkedList<Integer>();
-				terms.put(termText, offsets);
-			}
-
-			offsets.add(offset);
-		}
-		tokenStream.close();
-
-		return terms;
+	public static LineTerms extractTextTerms(String text) throws IOException {
+		return LineTerms.extract(fileAnalyzer, text);
 	}
 
 	/**
@@ -389,6 +651,9 @@ public class StorageIndexer
 
 		/** Index was reset - created or deleted */
 		public void onIndexReset();
+		
+		/** Index was rebuilt in a new directory which replaces the current one */
+		public void onIndexSwitch();
 	}
 
 	/** Empty implementation to void null checks (Null Object pattern) */
@@ -396,6 +661,7 @@ public class StorageIndexer
 	{
 		public void onIndexUpdate() {}
 		public void onIndexReset() {}
+		public void onIndexSwitch() {}
 	}
 
 }
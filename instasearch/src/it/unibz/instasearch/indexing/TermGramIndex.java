@@ -0,0 +1,447 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.WildcardTermEnum;
+import org.apache.lucene.util.ReaderUtil;
+
+/**
+ * Trigram index of the unique terms of a field in one index segment.
+ * Finds the terms matching a wildcard pattern like *term* by intersecting the lists of terms
+ * that contain each trigram of the pattern, instead of comparing the pattern with every term in the dictionary.
+ *
+ * Built on the first lookup and kept while the segment is open, like the field cache,
+ * so after the index changes only the new segments are indexed.
+ * Nothing is kept for a field with more than {@link #MAX_GRAM_POSTINGS} terms and grams (eg. the contents of a large segment),
+ * wildcard patterns are then matched by scanning the term dictionary of the segment
+ */
+public class TermGramIndex
+{
+	/** Number of characters in a gram. Patterns without this many characters between wildcards are not looked up */
+	public static final int GRAM_LENGTH = 3;
+	/** Maximum number of terms and term ordinals in the gram lists of one segment and field */
+	public static final int MAX_GRAM_POSTINGS = 8 * 1024 * 1024;
+
+	private static final Map<Object, Map<String, LazyIndex>> segmentIndexes = new WeakHashMap<Object, Map<String, LazyIndex>>(); // by segment core
+
+	private final String field;
+	private final String[] terms; // sorted as in the dictionary, null if over the budget
+	private final int[] docFreqs;
+	private final Map<String, int[]> gramTerms; // gram -> ascending ordinals of the terms containing it, null if over the budget
+
+	/**
+	 * @param segment
+	 * @param field interned field name
+	 * @param maxGramPostings nothing is kept if there are more terms and ordinals in the gram lists
+	 * @throws IOException
+	 */
+	TermGramIndex(IndexReader segment, String field, int maxGramPostings) throws IOException
+	{
+		this.field = field;
+
+		List<String> termList = new ArrayList<String>();
+		int[] freqs = new int[1024];
+		Map<String, GramPostings> postings = new HashMap<String, GramPostings>();
+		int postingCount = 0;
+		boolean overBudget = false;
+
+		TermEnum termEnum = segment.terms(new Term(field, ""));
+
+		try
+		{
+			do
+			{
+				Term term = termEnum.term();
+
+				if( term == null || term.field() != field ) // field names are interned
+					break;
+
+				if( ++postingCount > maxGramPostings ) // the term itself
+				{
+					overBudget = true;
+					break;
+				}
+
+				int ordinal = termList.size();
+				String text = term.text();
+				termList.add(text);
+
+				if( ordinal == freqs.length )
+					freqs = Arrays.copyOf(freqs, freqs.length * 2);
+
+				freqs[ordinal] = termEnum.docFreq();
+
+				for(int i = 0; i + GRAM_LENGTH <= text.length(); i++)
+				{
+					String gram = text.substring(i, i + GRAM_LENGTH);
+					GramPostings gramPostings = postings.get(gram);
+
+					if( gramPostings == null )
+					{
+						gramPostings = new GramPostings();
+						postings.put(gram, gramPostings);
+					}
+
+					if( gramPostings.add(ordinal) ) // once per term, even if the gram repeats in it
+						postingCount++;
+				}
+
+				if( postingCount > maxGramPostings )
+				{
+					overBudget = true;
+					break;
+				}
+			}
+			while( termEnum.next() );
+		}
+		finally
+		{
+			termEnum.close();
+		}
+
+		if( overBudget ) // too large, the terms are scanned instead
+		{
+			terms = null;
+			docFreqs = null;
+			gramTerms = null;
+			return;
+		}
+
+		terms = termList.toArray(new String[termList.size()]);
+		docFreqs = Arrays.copyOf(freqs, terms.length);
+
+		gramTerms = new HashMap<String, int[]>(postings.size() * 4 / 3 + 1);
+
+		for(Map.Entry<String, GramPostings> entry: postings.entrySet())
+			gramTerms.put(entry.getKey(), entry.getValue().toArray());
+	}
+
+	/**
+	 * Returns the terms of the reader that match the wildcard pattern.
+	 * The terms of each segment are found with its gram index and merged
+	 *
+	 * @param reader index or segment reader
+	 * @param wildcardTerm term with a pattern of * and ? wildcards
+	 * @return the matching terms in dictionary order or null if the pattern
+	 *  has no {@link #GRAM_LENGTH} characters without wildcards or a segment has too many grams, and the terms must be scanned
+	 * @throws IOException
+	 */
+	public static TermEnum getMatchingTerms(IndexReader reader, Term wildcardTerm) throws IOException
+	{
+		String pattern = wildcardTerm.text();
+		List<String> grams = getGrams(pattern);
+
+		if( grams.isEmpty() )
+			return null;
+
+		List<IndexReader> segments = new ArrayList<IndexReader>();
+		ReaderUtil.gatherSubReaders(segments, reader);
+
+		List<TermGramIndex> indexes = new ArrayList<TermGramIndex>(segments.size());
+
+		for(IndexReader segment: segments)
+		{
+			TermGramIndex index = getIndex(segment, wildcardTerm.field());
+
+			if( !index.hasGrams() )
+				return null;
+
+			indexes.add(index);
+		}
+
+		if( indexes.size() == 1 )
+			return indexes.get(0).getMatchingTerms(pattern, grams);
+
+		TreeMap<String, Integer> mergedTerms = new TreeMap<String, Integer>(); // term -> doc freq in all segments
+
+		for(TermGramIndex index: indexes)
+		{
+			TermEnum segmentTerms = index.getMatchingTerms(pattern, grams);
+
+			while( segmentTerms.term() != null ) // positioned at the first term
+			{
+				String text = segmentTerms.term().text();
+				Integer docFreq = mergedTerms.get(text);
+
+				mergedTerms.put(text, segmentTerms.docFreq() + (docFreq == null ? 0 : docFreq));
+				segmentTerms.next();
+			}
+		}
+
+		String[] terms = mergedTerms.keySet().toArray(new String[mergedTerms.size()]);
+		int[] docFreqs = new int[terms.length];
+
+		for(int i = 0; i < terms.length; i++)
+			docFreqs[i] = mergedTerms.get(terms[i]);
+
+		return new TermArrayEnum(wildcardTerm.field(), terms, docFreqs, null, terms.length);
+	}
+
+	/**
+	 * Returns the index of the segment's field, building it on the first call.
+	 * The index is built outside of the lock of all indexes, so only searches that need the same index wait for it
+	 *
+	 * @param segment
+	 * @param field
+	 * @return TermGramIndex
+	 * @throws IOException
+	 */
+	static TermGramIndex getIndex(IndexReader segment, String field) throws IOException
+	{
+		field = field.intern();
+		LazyIndex index;
+
+		synchronized(segmentIndexes)
+		{
+			Map<String, LazyIndex> fieldIndexes = segmentIndexes.get(segment.getFieldCacheKey());
+
+			if( fieldIndexes == null )
+			{
+				fieldIndexes = new HashMap<String, LazyIndex>();
+				segmentIndexes.put(segment.getFieldCacheKey(), fieldIndexes);
+			}
+
+			index = fieldIndexes.get(field);
+
+			if( index == null )
+			{
+				index = new LazyIndex(field);
+				fieldIndexes.put(field, index);
+			}
+		}
+
+		return index.get(segment);
+	}
+
+	/**
+	 * @param pattern
+	 * @return distinct grams of the parts of the pattern between wildcards
+	 */
+	static List<String> getGrams(String pattern)
+	{
+		List<String> grams = new ArrayList<String>();
+		int partStart = 0;
+
+		for(int i = 0; i <= pattern.length(); i++)
+		{
+			if( i < pattern.length() && pattern.charAt(i) != WildcardTermEnum.WILDCARD_STRING && pattern.charAt(i) != WildcardTermEnum.WILDCARD_CHAR )
+				continue;
+
+			for(int j = partStart; j + GRAM_LENGTH <= i; j++)
+			{
+				String gram = pattern.substring(j, j + GRAM_LENGTH);
+
+				if( !grams.contains(gram) )
+					grams.add(gram);
+			}
+
+			partStart = i + 1;
+		}
+
+		return grams;
+	}
+
+	private TermEnum getMatchingTerms(String pattern, List<String> grams)
+	{
+		int[][] gramOrdinals = new int[grams.size()][];
+
+		for(int i = 0; i < grams.size(); i++)
+		{
+			gramOrdinals[i] = gramTerms.get(grams.get(i));
+
+			if( gramOrdinals[i] == null ) // no term contains the gram
+				return new TermArrayEnum(field, terms, docFreqs, new int[0], 0);
+		}
+
+		Arrays.sort(gramOrdinals, new Comparator<int[]>() { // intersect the shortest lists first
+			public int compare(int[] ordinals1, int[] ordinals2) {
+				return ordinals1.length - ordinals2.length;
+			}
+		});
+
+		int[] candidates = gramOrdinals[0].clone();
+		int count = candidates.length;
+
+		for(int i = 1; i < gramOrdinals.length && count > 0; i++)
+			count = intersect(candidates, count, gramOrdinals[i]);
+
+		int matches = 0;
+
+		for(int i = 0; i < count; i++) // grams can be in another order or separated by wildcards
+		{
+			if( WildcardTermEnum.wildcardEquals(pattern, 0, terms[candidates[i]], 0) )
+				candidates[matches++] = candidates[i];
+		}
+
+		return new TermArrayEnum(field, terms, docFreqs, candidates, matches);
+	}
+
+	/**
+	 * Keeps the ordinals that are in both lists
+	 *
+	 * @return number of ordinals kept at the start of the first list
+	 */
+	private static int intersect(int[] ordinals, int count, int[] otherOrdinals)
+	{
+		int kept = 0, j = 0;
+
+		for(int i = 0; i < count && j < otherOrdinals.length; i++)
+		{
+			j = Arrays.binarySearch(otherOrdinals, j, otherOrdinals.length, ordinals[i]); // lists are sorted, search from the last position
+
+			if( j >= 0 )
+				ordinals[kept++] = ordinals[i];
+			else
+				j = -j - 1;
+		}
+
+		return kept;
+	}
+
+	/**
+	 * @return number of distinct grams in the index
+	 */
+	int getGramCount()
+	{
+		return hasGrams() ? gramTerms.size() : 0;
+	}
+
+	/**
+	 * @return false if nothing was indexed because there are too many terms and grams
+	 */
+	boolean hasGrams()
+	{
+		return gramTerms != null;
+	}
+
+	/**
+	 * Index of one segment and field, built by the first search that needs it while the others wait.
+	 * Doesn't keep a reference to the segment, the segment core is the key of the index
+	 */
+	private static class LazyIndex
+	{
+		private final String field;
+		private TermGramIndex index;
+
+		LazyIndex(String field)
+		{
+			this.field = field;
+		}
+
+		synchronized TermGramIndex get(IndexReader segment) throws IOException
+		{
+			if( index == null ) // not built yet or building failed
+				index = new TermGramIndex(segment, field, MAX_GRAM_POSTINGS);
+
+			return index;
+		}
+	}
+
+	private static class GramPostings
+	{
+		private int[] ordinals = new int[4];
+		private int size = 0;
+
+		/**
+		 * @return false if the ordinal was already added
+		 */
+		boolean add(int ordinal)
+		{
+			if( size > 0 && ordinals[size - 1] == ordinal )
+				return false;
+
+			if( size == ordinals.length )
+				ordinals = Arrays.copyOf(ordinals, size * 2);
+
+			ordinals[size++] = ordinal;
+
+			return true;
+		}
+
+		int[] toArray()
+		{
+			return Arrays.copyOf(ordinals, size);
+		}
+	}
+
+	/**
+	 * Enumerates the selected terms. Positioned at the first term, as the enums of the index reader
+	 */
+	private static class TermArrayEnum extends TermEnum
+	{
+		private final Term fieldTerm;
+		private final String[] terms;
+		private final int[] docFreqs;
+		private final int[] ordinals; // null for all terms
+		private final int count;
+		private int position = 0;
+
+		TermArrayEnum(String field, String[] terms, int[] docFreqs, int[] ordinals, int count)
+		{
+			this.fieldTerm = new Term(field, "");
+			this.terms = terms;
+			this.docFreqs = docFreqs;
+			this.ordinals = ordinals;
+			this.count = count;
+		}
+
+		@Override
+		public boolean next()
+		{
+			if( position < count )
+				position++;
+
+			return position < count;
+		}
+
+		@Override
+		public Term term()
+		{
+			if( position >= count )
+				return null;
+
+			return fieldTerm.createTerm(terms[getOrdinal()]);
+		}
+
+		@Override
+		public int docFreq()
+		{
+			if( position >= count )
+				return -1;
+
+			return docFreqs[getOrdinal()];
+		}
+
+		@Override
+		public void close()
+		{
+		}
+
+		private int getOrdinal()
+		{
+			return (ordinals == null) ? position : ordinals[position];
+		}
+	}
+}
@@ -16,31 +16,26 @@ import it.unibz.instasearch.prefs.PreferenceConstants;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
 import java.util.Locale;
 import java.util.regex.Pattern;
 
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.PrefixQuery;
-import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceProxy;
+import org.eclipse.core.resources.IResourceProxyVisitor;
 import org.eclipse.core.resources.IStorage;
 import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.content.IContentType;
 import org.eclipse.core.runtime.content.IContentTypeManager;
@@ -60,11 +55,23 @@ public class WorkspaceIndexer extends StorageIndexer implements ISchedulingRule,
 	private IContentType TEXT_CONTENT_TYPE;
 	
 	private static final ResourceCollector resourceCollector = new ResourceCollector();
+	/** RAM buffer of the writer that re-indexes a whole project */
+	private static final double BULK_RAM_BUFFER_MB = 48;
+	/** Files waiting between the stages of the indexing pipeline */
+	private static final int PIPELINE_QUEUE_CAPACITY = 256;
+	/** Bytes of file contents loaded by the read stage and not yet indexed */
+	private static final int PIPELINE_LOADED_BYTES = 32 * 1024 * 1024;
+	/** How often the read stage checks for a stopped pipeline while waiting for the load budget */
+	private static final long LOAD_WAIT_MS = 100;
+	
+	private IndexGenerations indexGenerations;
+	private IndexDirectoryProvider indexDirectoryProvider;
 	
 	// Prefs
 	private String fileExtensions[] = getIndexableFileExtensions();
-	private List<Pattern> excludedDirRegExes = getExcludedDirsRegExes();
+	private ExclusionMatcher exclusionMatcher = createExclusionMatcher();
 	private boolean indexEmptyExtension = InstaSearchPlugin.getBoolPref(PreferenceConstants.P_INDEX_EMPTY_EXTENSION);
+	private int indexingThreads = InstaSearchPlugin.getIntPref(PreferenceConstants.P_INDEXING_THREADS);
 	
 	/**
 	 * @throws Exception
@@ -75,43 +82,212 @@ public class WorkspaceIndexer extends StorageIndexer implements ISchedulingRule,
     	
     	if( Platform.getContentTypeManager() != null )
     		TEXT_CONTENT_TYPE = Platform.getContentTypeManager().getContentType(IContentTypeManager.CT_TEXT);
+    	
+    	getMergeSettings().setSegmentsPerLevel(InstaSearchPlugin.getIntPref(PreferenceConstants.P_INDEX_SEGMENTS_PER_LEVEL));
 	}
 	
+	/**
+	 * Returns the directory of the current index generation. 
+	 * The same instance is used by the indexer and the searcher and it must not be closed
+	 */
 	@Override
 	public Directory getIndexDir() throws IOException 
 	{
-		return FSDirectory.open(getIndexDirLocation()); // FSDirectory.getDirectory(getIndexDirLocation(), false); 
+		return getIndexDirectoryProvider().getDirectory(getIndexDirLocation());
+	}
+	
+	private synchronized IndexDirectoryProvider getIndexDirectoryProvider()
+	{
+		if( indexDirectoryProvider == null ) // not in constructor, the index dir is already needed by the super constructor
+		{
+			String mode = InstaSearchPlugin.getDefault().getPreferenceStore().getString(PreferenceConstants.P_INDEX_DIRECTORY);
+			indexDirectoryProvider = new IndexDirectoryProvider(IndexDirectoryProvider.Mode.getByName(mode));
+		}
+		
+		return indexDirectoryProvider;
 	}
 	
 	/**
+	 * Builds a new index in a new generation directory while searches keep using the current index.
+	 * When done, the new generation replaces the current one. The replaced generation can still be read by running searches,
+	 * so it is deleted by the next rebuild or when the index is reconciled on the next start.
+	 * If indexing is canceled, the new generation is discarded (unless there is no index yet).
+	 * Canceling while archives are indexed keeps the new generation, since all workspace files are already in it
+	 * 
 	 * @param monitor
 	 * @throws Exception
 	 */
 	public void createIndex(IWorkspaceRoot root, IProgressMonitor monitor) throws Exception {
 		
-		getIndexChangeListener().onIndexReset();
+		IndexGenerations generations = getIndexGenerations();
+		deleteOldGenerations(); // replaced by the last rebuild or aborted rebuilds
+		
+		File generationDir = generations.createGeneration();
+		Directory indexDirectory = getIndexDirectoryProvider().getDirectory(generationDir);
+		boolean published = false;
+		boolean workspaceIndexed = false;
+		
+		try
+		{
+			IndexWriter indexWriter = createIndexWriter(indexDirectory, true);
+			
+			try
+			{
+				indexContainers(indexWriter, root, monitor);
+				workspaceIndexed = !monitor.isCanceled();
+				
+				if( workspaceIndexed )
+					indexArchives(indexWriter, root, monitor);
+				
+				if( !monitor.isCanceled() ) {
+					monitor.setTaskName("Optimizing Index");
+					indexWriter.optimize();
+				}
+				
+				commitSchemaVersion(indexWriter);
+			}
+			finally
+			{
+				indexWriter.close();
+			}
+			
+			if( workspaceIndexed || !isIndexed() ) // partial index is better than none
+			{
+				generations.publish(generationDir);
+				published = true;
+			}
+		}
+		finally
+		{
+			if( !published ) {
+				getIndexDirectoryProvider().closeDirectory(generationDir);
+				generations.deleteGeneration(generationDir);
+			}
+		}
+		
+		if( published )
+			getIndexChangeListener().onIndexSwitch(); // searches move to the new generation
+		
+		monitor.done();
+	}
+	
+	
+	/**
+	 * Brings an existing index up to date with the workspace.
+	 * Only the files that were added, changed or removed while the index was not being updated 
+	 * (eg. Eclipse was closed) are re-indexed. Files are compared with the stamps stored in the index ({@link IndexManifest})
+	 * 
+	 * @param root
+	 * @param monitor
+	 * @throws Exception
+	 */
+	public void reconcileIndex(IWorkspaceRoot root, IProgressMonitor monitor) throws Exception {
+		
+		long startTime = System.currentTimeMillis();
+		InstaSearchPlugin.debug("Deleted old index generations", deleteOldGenerations()); // not used by readers after a restart
+		
+		IndexManifest manifest = readManifest();
+		int indexedCount = manifest.size();
 		
-		deleteIndex();
-		Directory indexDirectory = FSDirectory.open(getIndexDirLocation());
+		resourceCollector.clear();
+		resourceCollector.setExclusionMatcher( exclusionMatcher );
+		root.accept(resourceCollector);
 		
-		IndexWriter indexWriter = createIndexWriter(true);
+		monitor.beginTask("Checking Index", resourceCollector.getContainers().size());
 		
-		indexContainers(indexWriter, root, monitor);
+		IndexWriterSession session = openSession();
 		
-		monitor.setTaskName("Optimizing Index");
-		indexWriter.optimize();
+		try
+		{
+			for(IContainer container: resourceCollector.getContainers()) 
+			{
+				if( monitor.isCanceled() ) 
+					break;
+				
+				monitor.subTask(container.getProject().getName() + " - " + container.getName());
+				reconcileContainer(session, container, manifest, monitor);
+				monitor.worked(1);
+			}
+			
+			if( !monitor.isCanceled() )
+			{
+				for(String filePath: manifest.getFilePaths()) // no longer in the workspace or not indexable
+					session.deleteFile(filePath);
+			}
+		}
+		finally
+		{
+			session.close();
+		}
 		
-		indexWriter.close();
-		indexDirectory.close();
+		InstaSearchPlugin.debug("Reconciled index", "files " + indexedCount, "updated " + session.getUpdatedCount(), 
+				"deleted " + session.getDeletedCount(), (System.currentTimeMillis() - startTime) + " ms");
 		
-		getIndexChangeListener().onIndexUpdate();
+		if( session.getUpdatedCount() != 0 || session.getDeletedCount() != 0 )
+			getIndexChangeListener().onIndexUpdate();
 		
 		monitor.done();
 	}
 	
+	private IndexManifest readManifest() throws IOException {
+		
+		IndexReader reader = IndexReader.open(getIndexDir(), true);
+		
+		try {
+			return IndexManifest.read(reader);
+		} finally {
+			reader.close();
+		}
+	}
 	
 	/**
-	 * Index all containers in the workspace
+	 * Re-indexes the files of the container that are not in the manifest or have changed 
+	 * and removes them from the manifest
+	 */
+	private void reconcileContainer(IndexWriterSession session, IContainer container, 
+			IndexManifest manifest, IProgressMonitor monitor) throws Exception
+	{
+		if( !container.isAccessible() || container.isDerived(IResource.CHECK_ANCESTORS) )
+			return;
+		
+		for(IResource member: container.members(false)) {
+			
+			if( monitor.isCanceled() )
+				return;
+			
+			if( member.getType() != IResource.FILE || !member.isAccessible() || member.isDerived() ) 
+				continue;
+			
+			IFile file = (IFile) member;
+			String filePath = file.getFullPath().toString();
+			
+			if( !manifest.contains(filePath) && !isIndexable(file) )
+				continue; // not indexed and should not be
+			
+			if( isUnchanged(file, manifest.remove(filePath)) )
+				continue;
+			
+			updateFile(session, file);
+		}
+	}
+	
+	private boolean isUnchanged(IFile file, IndexManifest.FileStamp indexedStamp) throws Exception {
+		
+		if( indexedStamp == null || file.getRawLocation() == null || !isIndexable(file) )
+			return false;
+		
+		File f = file.getRawLocation().toFile();
+		
+		return IndexManifest.isUnchanged(indexedStamp, file, file.getLocalTimeStamp(), f.length());
+	}
+	
+	/**
+	 * Index all files in the workspace.
+	 * Files found by the traversal are streamed through an {@link IndexingPipeline}: 
+	 * a read stage loads their contents (up to {@link #PIPELINE_LOADED_BYTES} in total, larger files are 
+	 * streamed by the index stage) and an index stage with {@link PreferenceConstants#P_INDEXING_THREADS} 
+	 * threads analyzes and adds them to the index.
+	 * The files are counted first (without creating resources) so that progress is reported per file
 	 * 
 	 * @param indexWriter
 	 * @param workspaceRoot
@@ -120,33 +296,225 @@ public class WorkspaceIndexer extends StorageIndexer implements ISchedulingRule,
 	 */
 	protected void indexContainers(IndexWriter indexWriter, IWorkspaceRoot workspaceRoot, IProgressMonitor monitor) throws Exception {
 		
-		resourceCollector.clear();
-		resourceCollector.setExcludedDirRegExes( excludedDirRegExes );
-		workspaceRoot.accept(resourceCollector); // use visitor to collect containers
+		monitor.beginTask("File Indexing", countFiles(workspaceRoot, monitor)); // the pipeline reports each completed file
 		
-		monitor.beginTask("File Indexing", resourceCollector.getContainers().size());
+		IndexingPipeline pipeline = new IndexingPipeline(PIPELINE_QUEUE_CAPACITY);
+		LoadBudget loadBudget = new LoadBudget(PIPELINE_LOADED_BYTES);
+		pipeline.addStage("read", Math.max(1, indexingThreads/2), createReadStage(pipeline, loadBudget));
+		pipeline.addStage("index", indexingThreads, createIndexStage(indexWriter));
+		pipeline.start();
 		
-		for(IContainer container: resourceCollector.getContainers()) 
-		{	
-			if( monitor.isCanceled() ) 
-				break;
+		try
+		{
+			workspaceRoot.accept(createTraversal(pipeline, monitor), IResource.NONE);
 			
-			monitor.setTaskName("Indexing: " + container.getProject().getName() + " - " + container.getName());
-			indexContainer(indexWriter, container, monitor);
-			monitor.worked(1);
+			if( !monitor.isCanceled() )
+				pipeline.finish(monitor);
+		}
+		finally
+		{
+			pipeline.stop(); // wait for running stages before the writer is closed
 		}
 		
+		InstaSearchPlugin.debug("Indexing pipeline", pipeline);
+		InstaSearchPlugin.debug(getContentSniffer());
+		
 		monitor.done();
 	}
 	
-	private File getIndexDirLocation()
+	/**
+	 * Indexes archives (eg. JAR source attachments) after all workspace files have been indexed. 
+	 * If it is canceled, the index is still used with the archives indexed so far
+	 * 
+	 * @param indexWriter
+	 * @param workspaceRoot
+	 * @param monitor
+	 * @throws Exception
+	 */
+	protected void indexArchives(IndexWriter indexWriter, IWorkspaceRoot workspaceRoot, IProgressMonitor monitor) throws Exception {
+		// no archives without JDT
+	}
+	
+	/**
+	 * @return number of files that the traversal submits to the pipeline
+	 */
+	private int countFiles(IWorkspaceRoot workspaceRoot, final IProgressMonitor monitor) throws CoreException
+	{
+		final int[] count = {0};
+		
+		workspaceRoot.accept(new IResourceProxyVisitor() {
+			public boolean visit(IResourceProxy proxy) throws CoreException {
+				
+				if( monitor.isCanceled() )
+					return false;
+				
+				if( proxy.getType() == IResource.FILE ) {
+					if( !proxy.isDerived() )
+						count[0]++;
+					return false;
+				}
+				
+				return isVisited(proxy);
+			}
+		}, IResource.NONE);
+		
+		return count[0];
+	}
+	
+	/**
+	 * @return true if the files of the root, project or folder are indexed
+	 */
+	private boolean isVisited(IResourceProxy proxy)
+	{
+		switch( proxy.getType() )
+		{
+		case IResource.ROOT:
+			return true;
+			
+		case IResource.PROJECT:
+			if( !proxy.isAccessible() ) // don't visit closed projects
+				return false;
+			// fall through
+		case IResource.FOLDER:
+			return !proxy.isDerived() 
+				&& !exclusionMatcher.isExcluded(proxy.requestFullPath().toString());
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Visits the workspace and submits files to the pipeline as they are found,
+	 * so that indexing starts before the traversal has finished
+	 */
+	private IResourceProxyVisitor createTraversal(final IndexingPipeline pipeline, final IProgressMonitor monitor)
+	{
+		return new IResourceProxyVisitor() {
+			public boolean visit(IResourceProxy proxy) throws CoreException {
+				
+				if( monitor.isCanceled() || pipeline.isStopped() )
+					return false;
+				
+				if( proxy.getType() == IResource.FILE )
+				{
+					if( !proxy.isDerived() ) {
+						IFile file = (IFile) proxy.requestResource();
+						submit(pipeline, new IndexingPipeline.PipelineFile(file, file.getProject().getName(), 0), monitor);
+					}
+					return false;
+				}
+				
+				boolean visited = isVisited(proxy);
+				
+				if( visited && proxy.getType() == IResource.PROJECT )
+					monitor.setTaskName("Indexing: " + proxy.getName());
+				
+				return visited;
+			}
+		};
+	}
+	
+	private static void submit(IndexingPipeline pipeline, IndexingPipeline.PipelineFile file, 
+			IProgressMonitor monitor) throws CoreException
+	{
+		try {
+			pipeline.submit(file, monitor); // not accepted if the pipeline failed, finish() throws the failure
+		} catch (InterruptedException e) {
+			throw new OperationCanceledException();
+		}
+	}
+	
+	/**
+	 * Filters files that should not be indexed and reads the contents of the others.
+	 * Files larger than a chunk are passed on unloaded, the index stage streams them chunk by chunk
+	 */
+	private IndexingPipeline.FileProcessor createReadStage(final IndexingPipeline pipeline, final LoadBudget loadBudget)
+	{
+		return new IndexingPipeline.FileProcessor() {
+			public IndexingPipeline.PipelineFile process(IndexingPipeline.PipelineFile candidate) throws Exception {
+				
+				IFile file = (IFile) candidate.getStorage();
+				
+				if( !isIndexable(file) || !isReadable(file) )
+					return null;
+				
+				long modificationStamp = file.getLocalTimeStamp();
+				long size = file.getRawLocation().toFile().length();
+				
+				if( size > getChunkSize() ) // chunked, don't hold in memory
+					return new IndexingPipeline.PipelineFile(file, candidate.getProjectName(), modificationStamp);
+				
+				int reservedBytes;
+				
+				while( (reservedBytes = loadBudget.reserve(size, LOAD_WAIT_MS)) == -1 ) // index stage is behind
+				{
+					if( pipeline.isStopped() )
+						return null;
+				}
+				
+				LoadedStorage contents = LoadedStorage.load(file, loadBudget, reservedBytes);
+				
+				return new IndexingPipeline.PipelineFile(contents, candidate.getProjectName(), modificationStamp);
+			}
+		};
+	}
+	
+	/**
+	 * Analyzes the loaded files and adds them to the index
+	 */
+	private IndexingPipeline.FileProcessor createIndexStage(final IndexWriter indexWriter)
 	{
-		File location = InstaSearchPlugin.getIndexDirLocation();
+		return new IndexingPipeline.FileProcessor() {
+			public IndexingPipeline.PipelineFile process(IndexingPipeline.PipelineFile file) throws Exception {
+				
+				try {
+					indexStorageWithRetry(indexWriter, file.getStorage(), file.getProjectName(), file.getModificationStamp(), null);
+				} finally {
+					if( file.getStorage() instanceof LoadedStorage )
+						((LoadedStorage) file.getStorage()).release();
+				}
+				
+				return file;
+			}
+		};
+	}
+	
+	/**
+	 * @return directory of the current index generation
+	 */
+	public File getIndexDirLocation()
+	{
+		return getIndexGenerations().getCurrentDir();
+	}
+	
+	private synchronized IndexGenerations getIndexGenerations()
+	{
+		if( indexGenerations == null ) // not in constructor, the index dir is already needed by the super constructor
+		{
+			File location = InstaSearchPlugin.getIndexDirLocation();
+			
+			if( ! location.exists() )
+				location.mkdirs();
+			
+			indexGenerations = new IndexGenerations(location);
+		}
 		
-		if( ! location.exists() )
-			location.mkdirs();
+		return indexGenerations;
+	}
+	
+	/**
+	 * Closes the directories of the generations that are not current and deletes them.
+	 * Only called when searches no longer read them
+	 * 
+	 * @return number of deleted generations
+	 * @throws IOException
+	 */
+	private int deleteOldGenerations() throws IOException
+	{
+		IndexGenerations generations = getIndexGenerations();
+		getIndexDirectoryProvider().closeDirectoriesExcept(generations.getCurrentDir());
 		
-		return location;
+		return generations.deleteOldGenerations();
 	}
 	
 	@Override
@@ -155,30 +523,26 @@ public class WorkspaceIndexer extends StorageIndexer implements ISchedulingRule,
 		return IndexReader.indexExists(getIndexDir()) && super.isIndexed();
 	}
 	
-	private static List<Pattern> getExcludedDirsRegExes() 
+	private static ExclusionMatcher createExclusionMatcher() 
 	{
 		String excludeDirList = InstaSearchPlugin.getDefault().getPreferenceStore().getString(PreferenceConstants.P_EXCLUDE_DIRS);
+		ExclusionMatcher matcher = new ExclusionMatcher();
 		
 		if( excludeDirList == null || "".equals(excludeDirList) ) 
-			return Collections.emptyList();
+			return matcher;
 		
-		List<Pattern> excludeDirSet = new ArrayList<Pattern>();
 		String[] excludedDirArr = excludeDirList.split(File.pathSeparator);
 		
 		for (String wildCardPattern : excludedDirArr)
 		{
-			Pattern pattern = null;
-			if( wildCardPattern.startsWith("/") ) wildCardPattern = wildCardPattern.substring(1);
-			
 			try {
-				pattern = wildcardToRegex(wildCardPattern);
-				excludeDirSet.add(pattern);
+				matcher.add(wildCardPattern);
 			} catch(Throwable t) {
 				InstaSearchPlugin.debug(t);
 			}
 		}
 		
-		return excludeDirSet;
+		return matcher;
 	}
 	
 	private static String[] getIndexableFileExtensions() {
@@ -235,23 +599,29 @@ public class WorkspaceIndexer extends StorageIndexer implements ISchedulingRule,
 	
 	private void indexFile(IndexWriter indexWriter, IFile file) throws Exception {
 		
-		if( ! file.isAccessible() )
+		if( ! isReadable(file) )
 			return;
 		
+		indexStorageWithRetry(indexWriter, file, file.getProject().getName(), file.getLocalTimeStamp(), null);
+	}
+	
+	private static boolean isReadable(IFile file) {
+		
+		if( ! file.isAccessible() )
+			return false;
+		
 		if( file.isDerived(IResource.CHECK_ANCESTORS) )
-			return;
+			return false;
 		
 		if( ! file.isSynchronized(IResource.DEPTH_ZERO) )
-			return;
+			return false;
 		
 		if( file.getRawLocation() == null ) // unknown location
-			return;
+			return false;
 		
 		File f = file.getRawLocation().toFile();
-		if( f == null || ! f.canRead() ) 
-			return;
 		
-		indexStorageWithRetry(indexWriter, file, file.getProject().getName(), file.getLocalTimeStamp(), null);
+		return f != null && f.canRead();
 	}
 	
 	/**
@@ -263,18 +633,35 @@ public class WorkspaceIndexer extends StorageIndexer implements ISchedulingRule,
 		if( !isIndexed() )
 			return;
 		
-		deleteStorage(file);
+		IndexWriterSession session = openSession();
+		
+		try {
+			updateFile(session, file);
+		} finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Deletes and re-indexes a file using the writer of the session.
+	 * Changes are visible after the session is closed
+	 * 
+	 * @param session
+	 * @param file
+	 * @throws Exception
+	 */
+	public void updateFile(IndexWriterSession session, IFile file) throws Exception {
+		
+		session.deleteStorage(file);
 		
 		if( !isIndexable(file) )
 			return;
 		
 		if( file.isAccessible() && !file.isDerived(IResource.CHECK_ANCESTORS) ) 
 		{
-			IndexWriter w = createIndexWriter(false);
-			indexFile(w, file);
-			w.close();
+			indexFile(session.getIndexWriter(), file);
+			session.storageIndexed();
 		}
-
 	}
 	
 	/**
@@ -289,26 +676,41 @@ public class WorkspaceIndexer extends StorageIndexer implements ISchedulingRule,
 		if( !isIndexed() )
 			return;
 		
-		IndexReader reader = IndexReader.open(getIndexDir(), false);
-		deleteFolder(reader, folder);
-		reader.close();
+		IndexWriterSession session = openSession();
+		
+		try {
+			updateFolder(session, folder, monitor);
+		} finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Deletes and re-indexes files in a folder using the writer of the session
+	 * 
+	 * @param session
+	 * @param folder
+	 * @param monitor 
+	 * @throws Exception 
+	 */
+	public void updateFolder(IndexWriterSession session, IFolder folder, IProgressMonitor monitor) throws Exception {
+		
+		deleteFolder(session, folder);
 		
 		if( !folder.isAccessible() )	
 			return;
 		
 		resourceCollector.clear();
-		resourceCollector.setExcludedDirRegExes(excludedDirRegExes);
+		resourceCollector.setExclusionMatcher(exclusionMatcher);
 		folder.accept(resourceCollector); // get also subfolders
 		
-		IndexWriter w = createIndexWriter(false);
+		IndexWriter w = session.getIndexWriter();
 		
 		for(IContainer container: resourceCollector.getContainers())
 		{
 			if( isExcluded(container) ) continue;
 			indexContainer(w, container, monitor);
 		}
-		
-		w.close();
 	}
 
 	/**
@@ -317,14 +719,17 @@ public class WorkspaceIndexer extends StorageIndexer implements ISchedulingRule,
 	 */
 	private boolean isExcluded(IContainer container) {
 		
-		if( container == null || excludedDirRegExes == null || excludedDirRegExes.isEmpty() )
+		if( container == null || exclusionMatcher.isEmpty() )
 			return false;
 		
-		return ResourceCollector.isResourceExcluded(container, excludedDirRegExes) 
-				|| isExcluded(container.getParent());
+		return exclusionMatcher.isExcludedOrParent(container.getFullPath().toString());
 	}
 
 	/**
+	 * Deletes and re-indexes all files of the project in one pass with a single writer.
+	 * Used instead of updating files one by one when most of a project has changed.
+	 * The changes are committed only if all files were indexed, a canceled or failed update is rolled back
+	 * 
 	 * @param project
 	 * @param monitor
 	 * @throws Exception
@@ -334,23 +739,31 @@ public class WorkspaceIndexer extends StorageIndexer implements ISchedulingRule,
 		if( !isIndexed() )
 			return;
 		
-		deleteProject(project);
+		IndexWriter w = createIndexWriter(false);
+		w.setRAMBufferSizeMB(BULK_RAM_BUFFER_MB); // flush fewer, larger segments
+		boolean indexed = false;
 		
-		if( project.exists() && project.isAccessible() && project.isOpen() ) {
-			IndexWriter w = createIndexWriter(false);
+		try {
+			w.deleteDocuments(Field.PROJ.createTerm(project.getName())); // buffered, only affects documents added before
 			
-			resourceCollector.clear();
-			resourceCollector.setExcludedDirRegExes(excludedDirRegExes);
-			project.accept(resourceCollector);
-			
-			for(IContainer container: resourceCollector.getContainers())
-			{
-				indexContainer(w, container, monitor);
+			if( project.exists() && project.isAccessible() && project.isOpen() ) {
+				resourceCollector.clear();
+				resourceCollector.setExclusionMatcher(exclusionMatcher);
+				project.accept(resourceCollector);
+				
+				for(IContainer container: resourceCollector.getContainers())
+				{
+					indexContainer(w, container, monitor);
+				}
 			}
 			
-			w.close();
+			indexed = !monitor.isCanceled();
+		} finally {
+			if( indexed )
+				w.close(); // commit once
+			else
+				w.rollback(); // canceled or failed, keep the project as it was indexed before
 		}
-		
 	}
 	
 	/**
@@ -402,22 +815,13 @@ public class WorkspaceIndexer extends StorageIndexer implements ISchedulingRule,
 	}
 
 	/**
-	 * @throws IOException 
+	 * Deletes all files in the container (deletions are buffered in the session)
 	 * 
+	 * @throws IOException 
 	 */
-	private void deleteFolder(IndexReader reader, IContainer container) throws Exception {
-		
-		IndexSearcher searcher = new IndexSearcher(reader);
-		String path = container.getFullPath().addTrailingSeparator().toString();
-		TopDocs topDocs = searcher.search(new PrefixQuery(Field.FILE.createTerm(path)), reader.numDocs());
+	private void deleteFolder(IndexWriterSession session, IContainer container) throws IOException {
 		
-		for(ScoreDoc doc: topDocs.scoreDocs)
-		{
-			int docNum = doc.doc;
-			reader.deleteDocument(docNum);
-		}
-		
-		searcher.close();
+		session.deleteFolder(container.getFullPath().toString());
 	}
 	
 	/**
@@ -427,12 +831,11 @@ public class WorkspaceIndexer extends StorageIndexer implements ISchedulingRule,
 	 */
 	public int deleteProject(IProject project) throws Exception {
 		IndexReader reader = IndexReader.open(getIndexDir(), false);
-		String filePath = project.getFullPath().toString();
 		
-		Term term = Field.PROJ.createTerm(filePath);
+		Term term = Field.PROJ.createTerm(project.getName()); // indexed with the name, not the path
 		int deletedCount = reader.deleteDocuments(term);
 		
-		reader.close();
+		commitAndClose(reader);
 		
 		return deletedCount;
 	}
@@ -474,9 +877,15 @@ public class WorkspaceIndexer extends StorageIndexer implements ISchedulingRule,
 		if( PreferenceConstants.P_INDEXABLE_EXTENSIONS.equals(prop) )
 			fileExtensions = getIndexableFileExtensions();
 		else if( PreferenceConstants.P_EXCLUDE_DIRS.equals(prop) )
-			excludedDirRegExes = getExcludedDirsRegExes();	
+			exclusionMatcher = createExclusionMatcher();
 		else if( PreferenceConstants.P_INDEX_EMPTY_EXTENSION.equals(prop) )
 			indexEmptyExtension = InstaSearchPlugin.getBoolPref(PreferenceConstants.P_INDEX_EMPTY_EXTENSION);
+		else if( PreferenceConstants.P_INDEXING_THREADS.equals(prop) )
+			indexingThreads = InstaSearchPlugin.getIntPref(PreferenceConstants.P_INDEXING_THREADS);
+		else if( PreferenceConstants.P_INDEX_SEGMENTS_PER_LEVEL.equals(prop) )
+			getMergeSettings().setSegmentsPerLevel(InstaSearchPlugin.getIntPref(PreferenceConstants.P_INDEX_SEGMENTS_PER_LEVEL));
+		else if( PreferenceConstants.P_INDEX_DIRECTORY.equals(prop) )
+			getIndexDirectoryProvider().setMode(IndexDirectoryProvider.Mode.getByName(String.valueOf(event.getNewValue())));
 		
 	}
 	
@@ -489,16 +898,6 @@ public class WorkspaceIndexer extends StorageIndexer implements ISchedulingRule,
 	 */
 	public static Pattern wildcardToRegex(String pathWildcardPattern)
 	{
-		String regex = pathWildcardPattern;
-		
-		regex = regex.replaceAll("\\*\\*", "<double-star>"); // escape initially
-		regex = regex.replaceAll("\\.", "\\."); // escape .
-		regex = regex.replaceAll("\\*", "[^/]*");
-		regex = regex.replaceAll("\\?", ".");
-		regex = regex.replaceAll("<double-star>", ".*");
-		
-		Pattern pattern = Pattern.compile(regex);
-		
-		return pattern;
+		return ExclusionMatcher.wildcardToRegex(pathWildcardPattern);
 	}
 }
@@ -62,9 +62,7 @@ public class WorkspaceIndexerJDT extends WorkspaceIndexer {
 	}
 
 	@Override
-	protected void indexContainers(IndexWriter indexWriter, IWorkspaceRoot workspaceRoot, IProgressMonitor monitor) throws Exception {
-		
-		super.indexContainers(indexWriter, workspaceRoot, monitor);
+	protected void indexArchives(IndexWriter indexWriter, IWorkspaceRoot workspaceRoot, IProgressMonitor monitor) throws Exception {
 		
 		boolean indexArchives = InstaSearchPlugin.getBoolPref(PreferenceConstants.P_INDEX_ARCHIVES);
 		if( ! indexArchives )
@@ -91,7 +89,8 @@ public class WorkspaceIndexerJDT extends WorkspaceIndexer {
 		}
 		
 		if( monitor.isCanceled() ) {
-			// if user canceled, disable jar indexing in preferences. next time don't index
+			// if user canceled, disable jar indexing in preferences. next time don't index.
+			// the workspace files are already indexed, the new index is kept (see createIndex)
 			InstaSearchPlugin.setBoolPref(PreferenceConstants.P_INDEX_ARCHIVES, false);
 		}
 		
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing.querying;
+
+import it.unibz.instasearch.indexing.FuzzyTermMatcher;
+import it.unibz.instasearch.indexing.FuzzyTermMatcher.SimilarTerm;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+/**
+ * Fuzzy query that is rewritten to at most a few similar terms, found by {@link FuzzyTermMatcher}.
+ * Terms are boosted by their similarity as in FuzzyQuery, which compares the term with every term in the index
+ * and can expand to thousands of terms
+ */
+public class BoundedFuzzyQuery extends Query {
+
+	private static final long serialVersionUID = 1L;
+	
+	/** Maximum number of terms the query is expanded to */
+	public static final int MAX_TERMS = 50;
+	
+	private Term term;
+	private float minSimilarity = FuzzyQuery.defaultMinSimilarity;
+	
+	/**
+	 * @param term
+	 */
+	public BoundedFuzzyQuery(Term term) {
+		this.term = term;
+	}
+	
+	/**
+	 * @return the searched term
+	 */
+	public Term getTerm() {
+		return term;
+	}
+	
+	@Override
+	public Query rewrite(IndexReader reader) throws IOException {
+		
+		BooleanQuery query = new BooleanQuery(true); // don't favor documents with several similar terms
+		float scale = 1 / (1 - minSimilarity);
+		
+		for(SimilarTerm similarTerm: FuzzyTermMatcher.getSimilarTerms(reader, term, minSimilarity, MAX_TERMS))
+		{
+			TermQuery termQuery = new TermQuery(similarTerm.getTerm());
+			termQuery.setBoost( getBoost() * (similarTerm.getSimilarity() - minSimilarity) * scale );
+			query.add(termQuery, Occur.SHOULD);
+		}
+		
+		return query;
+	}
+	
+	@Override
+	public String toString(String field) {
+		String text = term.field().equals(field) ? term.text() : term.toString();
+		
+		return text + "~" + minSimilarity + (getBoost() != 1 ? "^" + getBoost() : "");
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if( !(obj instanceof BoundedFuzzyQuery) )
+			return false;
+		
+		BoundedFuzzyQuery other = (BoundedFuzzyQuery) obj;
+		
+		return term.equals(other.term) && minSimilarity == other.minSimilarity && getBoost() == other.getBoost();
+	}
+	
+	@Override
+	public int hashCode() {
+		return term.hashCode() ^ Float.floatToIntBits(minSimilarity) ^ Float.floatToIntBits(getBoost());
+	}
+}
@@ -14,6 +14,7 @@ package it.unibz.instasearch.indexing.querying;
 import it.unibz.instasearch.indexing.Field;
 
 import java.util.HashMap;
+import java.util.Locale;
 
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.PrefixQuery;
@@ -43,6 +44,20 @@ public class FieldAliasConverter extends QueryVisitor {
 	public FieldAliasConverter() {
 	}
 	
+	/**
+	 * @param fieldName field name or its alias (case insensitive)
+	 * @return Field or null if there is no such field or alias
+	 */
+	public static Field getField(String fieldName)
+	{
+		Field field = Field.getByName(fieldName);
+		
+		if( field == null )
+			field = aliases.get(fieldName.toLowerCase(Locale.ENGLISH));
+		
+		return field;
+	}
+	
 	@Override
 	public Query visit(TermQuery termQuery, Field termField) {
 		
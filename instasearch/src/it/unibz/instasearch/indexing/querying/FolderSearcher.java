@@ -20,7 +20,9 @@ import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.WildcardQuery;
 
 /**
- * 
+ * Replaces folder queries with lookups of the DIR field, which has the paths and names of the folders of each file.
+ * Absolute folders (dir:/proj/src) are matched by path, folder names (dir:src) by name.
+ * Relative paths of several folders (dir:src/pkg) are not indexed and are matched by a wildcard of the file path
  */
 public class FolderSearcher extends QueryVisitor {
 
@@ -31,15 +33,12 @@ public class FolderSearcher extends QueryVisitor {
 		
 		if( field == Field.DIR ) 
 		{
-			if( t.text().startsWith("/") ) // already absolute
-			{
-				Term fileTerm = Field.FILE.createTerm(t.text());
-				return new PrefixQuery(fileTerm);
-			}
+			String text = getFolder(t.text());
 			
-			Term fileTerm = Field.FILE.createTerm("/*/" + t.text() + "/*");
+			if( isRelativePath(text) )
+				return new WildcardQuery(Field.FILE.createTerm("/*/" + text + "/*"));
 			
-			return new WildcardQuery(fileTerm);
+			return new TermQuery(Field.DIR.createTerm(text)); // folder path or name
 		}
 		
 		return super.visit(termQuery, field);
@@ -53,15 +52,10 @@ public class FolderSearcher extends QueryVisitor {
 		{
 			String text = t.text();
 			
-			if( text.startsWith("/") ) // already absolute
-			{
-				Term fileTerm = Field.FILE.createTerm(text);
-				return new PrefixQuery(fileTerm); //change field
-			}
-			
-			Term fileTerm = Field.FILE.createTerm("/*/" + text + "*/*"); // meant to end with * already
+			if( isRelativePath(text) )
+				return new WildcardQuery(Field.FILE.createTerm("/*/" + text + "*/*")); // meant to end with * already
 			
-			return new WildcardQuery(fileTerm);
+			return new PrefixQuery(Field.DIR.createTerm(text)); // folder paths or names starting with the text
 		}
 		
 		return super.visit(prefixQuery, field);
@@ -74,21 +68,30 @@ public class FolderSearcher extends QueryVisitor {
 		
 		if( field == Field.DIR ) 
 		{
-			String text = t.text();
-			
-			if( text.startsWith("/") ) // already absolute
-			{
-				Term fileTerm = Field.FILE.createTerm(text);
-				return new WildcardQuery(fileTerm); //change field
-			}
+			String text = getFolder(t.text());
 			
-			Term fileTerm = Field.FILE.createTerm("/*/" + t.text());
+			if( isRelativePath(text) )
+				return new WildcardQuery(Field.FILE.createTerm("/*/" + text + "/*"));
 			
-			return new WildcardQuery(fileTerm);
+			return new WildcardQuery(Field.DIR.createTerm(text));
 		}
 		
 		return super.visit(wildcardQuery, field);
 	}
 	
+	private static String getFolder(String text)
+	{
+		if( text.length() > 1 && text.endsWith("/") )
+			return text.substring(0, text.length() - 1);
+		
+		return text;
+	}
 	
+	/**
+	 * @return true if the text has several folders but is not absolute (eg. src/pkg)
+	 */
+	private static boolean isRelativePath(String text)
+	{
+		return !text.startsWith("/") && text.indexOf('/') != -1;
+	}
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing.querying;
+
+import it.unibz.instasearch.indexing.TermGramIndex;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.FilteredTermEnum;
+import org.apache.lucene.search.WildcardQuery;
+
+/**
+ * Wildcard query that finds the matching terms with the {@link TermGramIndex}
+ * instead of scanning the term dictionary, eg. for *term* that has no prefix to start the scan from.
+ * Patterns without enough characters between wildcards are matched as by WildcardQuery
+ */
+public class GramWildcardQuery extends WildcardQuery {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param term with * and ? wildcards
+	 */
+	public GramWildcardQuery(Term term) {
+		super(term);
+	}
+	
+	@Override
+	protected FilteredTermEnum getEnum(IndexReader reader) throws IOException {
+		
+		TermEnum matchingTerms = TermGramIndex.getMatchingTerms(reader, getTerm());
+		
+		if( matchingTerms == null ) // no grams in the pattern
+			return super.getEnum(reader);
+		
+		return new MatchingTermEnum(matchingTerms);
+	}
+	
+	/**
+	 * Terms that are already matched
+	 */
+	private static class MatchingTermEnum extends FilteredTermEnum
+	{
+		MatchingTermEnum(TermEnum matchingTerms) throws IOException {
+			setEnum(matchingTerms);
+		}
+		
+		@Override
+		protected boolean termCompare(Term term) {
+			return true;
+		}
+		
+		@Override
+		public float difference() {
+			return 1.0f;
+		}
+		
+		@Override
+		protected boolean endEnum() {
+			return false;
+		}
+	}
+}
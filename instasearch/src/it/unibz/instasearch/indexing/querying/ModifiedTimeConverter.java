@@ -12,6 +12,7 @@
 package it.unibz.instasearch.indexing.querying;
 
 import it.unibz.instasearch.indexing.Field;
+import it.unibz.instasearch.indexing.StorageIndexer;
 
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -21,9 +22,9 @@ import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.math.NumberUtils;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.NumericRangeQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
-import org.apache.lucene.search.TermRangeQuery;
 
 /**
  * Replaces named modified field values with millisecond range queries
@@ -116,10 +117,20 @@ public class ModifiedTimeConverter extends QueryVisitor {
 			start = end - multiplier * interval.millis;
 		}
 		
-		String field = Field.MODIFIED.name().toLowerCase(Locale.ENGLISH);
-		//NumericRangeQuery rangeQuery = NumericRangeQuery.newLongRange(field, start, end, true, true);
-		
-		return new TermRangeQuery(field, "" + start, "" + end, true, true);
+		return createRangeQuery(start, end);
+	}
+	
+	/**
+	 * Creates a query of files modified in the interval.
+	 * It visits a few trie terms of the numeric field, independent of how many distinct times are indexed
+	 * 
+	 * @param start milliseconds, inclusive
+	 * @param end milliseconds, inclusive
+	 * @return range query of the modified field
+	 */
+	public static Query createRangeQuery(long start, long end)
+	{
+		return NumericRangeQuery.newLongRange(Field.MODIFIED.toString(), StorageIndexer.MODIFIED_PRECISION_STEP, start, end, true, true);
 	}
 	
 	private static Interval getIntervalByName(String intervalName)
@@ -17,7 +17,6 @@ import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.search.FuzzyQuery;
 import org.apache.lucene.search.PhraseQuery;
 import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
@@ -44,10 +43,10 @@ public class QueryFuzzifier extends QueryVisitor {
 		prefixQuery.setBoost( termQuery.getBoost() );
 		
 		Term wildcardTerm = Field.CONTENTS.createTerm("*" + term.text() + "*");
-		WildcardQuery wildcardQuery = new WildcardQuery(wildcardTerm);
+		WildcardQuery wildcardQuery = new GramWildcardQuery(wildcardTerm); // looks up the terms by grams instead of scanning all
 		wildcardQuery.setBoost( termQuery.getBoost() * 0.75f );
 		
-		FuzzyQuery fuzzyQuery = new FuzzyQuery( term );
+		BoundedFuzzyQuery fuzzyQuery = new BoundedFuzzyQuery( term ); // expands to a limited number of terms
 		fuzzyQuery.setBoost( termQuery.getBoost() * 0.5f );
 		
 		BooleanQuery boolQuery = new BooleanQuery();
@@ -69,7 +68,7 @@ public class QueryFuzzifier extends QueryVisitor {
 			if( f != Field.CONTENTS )
 				return phraseQuery;
 			
-			bq.add(new FuzzyQuery(t), Occur.SHOULD);
+			bq.add(new BoundedFuzzyQuery(t), Occur.SHOULD);
 		}
 		
 		return bq;
@@ -44,7 +44,7 @@ public class UppercaseNameExpander extends QueryVisitor {
 			String wcText = text.replaceAll("([A-Z][a-z0-9_]*)", "$1*");
 			
 			Term wcTerm = Field.NAME.createTerm(wcText);
-			WildcardQuery wcQuery = new WildcardQuery(wcTerm);
+			WildcardQuery wcQuery = new GramWildcardQuery(wcTerm); // eg. Abs*B*C* is looked up by the grams of Abs
 			wcQuery.setBoost( termQuery.getBoost()/2f );
 			bq.add(wcQuery, Occur.SHOULD);
 			
@@ -24,12 +24,20 @@ public class CamelCaseTokenizer extends TermSplitTokenizer {
 	}
 	
 	@Override
-	public String[] splitTerm(String term) {
+	protected boolean isSeparator(char c) {
+		return c == '_'; // will also split CONSTANT_NAMES
+	}
+	
+	@Override
+	protected boolean isBoundary(char[] term, int index, int length) {
+		
+		char c = term[index];
 		
-		String newWord = term.replaceAll("([A-Z][a-z])", "_$1"); // not ideal, but short
-		newWord = newWord.replaceAll("([a-z])([A-Z])", "$1_$2"); 
+		if( !isUpperCase(c) )
+			return false;
 		
-		return newWord.split("[_]"); // will also split CONSTANT_NAMES 
+		return isLowerCase(term[index-1]) // camelCase
+			|| (index+1 < length && isLowerCase(term[index+1])); // HTTPResponse
 	}
 
 	@Override
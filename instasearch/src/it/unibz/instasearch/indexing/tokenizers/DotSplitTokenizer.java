@@ -27,9 +27,8 @@ public class DotSplitTokenizer extends TermSplitTokenizer {
 	}
 
 	@Override
-	public String[] splitTerm(String term) {
-		String[] parts = term.split("[.-]");
-		return parts;
+	protected boolean isSeparator(char c) {
+		return c == '.' || c == '-';
 	}
 	
 	@Override
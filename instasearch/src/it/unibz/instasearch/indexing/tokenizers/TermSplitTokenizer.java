@@ -12,9 +12,7 @@
 package it.unibz.instasearch.indexing.tokenizers;
 
 import java.io.IOException;
-import java.util.LinkedList;
 
-import org.apache.lucene.analysis.Token;
 import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
@@ -22,11 +20,22 @@ import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 import org.apache.lucene.analysis.tokenattributes.TermAttribute;
 
 /**
- * Splits terms. Returns the original term and its split parts 
+ * Splits terms. Returns the original term and its split parts.
+ * <p>
+ * Terms are split in a single pass over the term buffer. The parts are kept as start/end indexes
+ * into a copy of the term, so no strings or tokens are created per term
  */
 public abstract class TermSplitTokenizer extends TokenFilter {
 
-	private LinkedList<Token> tokens = new LinkedList<Token>();
+	private static final int INITIAL_CAPACITY = 16;
+
+	private char[] term = new char[INITIAL_CAPACITY];
+	private int termOffset;
+	
+	private int[] partStarts = new int[INITIAL_CAPACITY];
+	private int[] partEnds = new int[INITIAL_CAPACITY];
+	private int partCount = 0;
+	private int nextPart = 0;
 	
 	private TermAttribute termAtt;
 	private OffsetAttribute offsetAtt;
@@ -47,18 +56,18 @@ public abstract class TermSplitTokenizer extends TokenFilter {
 	@Override
 	public boolean incrementToken() throws IOException
 	{
-		if( !tokens.isEmpty() )
+		if( nextPart < partCount )
 		{
-			applyToken(tokens.removeFirst());
+			applyPart(nextPart++);
 		}
 		else if( input.incrementToken() )
 		{
-			splitIntoTokens();
+			splitIntoParts();
 			
-			if( !tokens.isEmpty() )
+			if( nextPart < partCount )
 			{
 				if( ! returnOriginalTerm() )
-					applyToken( tokens.removeFirst() );
+					applyPart(nextPart++);
 			}
 		}
 		else
@@ -69,34 +78,78 @@ public abstract class TermSplitTokenizer extends TokenFilter {
 		return true;
 	}
 
-	private void splitIntoTokens()
+	@Override
+	public void reset() throws IOException
 	{
-		String term = termAtt.term();
-		String[] termParts = splitTerm(term);
+		super.reset();
+		partCount = nextPart = 0; // in case the previous stream was not consumed
+	}
 
-		if(termParts.length > 1)
+	private void splitIntoParts()
+	{
+		char[] buffer = termAtt.termBuffer();
+		int length = termAtt.termLength();
+		
+		partCount = nextPart = 0;
+		int partStart = 0;
+		
+		for(int i = 0; i < length; i++)
 		{
-			int termPos = offsetAtt.startOffset();
-			
-			for (int i = 0; i < termParts.length; i++) 
+			if( isSeparator(buffer[i]) )
 			{
-				String termPart = termParts[i];
-				int termPartPos = termPos + term.indexOf(termPart);
-				int termPartEndPos = termPartPos + termPart.length();
-
-				Token newToken = new Token(termPart, termPartPos, termPartEndPos);
-				newToken.setPositionIncrement(0); // in the same position
-
-				tokens.add( newToken );
+				addPart(partStart, i);
+				partStart = i + 1;
 			}
+			else if( i > partStart && isBoundary(buffer, i, length) )
+			{
+				addPart(partStart, i);
+				partStart = i;
+			}
+		}
+		
+		addPart(partStart, length);
+		
+		if( partCount == 1 && partStarts[0] == 0 && partEnds[0] == length )
+			partCount = 0; // nothing to split
+		
+		if( partCount == 0 )
+			return;
+		
+		if( term.length < length )
+			term = new char[termAtt.termBuffer().length];
+		
+		System.arraycopy(buffer, 0, term, 0, length);
+		termOffset = offsetAtt.startOffset();
+	}
+	
+	private void addPart(int start, int end)
+	{
+		if( start == end )
+			return; // empty
+		
+		if( partCount == partStarts.length )
+		{
+			int[] starts = new int[partCount * 2];
+			int[] ends = new int[partCount * 2];
+			System.arraycopy(partStarts, 0, starts, 0, partCount);
+			System.arraycopy(partEnds, 0, ends, 0, partCount);
+			partStarts = starts;
+			partEnds = ends;
 		}
+		
+		partStarts[partCount] = start;
+		partEnds[partCount] = end;
+		partCount++;
 	}
 
-	private void applyToken(Token token)
+	private void applyPart(int part)
 	{
-		termAtt.setTermBuffer(token.termBuffer(), 0, token.termLength());
-		posAtt.setPositionIncrement(token.getPositionIncrement());
-		offsetAtt.setOffset(token.startOffset(), token.endOffset());
+		int start = partStarts[part];
+		int end = partEnds[part];
+		
+		termAtt.setTermBuffer(term, start, end - start);
+		posAtt.setPositionIncrement(0); // in the same position
+		offsetAtt.setOffset(termOffset + start, termOffset + end);
 	}
 
 	/**
@@ -109,10 +162,33 @@ public abstract class TermSplitTokenizer extends TokenFilter {
 	}
 	
 	/**
-	 * Split term into an array of terms
+	 * Separators are not included in the parts
+	 * 
+	 * @param c
+	 * @return true if the term should be split at this character
+	 */
+	protected abstract boolean isSeparator(char c);
+	
+	/**
+	 * Split the term before the character at index, without dropping it 
 	 * 
-	 * @param term
-	 * @return split term
+	 * @param term term buffer
+	 * @param index index of the character, greater than 0
+	 * @param length term length
+	 * @return true if a new part starts at index
 	 */
-	public abstract String[] splitTerm(String term);
+	protected boolean isBoundary(char[] term, int index, int length)
+	{
+		return false;
+	}
+	
+	protected static boolean isUpperCase(char c)
+	{
+		return c >= 'A' && c <= 'Z';
+	}
+	
+	protected static boolean isLowerCase(char c)
+	{
+		return c >= 'a' && c <= 'z';
+	}
 }
@@ -27,9 +27,11 @@ public class WordSplitTokenizer extends TermSplitTokenizer {
 	}
 	
 	@Override
-	public String[] splitTerm(String term) 
+	protected boolean isSeparator(char c) 
 	{
-		return term.split("[^A-Za-z0-9\u00E0-\u00FF_'.-]"); //"\\W" or "[^A-Za-z0-9'\u00E0-\u00FF]"
+		// not [A-Za-z0-9\u00E0-\u00FF_'.-]
+		return !( isLowerCase(c) || isUpperCase(c) || (c >= '0' && c <= '9') || (c >= '\u00E0' && c <= '\u00FF') 
+				|| c == '_' || c == '\'' || c == '.' || c == '-' );
 	}
 	
 }
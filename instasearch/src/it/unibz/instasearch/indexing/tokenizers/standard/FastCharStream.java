@@ -38,6 +38,15 @@ public final class FastCharStream implements CharStream {
     input = r;
   }
 
+  /** Starts reading from another Reader, keeping the buffer. */
+  public final void reset(Reader r) {
+    input = r;
+    bufferLength = 0;
+    bufferPosition = 0;
+    tokenStart = 0;
+    bufferStart = 0;
+  }
+
   public final char readChar() throws IOException {
     if (bufferPosition >= bufferLength)
       refill();
@@ -26,6 +26,14 @@ public class StandardTokenizer extends org.apache.lucene.analysis.Tokenizer impl
     this.input = reader;
   }
 
+  /** Resets the tokenizer to read from a new Reader, reusing its buffers. */
+  public void reset(java.io.Reader reader) throws java.io.IOException {
+    super.reset(reader);
+    FastCharStream stream = (FastCharStream) token_source.input_stream;
+    stream.reset(reader);
+    ReInit(stream);
+  }
+
 /** Returns the next token in the stream, or null at EOS.
  * <p>The returned token's type is set to an element of {@link
  * StandardTokenizerConstants#tokenImage}.
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.jobs;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Counts pending changes per group (eg. project) and detects change storms,
+ * such as a checkout or a refresh that changes thousands of files at once.
+ * A group in a storm is updated as a whole, so its single changes no longer need to be kept
+ *
+ * @param <G> group of changes
+ */
+public class ChangeStormDetector<G>
+{
+	private int threshold;
+	private Map<G, Integer> changeCounts = new HashMap<G, Integer>();
+	private Set<G> stormGroups = new HashSet<G>();
+
+	/**
+	 * @param threshold number of pending changes in a group above which the group is in a storm
+	 */
+	public ChangeStormDetector(int threshold)
+	{
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Counts a new pending change
+	 *
+	 * @param group
+	 * @return true if the group has just exceeded the threshold
+	 */
+	public synchronized boolean changed(G group)
+	{
+		if( stormGroups.contains(group) )
+			return false;
+
+		Integer count = changeCounts.get(group);
+		count = (count == null) ? 1 : count + 1;
+
+		if( count <= threshold )
+		{
+			changeCounts.put(group, count);
+			return false;
+		}
+
+		changeCounts.remove(group);
+		stormGroups.add(group);
+
+		return true;
+	}
+
+	/**
+	 * @param group
+	 * @return true if the group is updated as a whole
+	 */
+	public synchronized boolean isStorm(G group)
+	{
+		return stormGroups.contains(group);
+	}
+
+	/**
+	 * Forgets all pending changes (eg. when they are being indexed)
+	 */
+	public synchronized void clear()
+	{
+		changeCounts.clear();
+		stormGroups.clear();
+	}
+
+	/**
+	 * @param threshold number of pending changes in a group above which the group is in a storm
+	 */
+	public synchronized void setThreshold(int threshold)
+	{
+		this.threshold = threshold;
+	}
+}
@@ -13,6 +13,7 @@ package it.unibz.instasearch.jobs;
 
 import it.unibz.instasearch.InstaSearchPlugin;
 import it.unibz.instasearch.actions.ShowExceptionAction;
+import it.unibz.instasearch.indexing.IndexWriterSession;
 import it.unibz.instasearch.indexing.WorkspaceIndexer;
 import it.unibz.instasearch.indexing.StorageIndexer.IndexChangeListener;
 import it.unibz.instasearch.prefs.PreferenceConstants;
@@ -20,12 +21,18 @@ import it.unibz.instasearch.ui.InstaSearchUI;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceChangeEvent;
 import org.eclipse.core.resources.IResourceChangeListener;
@@ -47,15 +54,22 @@ import org.osgi.framework.BundleEvent;
 import org.osgi.framework.SynchronousBundleListener;
 
 /**
- * Workspace job that periodically updates the index
+ * Workspace job that updates the index with changed files.
+ * It is scheduled by resource changes after a short quiet time (see {@link UpdateDebouncer}) and doesn't run while there are no changes
  */
 public class IndexUpdateJob extends WorkspaceJob implements SynchronousBundleListener, IResourceChangeListener, IPropertyChangeListener {
 	
 	private WorkspaceIndexer indexer;
 	private IndexChangeListener indexChangeListener;
 	
-	private Map<IResource, Integer> changedResources = new ConcurrentHashMap<IResource, Integer>(); // changed by several threads
+	private ConcurrentMap<IResource, Long> changedResources = new ConcurrentHashMap<IResource, Long>(); // changed by several threads. time of first change
 	private boolean searchViewVisible = false;
+	
+	private UpdateDebouncer debouncer = new UpdateDebouncer(UpdateDebouncer.DEFAULT_QUIET_TIME, 
+			InstaSearchPlugin.getIntPref(PreferenceConstants.P_INDEX_UPDATE_MAX_DELAY));
+	private LatencyHistogram changeLatency = new LatencyHistogram("Change to searchable latency");
+	private ChangeStormDetector<IProject> stormDetector = new ChangeStormDetector<IProject>(
+			InstaSearchPlugin.getIntPref(PreferenceConstants.P_CHANGE_STORM_THRESHOLD));
 
 	/**
 	 * @param indexer
@@ -92,8 +106,12 @@ public class IndexUpdateJob extends WorkspaceJob implements SynchronousBundleLis
 				if( event.getType() == IResourceChangeEvent.POST_CHANGE )
 				{
 					IResourceDelta delta = event.getDelta();
+					int changedCount = changedResources.size();
+					
+					delta.accept(createResourceVisitor(System.currentTimeMillis()), false);
 					
-					delta.accept(createResourceVisitor(), false);
+					if( changedResources.size() != changedCount )
+						scheduleUpdate();
 				}
 				//else if( event.getResource().getType() == IResource.PROJECT ) // CLOSE,DELETE,REFRESH events for project
 				//changedResources.put( event.getResource(), 0 ); 
@@ -103,7 +121,7 @@ public class IndexUpdateJob extends WorkspaceJob implements SynchronousBundleLis
 		}
 	}
 	
-	private IResourceDeltaVisitor createResourceVisitor()
+	private IResourceDeltaVisitor createResourceVisitor(final long changeTime)
 	{
 		return new IResourceDeltaVisitor() 
 		{
@@ -111,18 +129,21 @@ public class IndexUpdateJob extends WorkspaceJob implements SynchronousBundleLis
 			{
 				IResource resource = delta.getResource();
 
+				if( resource.getType() == IResource.PROJECT && stormDetector.isStorm((IProject) resource) )
+					return false; // whole project is updated
+				
 				if( resource.getType() == IResource.FILE  )
 				{
 					IFile file = (IFile) resource;
 
 					if( indexer.isIndexable(file) ) {
-						changedResources.put( file, file.getType());
+						addChange(file, changeTime);
 					}
 
 				}
 				else if( resource.getType() == IResource.FOLDER ) {
 					if( delta.getFlags() == IResourceDelta.DERIVED_CHANGED ) { // we must skip derived resources
-						changedResources.put( resource, resource.getType() );
+						addChange(resource, changeTime);
 					}
 				}
 
@@ -134,6 +155,63 @@ public class IndexUpdateJob extends WorkspaceJob implements SynchronousBundleLis
 		};
 	}
 	
+	/**
+	 * Adds a pending change. When a project has more changes than the storm threshold, 
+	 * its changes are replaced by the project, which is then updated as a whole.
+	 * This also bounds the number of pending changes per project
+	 * 
+	 * @param resource
+	 * @param changeTime
+	 */
+	private void addChange(IResource resource, long changeTime)
+	{
+		IProject project = resource.getProject();
+		
+		if( stormDetector.isStorm(project) )
+			return;
+		
+		if( changedResources.putIfAbsent(resource, changeTime) != null )
+			return; // already pending
+		
+		if( !stormDetector.changed(project) )
+			return;
+		
+		long firstChangeTime = changeTime;
+		
+		for(Iterator<Entry<IResource, Long>> it = changedResources.entrySet().iterator(); it.hasNext(); )
+		{
+			Entry<IResource, Long> change = it.next();
+			
+			if( project.equals(change.getKey().getProject()) ) {
+				firstChangeTime = Math.min(firstChangeTime, change.getValue());
+				it.remove();
+			}
+		}
+		
+		changedResources.putIfAbsent(project, firstChangeTime);
+		
+		InstaSearchPlugin.debug("Change storm in " + project.getName() + ", re-indexing the project");
+	}
+	
+	/**
+	 * Schedules the update after the delay given by the debouncer
+	 */
+	private void scheduleUpdate()
+	{
+		if( !InstaSearchPlugin.getBoolPref(PreferenceConstants.P_INDEX_UPDATE_ENABLED) )
+			return;
+		
+		debouncer.schedule(this, System.currentTimeMillis()); // delays the job if already waiting
+	}
+	
+	/**
+	 * @return latencies from a file change until the change is searchable
+	 */
+	public LatencyHistogram getChangeLatency()
+	{
+		return changeLatency;
+	}
+	
 	public void bundleChanged(BundleEvent event)
 	{
 		if( event.getType() == BundleEvent.STOPPING || event.getType() == BundleEvent.STOPPED ) {
@@ -157,11 +235,10 @@ public class IndexUpdateJob extends WorkspaceJob implements SynchronousBundleLis
 		if( InstaSearchPlugin.getDefault() == null || monitor.isCanceled() ) // no plugin (stopped)
 			return Status.CANCEL_STATUS;
 		
-		int indexUpdateInterval = InstaSearchPlugin.getIntPref(PreferenceConstants.P_INDEX_UPDATE_INTERVAL);
 		boolean indexUpdateEnabled = InstaSearchPlugin.getBoolPref(PreferenceConstants.P_INDEX_UPDATE_ENABLED);
 		
 		if (!indexUpdateEnabled){
-			return Status.CANCEL_STATUS;
+			return Status.CANCEL_STATUS; // changes stay pending until enabled
 		}
 		
 		boolean indexed = false;
@@ -172,37 +249,36 @@ public class IndexUpdateJob extends WorkspaceJob implements SynchronousBundleLis
 			InstaSearchPlugin.log(e1);
 		}
 		
-		if((!indexed || changedResources.isEmpty()) && !monitor.isCanceled()) { // not indexed or still indexing
-			schedule(indexUpdateInterval); // check later
+		if( !indexed ) { // still indexing, the indexing job includes the changes
+			changedResources.clear();
+			debouncer.clear();
+			stormDetector.clear();
 			return Status.CANCEL_STATUS;
 		}
 		
-		monitor.beginTask("Updating Search Index", changedResources.size());
+		if( changedResources.isEmpty() )
+			return Status.OK_STATUS;
+		
+		debouncer.clear();
+		stormDetector.clear();
+		Map<IResource, Long> changes = takeChangedResources(); // changes arriving from now on schedule the next update
+		
+		monitor.beginTask("Updating Search Index", changes.size());
 		IStatus returnStatus = Status.OK_STATUS;
+		boolean failed = false;
 		
 		try
 		{
-			for (Iterator<IResource> iterator = changedResources.keySet().iterator(); 
-									iterator.hasNext() && !monitor.isCanceled();)
-			{
-				IResource resource = iterator.next();
-				monitor.subTask(resource.getName());
-				
-				if( resource.getType() == IResource.FILE )
-					indexer.updateFile( (IFile)resource );
-				else if( resource.getType() == IResource.FOLDER ) {
-					indexer.updateFolder( (IFolder)resource, monitor );
-				}
-				//else if( resource.getType() == IResource.PROJECT )
-				//	indexer.updateProject((IProject)resource);
-				
-				iterator.remove();
-				
-				monitor.worked(1);
-			}
+			List<Long> changeTimes = updateChangedResources(changes, monitor);
 			
 			indexChangeListener.onIndexUpdate();
 			
+			long searchableTime = System.currentTimeMillis();
+			for(long changeTime: changeTimes)
+				changeLatency.record(searchableTime - changeTime);
+			
+			InstaSearchPlugin.debug(changeLatency);
+			
 			PlatformUI.getWorkbench().getDisplay().syncExec(new Runnable() {
 				public void run() { 
 					searchViewVisible = InstaSearchUI.isSearchViewVisible(); // must run in UI thread, but this job isn't
@@ -210,10 +286,11 @@ public class IndexUpdateJob extends WorkspaceJob implements SynchronousBundleLis
 			});
 			
 			if( ! searchViewVisible ) { // don't optimize when might be searching
-				indexer.optimizeIndex(); 
+				indexer.optimizeIndexIfNeeded(); // segments are merged in the background, optimize only if many deletions
 			}
 			
 			monitor.done();
+			debouncer.succeeded();
 			
 		} catch (Exception e) {
 			monitor.beginTask("Exception", 1);
@@ -222,15 +299,103 @@ public class IndexUpdateJob extends WorkspaceJob implements SynchronousBundleLis
 			InstaSearchPlugin.log(e);
 			
 			returnStatus = Status.CANCEL_STATUS;
+			failed = true;
 		}
 		
-		if((!monitor.isCanceled() ) && (indexUpdateEnabled)){
-			schedule(indexUpdateInterval);
-		}
+		for(Entry<IResource, Long> change: changes.entrySet()) // not updated (canceled or failed)
+			changedResources.putIfAbsent(change.getKey(), change.getValue());
+		
+		if( failed && !monitor.isCanceled() )
+			schedule(debouncer.failed()); // retry the failed changes, waiting longer after each failure
+		else if( !changedResources.isEmpty() && !monitor.isCanceled() && returnStatus.isOK() )
+			scheduleUpdate(); // changed while updating
 		
 		return returnStatus;
 	}
 
+	/**
+	 * Removes the pending changes from changedResources
+	 * 
+	 * @return the changes
+	 */
+	private Map<IResource, Long> takeChangedResources()
+	{
+		Map<IResource, Long> changes = new HashMap<IResource, Long>();
+		
+		for(Entry<IResource, Long> change: changedResources.entrySet())
+		{
+			if( changedResources.remove(change.getKey(), change.getValue()) )
+				changes.put(change.getKey(), change.getValue());
+		}
+		
+		return changes;
+	}
+
+	/**
+	 * Updates changed resources using one writer session for the whole batch (single commit).
+	 * Projects in a change storm are re-indexed as a whole before that.
+	 * Updated resources are removed from the changes
+	 * 
+	 * @param changes resources and the times they changed
+	 * @param monitor
+	 * @return change times of the updated resources
+	 * @throws Exception
+	 */
+	private List<Long> updateChangedResources(Map<IResource, Long> changes, IProgressMonitor monitor) throws Exception
+	{
+		List<Long> changeTimes = new ArrayList<Long>(changes.size());
+		
+		for(IResource resource: new ArrayList<IResource>(changes.keySet()))
+		{
+			if( resource.getType() != IResource.PROJECT || monitor.isCanceled() )
+				continue;
+			
+			monitor.subTask(resource.getName());
+			indexer.updateProject((IProject) resource, monitor); // own writer, before the session takes the write lock
+			
+			if( monitor.isCanceled() )
+				break; // partially indexed, stays pending
+			
+			changeTimes.add(changes.remove(resource));
+			monitor.worked(1);
+		}
+		
+		IndexWriterSession session = indexer.openSession();
+		List<IResource> updated = new ArrayList<IResource>(changes.size());
+		
+		try
+		{
+			for(IResource resource: changes.keySet())
+			{
+				if( monitor.isCanceled() )
+					break;
+				
+				monitor.subTask(resource.getName());
+				
+				if( resource.getType() == IResource.FILE )
+					indexer.updateFile( session, (IFile)resource );
+				else if( resource.getType() == IResource.FOLDER ) {
+					indexer.updateFolder( session, (IFolder)resource, monitor );
+				}
+				else
+					continue; // project not updated, canceled
+				
+				updated.add(resource);
+				
+				monitor.worked(1);
+			}
+		}
+		finally
+		{
+			session.close(); // commit once
+		}
+		
+		for(IResource resource: updated) // committed
+			changeTimes.add(changes.remove(resource));
+		
+		return changeTimes;
+	}
+
 	public void propertyChange(PropertyChangeEvent event) {
 		String prop = event.getProperty();
 		
@@ -255,17 +420,21 @@ public class IndexUpdateJob extends WorkspaceJob implements SynchronousBundleLis
 				
 				IResource res = root.findMember(path);
 				if( res != null )
-					changedResources.put(res, res.getType());// mark excluded as changed for re-indexing
+					changedResources.putIfAbsent(res, System.currentTimeMillis());// mark excluded as changed for re-indexing
 			}
+			
+			if( !changedResources.isEmpty() )
+				scheduleUpdate();
 		}else if (PreferenceConstants.P_INDEX_UPDATE_ENABLED.equals(prop)){
 			boolean enableFlag = (Boolean)event.getNewValue();
 		
-			if (enableFlag) {
-				int indexUpdateInterval = InstaSearchPlugin.getIntPref(PreferenceConstants.P_INDEX_UPDATE_INTERVAL);
-				// cancel and reschedule job 
-				cancel();
-				schedule(indexUpdateInterval);
+			if (enableFlag && !changedResources.isEmpty()) {
+				scheduleUpdate(); // changes made while disabled
 			}
+		}else if (PreferenceConstants.P_CHANGE_STORM_THRESHOLD.equals(prop)){
+			stormDetector.setThreshold(InstaSearchPlugin.getIntPref(PreferenceConstants.P_CHANGE_STORM_THRESHOLD));
+		}else if (PreferenceConstants.P_INDEX_UPDATE_MAX_DELAY.equals(prop)){
+			debouncer.setMaxDelay(InstaSearchPlugin.getIntPref(PreferenceConstants.P_INDEX_UPDATE_MAX_DELAY));
 		}
 	}
 		
@@ -25,6 +25,7 @@ import org.eclipse.ui.progress.IProgressConstants;
 public class IndexingJob extends WorkspaceJob {
 
 	private WorkspaceIndexer indexer;
+	private boolean reconcile = false;
 	
 	public IndexingJob(WorkspaceIndexer indexer) {
 		super("InstaSearch Indexing");
@@ -38,12 +39,22 @@ public class IndexingJob extends WorkspaceJob {
 		setProperty(IProgressConstants.NO_IMMEDIATE_ERROR_PROMPT_PROPERTY, Boolean.TRUE);
 	}
 
+	/**
+	 * @param reconcile only update the files that changed since the index was last updated, instead of rebuilding it
+	 */
+	public void setReconcile(boolean reconcile) {
+		this.reconcile = reconcile;
+	}
+
 	@Override
 	public IStatus runInWorkspace(IProgressMonitor monitor) throws CoreException 
 	{	
 		try 
 		{
-			indexer.createIndex(InstaSearchPlugin.getWorkspaceRoot(), monitor);
+			if( reconcile )
+				indexer.reconcileIndex(InstaSearchPlugin.getWorkspaceRoot(), monitor);
+			else
+				indexer.createIndex(InstaSearchPlugin.getWorkspaceRoot(), monitor);
 			
 		} catch (Exception e) {
 			
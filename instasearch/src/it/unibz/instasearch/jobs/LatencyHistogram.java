@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.jobs;
+
+/**
+ * Counts latencies in buckets of increasing size.
+ * Used to report the time from a file change until it is searchable
+ */
+public class LatencyHistogram
+{
+	/** Upper bounds of the buckets (ms). The last bucket has no upper bound */
+	private static final long[] BUCKET_BOUNDS = {100, 250, 500, 1000, 2000, 5000, 10000, 30000, 60000};
+
+	private String name;
+	private long[] counts = new long[BUCKET_BOUNDS.length + 1];
+	private long totalCount = 0;
+	private long maxLatency = 0;
+
+	/**
+	 * @param name
+	 */
+	public LatencyHistogram(String name)
+	{
+		this.name = name;
+	}
+
+	/**
+	 * @param latency in ms
+	 */
+	public synchronized void record(long latency)
+	{
+		int bucket = 0;
+
+		while( bucket < BUCKET_BOUNDS.length && latency > BUCKET_BOUNDS[bucket] )
+			bucket++;
+
+		counts[bucket]++;
+		totalCount++;
+		maxLatency = Math.max(maxLatency, latency);
+	}
+
+	/**
+	 * @return number of recorded latencies
+	 */
+	public synchronized long getCount()
+	{
+		return totalCount;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return upper bound of the bucket that contains the percentile (ms) or the maximum latency for the last bucket
+	 */
+	public synchronized long getPercentile(double percentile)
+	{
+		long count = 0;
+		long target = (long) Math.ceil(totalCount * percentile / 100);
+
+		for(int bucket = 0; bucket < BUCKET_BOUNDS.length; bucket++)
+		{
+			count += counts[bucket];
+
+			if( count >= target )
+				return Math.min(BUCKET_BOUNDS[bucket], maxLatency);
+		}
+
+		return maxLatency;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		StringBuilder sb = new StringBuilder(name);
+		sb.append(" (").append(totalCount).append("): ");
+
+		for(int bucket = 0; bucket < counts.length; bucket++)
+		{
+			if( counts[bucket] == 0 )
+				continue;
+
+			if( bucket < BUCKET_BOUNDS.length )
+				sb.append("<=").append(BUCKET_BOUNDS[bucket]);
+			else
+				sb.append(">").append(BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1]);
+
+			sb.append("ms ").append(counts[bucket]).append(", ");
+		}
+
+		sb.append("p50 ").append(getPercentile(50)).append("ms, p95 ").append(getPercentile(95)).append("ms");
+
+		return sb.toString();
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.jobs;
+
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Decides when pending changes should be indexed.
+ * The update runs after a quiet time without changes (eg. while saving several files),
+ * but no later than the maximum delay after the first pending change, so that continuous changes
+ * (eg. a long build writing files) are still indexed regularly
+ */
+public class UpdateDebouncer
+{
+	/** Default time without changes after which the update runs (ms) */
+	public static final long DEFAULT_QUIET_TIME = 500;
+	/** Delay of the first retry after a failed update (ms), doubled after each further failure */
+	public static final long RETRY_DELAY = 1000;
+	/** Maximum delay of a retry (ms) */
+	public static final long MAX_RETRY_DELAY = 60000;
+
+	private long quietTime;
+	private long maxDelay;
+
+	private long firstChangeTime = -1;
+	private long lastChangeTime = -1;
+	private int failures = 0;
+
+	/**
+	 * @param quietTime time without changes after which the update runs (ms)
+	 * @param maxDelay maximum time from the first pending change to the update (ms)
+	 */
+	public UpdateDebouncer(long quietTime, long maxDelay)
+	{
+		this.quietTime = quietTime;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Records a change
+	 *
+	 * @param time of the change
+	 * @return delay after which the update should run
+	 */
+	public synchronized long changed(long time)
+	{
+		if( firstChangeTime == -1 )
+			firstChangeTime = time;
+
+		lastChangeTime = time;
+
+		return getDelay(time);
+	}
+
+	/**
+	 * Records a change and (re)schedules the job after the resulting delay.
+	 * Job.schedule(delay) does nothing if the job is already waiting, 
+	 * so a waiting job is put to sleep and woken up with the new delay instead
+	 * 
+	 * @param job to run the update
+	 * @param time of the change
+	 */
+	public void schedule(Job job, long time)
+	{
+		long delay = changed(time);
+		
+		if( job.getState() == Job.WAITING && job.sleep() )
+			job.wakeUp(delay); // slides the start time
+		else
+			job.schedule(delay); // if running, runs again after it finishes
+	}
+
+	/**
+	 * @param now
+	 * @return delay after which the update should run or -1 if there are no pending changes
+	 */
+	public synchronized long getDelay(long now)
+	{
+		if( firstChangeTime == -1 )
+			return -1;
+
+		long updateTime = Math.min(lastChangeTime + quietTime, firstChangeTime + Math.max(quietTime, maxDelay));
+
+		return Math.max(0, updateTime - now);
+	}
+
+	/**
+	 * Called when the update takes the pending changes. Changes recorded afterwards are pending again
+	 */
+	public synchronized void clear()
+	{
+		firstChangeTime = -1;
+		lastChangeTime = -1;
+	}
+
+	/**
+	 * Records a failed update
+	 *
+	 * @return delay after which the update should be retried
+	 */
+	public synchronized long failed()
+	{
+		long delay = RETRY_DELAY << Math.min(failures, 16);
+		failures++;
+
+		return Math.min(delay, MAX_RETRY_DELAY);
+	}
+
+	/**
+	 * Records a successful update, the next failure is retried after {@link #RETRY_DELAY}
+	 */
+	public synchronized void succeeded()
+	{
+		failures = 0;
+	}
+
+	/**
+	 * @param maxDelay maximum time from the first pending change to the update (ms)
+	 */
+	public synchronized void setMaxDelay(long maxDelay)
+	{
+		this.maxDelay = maxDelay;
+	}
+}
@@ -52,7 +52,7 @@ public class InstaSearchPreferencePage
 	public static final String ID = InstaSearchPreferencePage.class.getName();
 	
 	private BooleanFieldEditor periodicReindexEnabled;
-	private IntegerFieldEditor periodicReindexInterval;
+	private IntegerFieldEditor reindexMaxDelay;
 	
 	public InstaSearchPreferencePage() {
 		super(GRID);
@@ -98,10 +98,25 @@ public class InstaSearchPreferencePage
 		addBoolField(PreferenceConstants.P_FUZZY_SEARCH_AUTO, "Find similar matches when no exact matches found");
 		
 		periodicReindexEnabled = addBoolField(PreferenceConstants.P_INDEX_UPDATE_ENABLED, "Enable Automatic-Reindex");
-		periodicReindexInterval =  new IntegerFieldEditor(PreferenceConstants.P_INDEX_UPDATE_INTERVAL, "Automatic Reindex interval (ms)",
+		reindexMaxDelay =  new IntegerFieldEditor(PreferenceConstants.P_INDEX_UPDATE_MAX_DELAY, "Automatic Reindex maximum delay (ms)",
 																												getFieldEditorParent());
-		periodicReindexInterval.setValidRange(0, Integer.MAX_VALUE);
-		addField(periodicReindexInterval);
+		reindexMaxDelay.setValidRange(0, Integer.MAX_VALUE);
+		addField(reindexMaxDelay);
+		
+		IntegerFieldEditor changeStormThreshold = new IntegerFieldEditor(PreferenceConstants.P_CHANGE_STORM_THRESHOLD, "Changed files after which a whole project is reindexed", getFieldEditorParent());
+		changeStormThreshold.setValidRange(1, Integer.MAX_VALUE);
+		addField(changeStormThreshold);
+		
+		IntegerFieldEditor indexingThreads = new IntegerFieldEditor(PreferenceConstants.P_INDEXING_THREADS, "Indexing threads (used when building the index)", getFieldEditorParent());
+		indexingThreads.setValidRange(1, 32);
+		addField(indexingThreads);
+		
+		IntegerFieldEditor segmentsPerLevel = new IntegerFieldEditor(PreferenceConstants.P_INDEX_SEGMENTS_PER_LEVEL, "Index segments merged at once (fewer: faster search, more disk writes)", getFieldEditorParent());
+		segmentsPerLevel.setValidRange(2, 50);
+		addField(segmentsPerLevel);
+		
+		String[][] directoryModes = new String[][]{{"Automatic", "auto"}, {"Memory-mapped", "mmap"}, {"NIO", "nio"}, {"Simple", "simple"}};
+		addField(new ComboFieldEditor(PreferenceConstants.P_INDEX_DIRECTORY, "Index file access (applies when the index is reopened)", directoryModes, getFieldEditorParent()));
 		
 		
 		
@@ -121,7 +136,7 @@ public class InstaSearchPreferencePage
 	@Override
 	protected void initialize(){
 		super.initialize();
-		periodicReindexInterval.setEnabled(periodicReindexEnabled.getBooleanValue(), getFieldEditorParent());
+		reindexMaxDelay.setEnabled(periodicReindexEnabled.getBooleanValue(), getFieldEditorParent());
 		
 	}
 
@@ -166,7 +181,7 @@ public class InstaSearchPreferencePage
 			FieldEditor field = (FieldEditor)event.getSource();
 			
 			if (field == periodicReindexEnabled){
-				periodicReindexInterval.setEnabled(periodicReindexEnabled.getBooleanValue(), getFieldEditorParent());
+				reindexMaxDelay.setEnabled(periodicReindexEnabled.getBooleanValue(), getFieldEditorParent());
 			}
 			
 			if( PreferenceConstants.P_INDEXABLE_EXTENSIONS.equals(field.getPreferenceName()) 
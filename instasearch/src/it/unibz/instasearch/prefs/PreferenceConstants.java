@@ -21,6 +21,10 @@ public class PreferenceConstants
 	public static final String P_INDEXABLE_EXTENSIONS = "indexableExtensions";
 	public static final String P_INDEX_EMPTY_EXTENSION = "indexEmptyExtension";
 	public static final String P_EXCLUDE_DIRS = "excludedFolders";
+	public static final String P_INDEXING_THREADS = "indexingThreads";
+	public static final String P_INDEX_DIRECTORY = "indexDirectory";
+	public static final String P_INDEX_SEGMENTS_PER_LEVEL = "indexSegmentsPerLevel";
+	public static final String P_CHANGE_STORM_THRESHOLD = "changeStormThreshold";
 	
 	// Searching
 	public static final String P_SEARCH_EXTENSIONS = "searchExtensions";
@@ -37,6 +41,6 @@ public class PreferenceConstants
 	
 	// Internal 
 	public static final String P_TYPING_SEARCH_DELAY = "typingSearchDelay";
-	public static final String P_INDEX_UPDATE_INTERVAL = "indexUpdateInterval";
+	public static final String P_INDEX_UPDATE_MAX_DELAY = "indexUpdateMaxDelay";
 	public static final String P_INDEX_UPDATE_ENABLED = "indexUpdateEnabled";
 }
@@ -12,6 +12,7 @@
 package it.unibz.instasearch.prefs;
 
 import it.unibz.instasearch.InstaSearchPlugin;
+import it.unibz.instasearch.indexing.IndexMergeSettings;
 
 import java.util.Arrays;
 import java.util.TreeSet;
@@ -33,6 +34,7 @@ import org.eclipse.ui.internal.registry.EditorRegistry;
 public class PreferenceInitializer extends AbstractPreferenceInitializer {
 
 	private static final String DEFAULT_EXTENSIONS = "java,xml,xsd,txt,jsp,css,c,cpp,h,hpp,mf,properties,php,php4,php5,js,inc,ini,sql,sqlj,pl,sh,bat,cmd,htm,html";
+	private static final int MAX_DEFAULT_INDEXING_THREADS = 4;
 	
 	/**
 	 * @see org.eclipse.core.runtime.preferences.AbstractPreferenceInitializer#initializeDefaultPreferences()
@@ -52,8 +54,12 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer {
 		store.setDefault(PreferenceConstants.P_SHOWN_LINES_COUNT, 4);
 		
 		store.setDefault(PreferenceConstants.P_TYPING_SEARCH_DELAY, 200);
-		store.setDefault(PreferenceConstants.P_INDEX_UPDATE_INTERVAL, 60000);
+		store.setDefault(PreferenceConstants.P_INDEX_UPDATE_MAX_DELAY, 5000); // max delay of updates during continuous changes
 		store.setDefault(PreferenceConstants.P_INDEX_UPDATE_ENABLED, true);
+		store.setDefault(PreferenceConstants.P_INDEXING_THREADS, getDefaultIndexingThreads());
+		store.setDefault(PreferenceConstants.P_INDEX_DIRECTORY, "auto");
+		store.setDefault(PreferenceConstants.P_INDEX_SEGMENTS_PER_LEVEL, IndexMergeSettings.DEFAULT_SEGMENTS_PER_LEVEL);
+		store.setDefault(PreferenceConstants.P_CHANGE_STORM_THRESHOLD, 500);
 		
 		String extensions = getIndexableExtensions();
 		store.setDefault(PreferenceConstants.P_INDEXABLE_EXTENSIONS, extensions);
@@ -61,6 +67,19 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer {
 		store.setDefault(PreferenceConstants.P_EXCLUDE_DIRS, "");
 	}
 
+	/**
+	 * Number of threads to use when building the index. 
+	 * Indexing is mostly I/O bound so there is little gain beyond a few threads
+	 * 
+	 * @return number of indexing threads
+	 */
+	private static int getDefaultIndexingThreads()
+	{
+		int processors = Runtime.getRuntime().availableProcessors();
+		
+		return Math.max(1, Math.min(MAX_DEFAULT_INDEXING_THREADS, processors));
+	}
+	
 	/**
 	 * Get extensions that Eclipse knows of and the default ones
 	 * @return comma separated string of extensions
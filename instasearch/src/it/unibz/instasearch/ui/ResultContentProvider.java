@@ -14,6 +14,8 @@ package it.unibz.instasearch.ui;
 import it.unibz.instasearch.InstaSearch;
 import it.unibz.instasearch.InstaSearchPlugin;
 import it.unibz.instasearch.indexing.Field;
+import it.unibz.instasearch.indexing.LineLocator;
+import it.unibz.instasearch.indexing.LineTerms;
 import it.unibz.instasearch.indexing.SearchQuery;
 import it.unibz.instasearch.indexing.SearchResult;
 import it.unibz.instasearch.indexing.SearchResultDoc;
@@ -22,10 +24,12 @@ import it.unibz.instasearch.indexing.StorageIndexer;
 import it.unibz.instasearch.indexing.WorkspaceIndexer;
 import it.unibz.instasearch.prefs.PreferenceConstants;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -64,6 +68,7 @@ class ResultContentProvider implements ITreeContentProvider {
 	private Map<String, Float> searchTerms;
 	
 	private Object[] cachedResults;
+	private SearchResult currentResult;
 	private SearchResultDoc cachedResultDoc;
 	private Object[] cachedChildren;
 	private int resultCount;
@@ -80,10 +85,30 @@ class ResultContentProvider implements ITreeContentProvider {
 		if( newSearch==null || !(newSearch instanceof SearchQuery) ) {
 			currentSearchQuery = null; // clear cache
 			cachedResults = null;
+			setCurrentResult(null);
 		}	
 	}
 	
 	public void dispose() {	
+		setCurrentResult(null);
+	}
+	
+	/**
+	 * Releases the index reader of the previous result
+	 * 
+	 * @param result
+	 */
+	private void setCurrentResult(SearchResult result) {
+		
+		if( currentResult != null && currentResult != result ) {
+			try {
+				currentResult.release();
+			} catch (IOException e) {
+				InstaSearchPlugin.log(e);
+			}
+		}
+		
+		currentResult = result;
 	}
 	
 	public Object[] getElements(Object searchQueryObj) 
@@ -120,6 +145,7 @@ class ResultContentProvider implements ITreeContentProvider {
 			try {
 				result = searcher.search(searchQuery); // do the search
 				currentSearchQuery = searchQuery;
+				setCurrentResult(result);
 				
 				if( result == null ) {
 					if( !searchQuery.isFuzzy() ) {
@@ -279,45 +305,64 @@ class ResultContentProvider implements ITreeContentProvider {
 			fileInputStream = f.getContents();
 		}
 		
-		LineNumberReader lineReader = new LineNumberReader(new InputStreamReader(fileInputStream)); // is a buffered reader
+		int[] termOffsets = null;
 		
-		String line;
+		if( limit && matchCount != 0 ) // only lines with matches are needed, find them using term offsets in the index
+			termOffsets = doc.getTermOffsets(searchTerms.keySet());
 		
-		// Read through file one line at a time 
-		while ( (line = lineReader.readLine()) != null ) {
-			
-			if( callback != null && callback.isCanceled() ) break;
-			//if( currentSearchQuery.isCanceled() ) break;
-			
-			if( "".equals(line) ) continue;
-			
-			Map<String, List<Integer>> lineTerms = StorageIndexer.extractTextTerms(line);
-			if( lineTerms.isEmpty() ) continue;
-			
-			HashSet<String> matchedTerms = new HashSet<String>(searchTerms.keySet()); // search terms that appear on this line
-			matchedTerms.retainAll(lineTerms.keySet());
-			
-			if( matchedTerms.isEmpty() && matchCount != 0 && limit ) // if have matches in general, but not on this line, then skip
-				continue;
+		if( termOffsets != null && termOffsets.length != 0 )
+		{
+			Reader reader = new BufferedReader(new InputStreamReader(fileInputStream));
+			Map<Integer, String> lines;
 			
-			float[] lineTermScoreVector = doc.getTermScoreVector(lineTerms.keySet());
-			float[] matchedTermScoreVector = doc.getTermScoreVector(matchedTerms);
+			try {
+				lines = LineLocator.readLines(reader, termOffsets, MAX_LINES_TO_PROCESS);
+			} finally {
+				reader.close();
+			}
 			
-			MatchLine matchLine = new MatchLine(doc, line, lineReader.getLineNumber(), matchedTerms, lineTermScoreVector, matchedTermScoreVector);
-			matchedLines.add(matchLine);
+			for(Map.Entry<Integer, String> line: lines.entrySet()) {
+				
+				if( callback != null && callback.isCanceled() ) break;
+				
+				MatchLine matchLine = createMatchLine(doc, line.getValue(), line.getKey(), limit, matchCount, searchString);
+				
+				if( matchLine == null ) continue;
+				
+				matchedLines.add(matchLine);
+				if( callback != null )
+					callback.matchFound(matchLine);
+			}
+		}
+		else
+		{
+			LineNumberReader lineReader = new LineNumberReader(new InputStreamReader(fileInputStream)); // is a buffered reader
 			
-			addMatches(matchLine, lineTerms, matchedTerms, searchString);
-			if( callback != null )
-				callback.matchFound(matchLine);
+			String line;
 			
-			if( lineReader.getLineNumber() > MAX_LINES_TO_PROCESS )
-				break;
+			// Read through file one line at a time 
+			while ( (line = lineReader.readLine()) != null ) {
+				
+				if( callback != null && callback.isCanceled() ) break;
+				//if( currentSearchQuery.isCanceled() ) break;
+				
+				MatchLine matchLine = createMatchLine(doc, line, lineReader.getLineNumber(), limit, matchCount, searchString);
+				
+				if( matchLine != null ) {
+					matchedLines.add(matchLine);
+					if( callback != null )
+						callback.matchFound(matchLine);
+				}
+				
+				if( lineReader.getLineNumber() > MAX_LINES_TO_PROCESS )
+					break;
+				
+				//TODO: break if all current matches have high score (eg >0.9)
+			}
 			
-			//TODO: break if all current matches have high score (eg >0.9)
+			lineReader.close();
 		}
 		
-		lineReader.close();
-		
 		if(limit && matchedLines.size() > maxMatches) {	
 			matchedLines = getTopMatchLines(maxMatches, matchedLines); // return TOP N lines
 			return matchedLines;
@@ -326,6 +371,38 @@ class ResultContentProvider implements ITreeContentProvider {
 			return matchedLines;
 	}
 
+	/**
+	 * Finds matches of search terms on the line
+	 * 
+	 * @return MatchLine or null if the line should be skipped
+	 */
+	private MatchLine createMatchLine(SearchResultDoc doc, String line, int lineNumber, boolean limit, int matchCount, String searchString) throws IOException {
+		
+		if( "".equals(line) ) return null;
+		
+		LineTerms lineTerms = StorageIndexer.extractTextTerms(line);
+		if( lineTerms.isEmpty() ) return null;
+		
+		HashSet<String> matchedTerms = new HashSet<String>(); // search terms that appear on this line
+		
+		for(String searchTerm: searchTerms.keySet()) {
+			if( lineTerms.contains(searchTerm) )
+				matchedTerms.add(searchTerm);
+		}
+		
+		if( matchedTerms.isEmpty() && matchCount != 0 && limit ) // if have matches in general, but not on this line, then skip
+			return null;
+		
+		float[] lineTermScoreVector = doc.getTermScoreVector(lineTerms.getTerms());
+		float[] matchedTermScoreVector = doc.getTermScoreVector(matchedTerms);
+		
+		MatchLine matchLine = new MatchLine(doc, line, lineNumber, matchedTerms, lineTermScoreVector, matchedTermScoreVector);
+		
+		addMatches(matchLine, lineTerms, matchedTerms, searchString);
+		
+		return matchLine;
+	}
+
 	private List<MatchLine> getTopMatchLines(int maxMatchLines, List<MatchLine> matchedLines) {
 		Collections.sort(matchedLines); // sort by match count, score, line
 		removeSimilarLines(matchedLines, maxMatchLines);
@@ -349,7 +426,7 @@ class ResultContentProvider implements ITreeContentProvider {
 	 * @param searchString
 	 * @return
 	 */
-	private float addMatches(MatchLine matchLine, Map<String, List<Integer>> terms, 
+	private float addMatches(MatchLine matchLine, LineTerms terms, 
 			Set<String> matchedTerms, String searchString) {
 		
 		String lcaseLine = matchLine.getLine().toLowerCase(Locale.ENGLISH);
@@ -368,9 +445,12 @@ class ResultContentProvider implements ITreeContentProvider {
 		float matchedTermBoost = 0;
 		
 		for(String term: matchedTerms) {							
-			List<Integer> offsets = terms.get(term);
+			int termIndex = terms.indexOf(term);
 			
-			for(int offset: offsets) {
+			for(int token = 0; token < terms.getTokenCount(); token++) {
+				if( terms.getTokenTerm(token) != termIndex ) continue;
+				
+				int offset = terms.getTokenOffset(token);
 				int pos = lcaseLine.indexOf(term, offset);
 				if( pos == -1 ) continue;
 				Match m = new Match(term, pos, term.length());
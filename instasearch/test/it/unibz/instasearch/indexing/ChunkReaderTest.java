@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.junit.Test;
+
+/**
+ * Unit test for ChunkReader and searching large files indexed in chunks
+ */
+public class ChunkReaderTest
+{
+	private static final String CONTENTS = "first line\r\nsecond line\r\nthird\rfourth line\nfifth\n";
+	private static final int LARGE_FILE_LINES = 40000;
+
+	@Test
+	public void testChunks() throws Exception
+	{
+		ChunkReader chunks = new ChunkReader(new StringReader(CONTENTS), 13);
+
+		assertTrue(chunks.hasNextChunk());
+		assertEquals("first line\r\nsecond line\r\n", read(chunks.nextChunk())); // ends at the line break after 13 characters
+		assertEquals(0, chunks.getChunk());
+		assertEquals(1, chunks.getChunkLine());
+		assertEquals(0, chunks.getChunkOffset());
+
+		assertTrue(chunks.hasNextChunk());
+		Reader chunk = chunks.nextChunk();
+		chunk.read(new char[3]); // not read to the end, eg. max field length reached
+		assertEquals(1, chunks.getChunk());
+		assertEquals(3, chunks.getChunkLine());
+		assertEquals(CONTENTS.indexOf("third"), chunks.getChunkOffset());
+
+		assertTrue(chunks.hasNextChunk());
+		assertEquals("fifth\n", read(chunks.nextChunk()));
+		assertEquals(5, chunks.getChunkLine());
+		assertEquals(CONTENTS.indexOf("fifth"), chunks.getChunkOffset());
+		assertFalse(chunks.hasNextChunk());
+
+		chunks = new ChunkReader(new StringReader(""), 12);
+		assertTrue(chunks.hasNextChunk()); // an empty file has one empty chunk
+		assertEquals("", read(chunks.nextChunk()));
+		assertFalse(chunks.hasNextChunk());
+
+		chunks = new ChunkReader(new StringReader("0123456789abcdefghij"), 5);
+		assertEquals("0123456789", read(chunks.nextChunk())); // a long line is split
+		assertEquals("abcdefghij", read(chunks.nextChunk()));
+	}
+
+	@Test
+	public void testSearchChunks() throws Exception
+	{
+		StringBuilder contents = new StringBuilder();
+
+		for(int line = 1; line <= 1000; line++)
+			contents.append("line ").append(line).append(line % 300 == 0 ? " target" : "").append('\n');
+
+		StorageIndexer indexer = new StorageIndexer();
+		indexer.setChunkSize(1000);
+		IndexWriter writer = indexer.createIndexWriter(true);
+		indexer.indexStorage(writer, new TestStorage("/proj/large.log", contents.toString()), "proj", 0, null);
+		indexer.indexStorage(writer, new TestStorage("/proj/small.log", "target"), "proj", 0, null);
+		writer.close();
+
+		IndexReader reader = IndexReader.open(indexer.getIndexDir(), true);
+		assertTrue(reader.numDocs() > 5); // chunks
+		reader.close();
+
+		SearchResult result = new TestSearcher(indexer.getIndexDir()).search(new SearchQuery("target", SearchQuery.UNLIMITED_RESULTS));
+		assertEquals(2, result.getResultDocs().size()); // chunks are collapsed
+
+		SearchResultDoc doc = result.getResultDocs().get(0).getFilePath().equals("/proj/large.log") ? 
+				result.getResultDocs().get(0) : result.getResultDocs().get(1);
+
+		assertEquals(3, doc.getChunkCount());
+		assertEquals(3, doc.getMatchCount());
+
+		int[] offsets = doc.getTermOffsets(Arrays.asList("target"));
+		Map<Integer, String> lines = LineLocator.readLines(new StringReader(contents.toString()), offsets, 100);
+		assertEquals("{300=line 300 target, 600=line 600 target, 900=line 900 target}", lines.toString());
+
+		result.release();
+	}
+
+	@Test
+	public void testChunksDontTakeLimitedResults() throws Exception
+	{
+		StringBuilder contents = new StringBuilder();
+
+		for(int line = 1; line <= 1000; line++)
+			contents.append("line ").append(line).append(line % 100 == 0 ? " target" : "").append('\n');
+
+		StringBuilder otherContents = new StringBuilder("target");
+
+		for(int word = 0; word < 3000; word++) // scores lower than the chunks
+			otherContents.append(" word").append(word);
+
+		StorageIndexer indexer = new StorageIndexer();
+		indexer.setChunkSize(1000);
+		IndexWriter writer = indexer.createIndexWriter(true);
+		indexer.indexStorage(writer, new TestStorage("/proj/large.log", contents.toString()), "proj", 0, null);
+		indexer.indexStorage(writer, new TestStorage("/proj/other.log", otherContents.toString()), "proj", 0, null);
+		writer.close();
+
+		SearchResult result = new TestSearcher(indexer.getIndexDir()).search(new SearchQuery("target", 2));
+		assertEquals(2, result.getResultDocs().size()); // chunks of the large file are collapsed before limiting
+		assertEquals("/proj/large.log", result.getResultDocs().get(0).getFilePath());
+		assertEquals("/proj/other.log", result.getResultDocs().get(1).getFilePath());
+
+		result.release();
+	}
+
+	@Test
+	public void testLargeFileLastLine() throws Exception
+	{
+		StringBuilder contents = new StringBuilder();
+
+		for(int line = 0; line < LARGE_FILE_LINES; line++)
+			contents.append("2010-01-01 12:00:00 INFO request").append(line).append(" handled by worker").append(line % 64).append('\n');
+
+		contents.append("lastLine\n");
+
+		StorageIndexer indexer = new StorageIndexer();
+		IndexWriter writer = indexer.createIndexWriter(true);
+		indexer.indexStorage(writer, new TestStorage("/proj/huge.log", contents.toString()), "proj", 0, null);
+		writer.close();
+
+		IndexReader reader = IndexReader.open(indexer.getIndexDir(), true);
+		assertTrue(reader.numDocs() > 1); // in chunks
+		assertEquals(1, reader.docFreq(Field.CONTENTS.createTerm("lastline"))); // beyond the field length limit of one document
+		reader.close();
+	}
+
+	private static String read(Reader reader) throws Exception
+	{
+		StringBuilder sb = new StringBuilder();
+		char[] buffer = new char[7];
+		int read;
+
+		while( (read = reader.read(buffer)) != -1 )
+			sb.append(buffer, 0, read);
+
+		return sb.toString();
+	}
+}
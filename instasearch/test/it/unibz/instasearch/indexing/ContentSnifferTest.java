@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import it.unibz.instasearch.indexing.ContentSniffer.Kind;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.junit.Test;
+
+/**
+ * Unit test for ContentSniffer
+ */
+public class ContentSnifferTest
+{
+	private static final int TEXT_FILES = 30;
+	private static final int BINARY_FILES = 6;
+	private static final int MINIFIED_FILES = 6;
+	private static final String MARKER = "minified"; // only in the minified files
+
+	private static final String[] WORDS = {"public", "class", "getValue", "setValue", "indexWriter", "String", 
+		"return", "IndexReader", "CamelCaseIdentifier", "for", "int", "new", "searchResultDoc", "Term", "docFreq"};
+
+	@Test
+	public void testSniff() throws Exception
+	{
+		ContentSniffer sniffer = new ContentSniffer();
+		Random random = new Random(42);
+
+		assertEquals(Kind.TEXT, sniffer.sniff("/p/A.java", createText(random, 200).getBytes()));
+		assertEquals(Kind.TEXT, sniffer.sniff("/p/empty.txt", new byte[0]));
+		assertEquals(Kind.TEXT, sniffer.sniff("/p/colors.log", "\u001b[31mred\u001b[0m\tline\r\n".getBytes()));
+		assertEquals(Kind.BINARY, sniffer.sniff("/p/a.dat", new byte[]{'a', 'b', 0, 'c'}));
+		byte[] compressed = createBinary(random, 4096, false);
+		for(int i = 0; i < compressed.length; i++) compressed[i] = (byte) (0x20 + (compressed[i] & 0xFF) % 224); // no control characters
+		assertEquals(Kind.BINARY, sniffer.sniff("/p/b.dat", compressed));
+		assertEquals(Kind.BINARY, sniffer.sniff("/p/c.dat", new byte[]{'a', 1, 2, 3, 4, 'b', 'c', 'd', 'e'}));
+		assertEquals(Kind.MINIFIED, sniffer.sniff("/p/app.min.js", createMinified(random, 10000).getBytes()));
+
+		String longLines = "";
+		for(int i = 0; i < 20; i++) longLines += createMinified(random, 400) + "\n";
+		assertEquals(Kind.MINIFIED, sniffer.sniff("/p/data.json", longLines.getBytes()));
+
+		assertEquals(8, sniffer.getSniffedFiles());
+		assertEquals(3, sniffer.getSkippedFiles(Kind.BINARY));
+		assertEquals(2, sniffer.getSkippedFiles(Kind.MINIFIED));
+		assertEquals("/p/a.dat: contains NUL bytes", sniffer.getLastSkippedFiles().get(0));
+		assertTrue(sniffer.getLastSkippedFiles().get(1).startsWith("/p/b.dat: entropy"));
+		assertTrue(sniffer.getLastSkippedFiles().get(3).startsWith("/p/app.min.js: line of over "));
+	}
+
+	@Test
+	public void testReadHead() throws Exception
+	{
+		byte[] data = createBinary(new Random(42), ContentSniffer.SNIFF_BYTES * 2, true);
+		InputStream in = ContentSniffer.markable(new ByteArrayInputStream(data));
+
+		assertEquals(ContentSniffer.SNIFF_BYTES, ContentSniffer.readHead(in).length);
+		assertEquals(data[0] & 0xFF, in.read()); // reset to the start
+		assertEquals(3, ContentSniffer.readHead(new ByteArrayInputStream(new byte[3])).length);
+	}
+
+	@Test
+	public void testNameOnly() throws Exception
+	{
+		StorageIndexer indexer = new StorageIndexer();
+		IndexWriter writer = indexer.createIndexWriter(true);
+		indexer.indexStorage(writer, new TestStorage("/p/A.java", "int value;"), "p", 1, null);
+		indexer.indexStorage(writer, new LoadedStorage(new TestStorage("/p/lib.so", ""), new byte[]{'v', 'a', 'l', 'u', 'e', 0}), "p", 1, null);
+		writer.close();
+
+		IndexReader reader = IndexReader.open(indexer.getIndexDir(), true);
+		assertEquals(2, reader.numDocs()); // still found by name
+		assertEquals(1, reader.docFreq(Field.CONTENTS.createTerm("value")));
+		assertEquals(1, reader.docFreq(Field.NAME.createTerm("lib.so")));
+		reader.close();
+	}
+
+	@Test
+	public void testSkippedContents() throws Exception
+	{
+		Random random = new Random(42);
+		LoadedStorage[] files = new LoadedStorage[TEXT_FILES + BINARY_FILES + MINIFIED_FILES];
+		int f = 0;
+
+		for(int i = 0; i < TEXT_FILES; i++)
+			files[f++] = createStorage("/p/src/File" + i + ".java", createText(random, 50).getBytes());
+
+		for(int i = 0; i < BINARY_FILES; i++) // eg. data files with a text extension
+			files[f++] = createStorage("/p/data/data" + i + ".txt", createBinary(random, 20000, i % 2 == 0));
+
+		for(int i = 0; i < MINIFIED_FILES; i++)
+			files[f++] = createStorage("/p/web/lib" + i + ".min.js", (MARKER + ";" + createMinified(random, 20000)).getBytes());
+
+		IndexReader fullReader = IndexReader.open(buildIndex(files, false).getIndexDir(), true);
+		assertEquals(files.length, fullReader.numDocs());
+		assertEquals(MINIFIED_FILES, fullReader.docFreq(Field.CONTENTS.createTerm(MARKER)));
+		fullReader.close();
+
+		StorageIndexer indexer = buildIndex(files, true);
+		assertEquals(BINARY_FILES + MINIFIED_FILES, indexer.getContentSniffer().getLastSkippedFiles().size());
+
+		IndexReader reader = IndexReader.open(indexer.getIndexDir(), true);
+		assertEquals(files.length, reader.numDocs()); // still found by name
+		assertEquals(0, reader.docFreq(Field.CONTENTS.createTerm(MARKER)));
+		reader.close();
+	}
+
+	private static StorageIndexer buildIndex(LoadedStorage[] files, boolean sniff) throws Exception
+	{
+		StorageIndexer indexer = new StorageIndexer();
+		indexer.getContentSniffer().setEnabled(sniff);
+		IndexWriter writer = indexer.createIndexWriter(true);
+
+		for(LoadedStorage file: files)
+			indexer.indexStorage(writer, file, "p", 1, null);
+
+		writer.close();
+
+		return indexer;
+	}
+
+	private static LoadedStorage createStorage(String path, byte[] contents)
+	{
+		return new LoadedStorage(new TestStorage(path, ""), contents);
+	}
+
+	private static String createText(Random random, int lines)
+	{
+		StringBuilder sb = new StringBuilder();
+
+		for(int line = 0; line < lines; line++)
+		{
+			for(int w = 0; w < 6; w++)
+				sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+
+			sb.append('\n');
+		}
+
+		return sb.toString();
+	}
+
+	private static String createMinified(Random random, int length)
+	{
+		StringBuilder sb = new StringBuilder();
+
+		while( sb.length() < length )
+			sb.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(1000)).append(random.nextBoolean() ? ';' : ',');
+
+		return sb.toString();
+	}
+
+	private static byte[] createBinary(Random random, int length, boolean withNul)
+	{
+		byte[] data = new byte[length];
+		random.nextBytes(data);
+
+		if( !withNul )
+		{
+			for(int i = 0; i < data.length; i++)
+				if( data[i] == 0 ) data[i] = 1;
+		}
+
+		return data;
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Unit test for ExclusionMatcher
+ */
+public class ExclusionMatcherTest
+{
+	private static final int PROJECTS = 20;
+	private static final int FOLDERS = 5000;
+
+	private static final String[] NAMES = {"src", "bin", "target", "gen", "generated", "node_modules", ".svn",
+		"build", "tmp", "lib", "main", "java", "resources", "test", "it", "unibz", "web", "css"};
+
+	@Test
+	public void testPatterns()
+	{
+		ExclusionMatcher matcher = createMatcher("/proj/bin", "proj/gen*", "*/node_modules", "**/.svn", 
+				"proj?/tmp", "other/**/build", "other/lib/", "proj/.settings");
+
+		assertTrue(matcher.isExcluded("/proj/bin"));
+		assertFalse(matcher.isExcluded("/proj/bin/sub")); // sub folders are not visited
+		assertFalse(matcher.isExcluded("/proj/binary"));
+		assertTrue(matcher.isExcluded("/proj/generated"));
+		assertFalse(matcher.isExcluded("/proj/src/gen"));
+		assertTrue(matcher.isExcluded("/any/node_modules"));
+		assertFalse(matcher.isExcluded("/any/web/node_modules"));
+		assertTrue(matcher.isExcluded("/any/web/.svn"));
+		assertTrue(matcher.isExcluded("/proj1/tmp"));
+		assertTrue(matcher.isExcluded("/other/a/b/build"));
+		assertFalse(matcher.isExcluded("/other/lib"));
+		assertFalse(matcher.isExcluded("/other"));
+		assertTrue(matcher.isExcluded("/proj/.settings"));
+		assertFalse(matcher.isExcluded("/proj/xsettings")); // . is not a wildcard
+
+		assertTrue(matcher.isExcludedOrParent("/proj/bin/sub/folder"));
+		assertTrue(matcher.isExcludedOrParent("/proj/bin/sub")); // remembered
+		assertFalse(matcher.isExcludedOrParent("/proj/src/sub"));
+		assertFalse(new ExclusionMatcher().isExcludedOrParent("/proj/bin"));
+	}
+
+	@Test
+	public void testSameAsRegex()
+	{
+		List<String> wildcards = createPatterns();
+		ExclusionMatcher matcher = createMatcher(wildcards.toArray(new String[0]));
+		List<Pattern> regexes = createRegexes(wildcards);
+		Random random = new Random(42);
+		int excluded = 0;
+
+		for(int i = 0; i < FOLDERS; i++)
+		{
+			String path = createPath(random);
+			assertEquals(path, isExcludedByRegex(path, regexes), matcher.isExcluded(path));
+			assertEquals(path, isExcludedOrParentByRegex(path, regexes), matcher.isExcludedOrParent(path));
+
+			if( matcher.isExcludedOrParent(path) )
+				excluded++;
+		}
+
+		assertTrue(excluded > 0);
+	}
+
+	private static List<String> createPatterns()
+	{
+		List<String> wildcards = new ArrayList<String>();
+
+		for(int p = 0; p < PROJECTS; p++)
+		{
+			wildcards.add("/proj" + p + "/bin");
+			wildcards.add("/proj" + p + "/target");
+		}
+
+		for(int p = 0; p < PROJECTS/2; p++)
+			wildcards.add("/proj" + p + "/src/gen*");
+
+		wildcards.add("*/node_modules");
+		wildcards.add("**/.svn");
+		wildcards.add("proj1?/tmp");
+		wildcards.add("proj2/**/generated");
+
+		return wildcards;
+	}
+
+	private static String createPath(Random random)
+	{
+		StringBuilder path = new StringBuilder("/proj").append(random.nextInt(PROJECTS + 5));
+		int depth = 1 + random.nextInt(8);
+
+		for(int d = 0; d < depth; d++)
+			path.append('/').append(NAMES[random.nextInt(NAMES.length)]);
+
+		return path.toString();
+	}
+
+	private static ExclusionMatcher createMatcher(String... wildcards)
+	{
+		ExclusionMatcher matcher = new ExclusionMatcher();
+
+		for(String wildcard: wildcards)
+			matcher.add(wildcard);
+
+		return matcher;
+	}
+
+	private static List<Pattern> createRegexes(List<String> wildcards)
+	{
+		List<Pattern> regexes = new ArrayList<Pattern>();
+
+		for(String wildcard: wildcards)
+			regexes.add(ExclusionMatcher.wildcardToRegex(wildcard.startsWith("/") ? wildcard.substring(1) : wildcard));
+
+		return regexes;
+	}
+
+	/** As done before: every pattern on the path */
+	private static boolean isExcludedByRegex(String path, List<Pattern> regexes)
+	{
+		if( path.startsWith("/") ) path = path.substring(1);
+
+		for(Pattern pattern: regexes)
+		{
+			if( pattern.matcher(path).matches() )
+				return true;
+		}
+
+		return false;
+	}
+
+	/** As done before: every pattern on the path and on each parent */
+	private static boolean isExcludedOrParentByRegex(String path, List<Pattern> regexes)
+	{
+		if( path.length() == 0 )
+			return isExcludedByRegex(path, regexes);
+
+		return isExcludedByRegex(path, regexes) || isExcludedOrParentByRegex(path.substring(0, path.lastIndexOf('/')), regexes);
+	}
+}
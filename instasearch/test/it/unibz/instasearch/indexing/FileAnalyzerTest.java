@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermAttribute;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.junit.Test;
+
+/**
+ * Checks the terms and offsets produced by the term splitting filters
+ * and indexing of a generated source code corpus
+ */
+public class FileAnalyzerTest
+{
+	private static final int FILE_COUNT = 300;
+	private static final int LINES_PER_FILE = 40;
+
+	private static final String[] IDENTIFIERS = {"getHTTPResponse", "IndexWriter", "parseXMLDocument", "MAX_RESULT_COUNT",
+		"it.unibz.instasearch.indexing", "searchResultDoc", "Base64Encoder", "body-css-style", "$_POST['HTTP_REFERER']",
+		"toString()", "termAtt.termBuffer()", "i", "=", "return", "public", "final", "new", "ArrayList<String>()",
+		"fooBar.fooBaz", "getValue", "setValue", "x1", "UTF8", "idlTypeForNonGeneratedPorts", "\"quoted string\""};
+
+	@Test
+	public void testTokens() throws Exception
+	{
+		assertEquals("[gethttpresponse 0-15 +1, get 0-3 +0, http 3-7 +0, response 7-15 +0]", tokens("getHTTPResponse"));
+		assertEquals("[base64encoder 0-13 +1, base64 0-6 +0, encoder 6-13 +0]", tokens("Base64Encoder"));
+		assertEquals("[max_result_count 0-16 +1, max 0-3 +0, result 4-10 +0, count 11-16 +0]", tokens("MAX_RESULT_COUNT"));
+		assertEquals("[foo.bar.foo 0-11 +1, foo 0-3 +0, bar 4-7 +0, foo 8-11 +0]", tokens("foo.bar.foo"));
+		assertEquals("[body-css-style 0-14 +1, body 0-4 +0, css 5-8 +0, style 9-14 +0]", tokens("body-css-style"));
+		assertEquals("[_post 1-6 +1, post 2-6 +0, http_referer 8-20 +1, http 8-12 +0, referer 13-20 +0]", tokens("$_POST['HTTP_REFERER']"));
+		assertEquals("[value 0-5 +1, getvalue 6-14 +1, get 6-9 +0, value 9-14 +0]", tokens("value getValue"));
+		assertEquals("[hello 0-5 +1]", tokens("Hello")); // not split, only one token
+		assertEquals("[fooget.get 0-10 +1, foo 0-3 +0, get.get 3-10 +0, fooget 0-6 +0, foo 0-3 +0, get 3-6 +0, get 7-10 +0]", tokens("fooGet.get"));
+	}
+
+	@Test
+	public void testIndexGeneratedFiles() throws Exception
+	{
+		List<String> files = generateFiles();
+		StorageIndexer indexer = indexFiles(files);
+
+		IndexReader reader = IndexReader.open(indexer.getIndexDir(), true);
+		assertEquals(files.size(), reader.numDocs());
+		assertTrue(reader.docFreq(Field.CONTENTS.createTerm("response")) > 0); // split from getHTTPResponse
+		reader.close();
+	}
+
+	private static StorageIndexer indexFiles(List<String> files) throws Exception
+	{
+		StorageIndexer indexer = new StorageIndexer();
+		IndexWriter writer = indexer.createIndexWriter(true);
+
+		for(int i = 0; i < files.size(); i++)
+			indexer.indexStorage(writer, new TestStorage("/proj/src/File" + i + ".java", files.get(i)), "proj", 0, null);
+
+		writer.close();
+
+		return indexer;
+	}
+
+	private static List<String> generateFiles()
+	{
+		Random random = new Random(42);
+		List<String> files = new ArrayList<String>(FILE_COUNT);
+
+		for(int f = 0; f < FILE_COUNT; f++)
+		{
+			StringBuilder sb = new StringBuilder();
+
+			for(int line = 0; line < LINES_PER_FILE; line++)
+			{
+				sb.append('\t');
+
+				for(int w = 0; w < 8; w++)
+					sb.append(IDENTIFIERS[random.nextInt(IDENTIFIERS.length)]).append(' ');
+
+				sb.append(";\n");
+			}
+
+			files.add(sb.toString());
+		}
+
+		return files;
+	}
+
+	private static String tokens(String text) throws Exception
+	{
+		TokenStream tokenStream = new FileAnalyzer(1).tokenStream(new StringReader(text));
+		TermAttribute termAtt = (TermAttribute) tokenStream.addAttribute(TermAttribute.class);
+		OffsetAttribute offsetAtt = (OffsetAttribute) tokenStream.addAttribute(OffsetAttribute.class);
+		PositionIncrementAttribute posAtt = (PositionIncrementAttribute) tokenStream.addAttribute(PositionIncrementAttribute.class);
+
+		List<String> tokens = new ArrayList<String>();
+
+		while( tokenStream.incrementToken() )
+			tokens.add(termAtt.term() + " " + offsetAtt.startOffset() + "-" + offsetAtt.endOffset() + " +" + posAtt.getPositionIncrement());
+
+		tokenStream.close();
+
+		return tokens.toString();
+	}
+}
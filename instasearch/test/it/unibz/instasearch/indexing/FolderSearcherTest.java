@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.WildcardQuery;
+import org.junit.Test;
+
+/**
+ * Unit test for folder searches with the DIR field
+ */
+public class FolderSearcherTest
+{
+	private static final int FILES = 1000;
+	private static final int FOLDERS = 50;
+
+	@Test
+	public void testFolderSearches() throws Exception
+	{
+		StorageIndexer indexer = new StorageIndexer();
+		IndexWriter writer = indexer.createIndexWriter(true);
+		indexer.indexStorage(writer, new TestStorage("/proj/src/pkg/A.java", "class text"), "proj", 1, null);
+		indexer.indexStorage(writer, new TestStorage("/proj/src/pkg/sub/B.java", "class text"), "proj", 1, null);
+		indexer.indexStorage(writer, new TestStorage("/proj/lib/C.java", "class text"), "proj", 1, null);
+		indexer.indexStorage(writer, new TestStorage("/proj/test/pkg/D.java", "class text"), "proj", 1, null);
+		indexer.indexStorage(writer, new TestStorage("/other/src/E.java", "class text"), "other", 1, null);
+		indexer.indexStorage(writer, new TestStorage("/src/F.java", "class text"), "src", 1, null); // project, not a folder
+		writer.close();
+
+		TestSearcher searcher = new TestSearcher(indexer.getIndexDir());
+
+		assertEquals(3, search(searcher, "dir:src class", null));
+		assertEquals(1, search(searcher, "class dir:tes", null)); // last term is prefixed while typing
+		assertEquals(3, search(searcher, "dir:pkg class", null));
+		assertEquals(1, search(searcher, "dir:sub class", null));
+		assertEquals(2, search(searcher, "dir:*b* class", null));
+		assertEquals(2, search(searcher, "dir:/proj/src class", null));
+		assertEquals(2, search(searcher, "dir:/proj/src/ class", null));
+		assertEquals(4, search(searcher, "dir:/proj class", null));
+		assertEquals(2, search(searcher, "dir:src/pkg class", null));
+		assertEquals(3, search(searcher, "dir:?kg class", null));
+		assertEquals(1, search(searcher, "dir:te*t class", null));
+
+		Map<Field, Set<String>> filter = new HashMap<Field, Set<String>>(); // a folder selected in the search page
+		filter.put(Field.DIR, new TreeSet<String>(Collections.singleton("/proj/src/pkg")));
+		assertEquals(2, search(searcher, "class", filter));
+	}
+
+	@Test
+	public void testSameHitsAsPathWildcard() throws Exception
+	{
+		StorageIndexer indexer = new StorageIndexer();
+		IndexWriter writer = indexer.createIndexWriter(true);
+
+		for(int i = 0; i < FILES; i++)
+			indexer.indexStorage(writer, new TestStorage(getPath(i), ""), "proj" + i % 10, 1, null);
+
+		writer.close();
+
+		IndexSearcher searcher = new IndexSearcher(IndexReader.open(indexer.getIndexDir(), true));
+
+		for(int q = 0; q < FOLDERS; q++)
+		{
+			String folder = "pkg" + q;
+
+			int wildcardHits = count(searcher, new WildcardQuery(Field.FILE.createTerm("/*/" + folder + "/*"))); // as done before
+			int termHits = count(searcher, new TermQuery(Field.DIR.createTerm(folder)));
+
+			assertEquals(wildcardHits, termHits);
+			assertEquals(FILES / FOLDERS, termHits);
+		}
+
+		searcher.getIndexReader().close();
+	}
+
+	private static String getPath(int file)
+	{
+		return "/proj" + file % 10 + "/src/pkg" + file % FOLDERS + "/File" + file + ".java";
+	}
+
+	private static int count(IndexSearcher searcher, Query query) throws Exception
+	{
+		return searcher.search(query, 1).totalHits;
+	}
+
+	private static int search(TestSearcher searcher, String searchString, Map<Field, Set<String>> filter) throws Exception
+	{
+		SearchQuery searchQuery = new SearchQuery(searchString, SearchQuery.UNLIMITED_RESULTS);
+		searchQuery.setFilter(filter);
+		SearchResult result = searcher.search(searchQuery);
+
+		if( result == null )
+			return 0;
+
+		int count = result.getResultDocs().size();
+		result.release();
+
+		return count;
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import it.unibz.instasearch.indexing.FuzzyTermMatcher.SimilarTerm;
+import it.unibz.instasearch.indexing.querying.BoundedFuzzyQuery;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+/**
+ * Unit test for FuzzyTermMatcher and BoundedFuzzyQuery
+ */
+public class FuzzyTermMatcherTest
+{
+	@Test
+	public void testSameTermsAsEditDistance() throws Exception
+	{
+		String[] words = createWords(3000, new Random(1));
+		RAMDirectory dir = createIndex(words, 3); // several segments
+		IndexReader reader = IndexReader.open(dir, true);
+		Set<String> uniqueWords = new TreeSet<String>();
+
+		for(String word: words)
+			uniqueWords.add(word);
+
+		String[] searched = {words[0], words[100], words[2000], "abc", "xyzzyx", "a", ""};
+
+		for(String text: searched)
+		{
+			int maxEdits = Math.min(FuzzyTermMatcher.MAX_EDITS, text.length() / 2);
+			Set<String> expected = new TreeSet<String>();
+
+			for(String word: uniqueWords)
+			{
+				int edits = getEditDistance(text, word);
+
+				if( edits <= maxEdits && (edits == 0 || 1 - edits / (float) Math.min(text.length(), word.length()) >= 0.5f) )
+					expected.add(word);
+			}
+
+			List<SimilarTerm> similarTerms = FuzzyTermMatcher.getSimilarTerms(reader, Field.CONTENTS.createTerm(text), 0.5f, Integer.MAX_VALUE);
+			Set<String> found = new TreeSet<String>();
+
+			for(SimilarTerm similarTerm: similarTerms)
+			{
+				found.add(similarTerm.getTerm().text());
+				assertEquals(getEditDistance(text, similarTerm.getTerm().text()), similarTerm.getEdits());
+			}
+
+			assertEquals(text, expected, found);
+		}
+
+		reader.close();
+	}
+
+	@Test
+	public void testTermBudget() throws Exception
+	{
+		RAMDirectory dir = createIndex(new String[] {"test", "test", "test", "tent", "text", "best", "rest", "nest", "tests", "toast"}, 2);
+		IndexReader reader = IndexReader.open(dir, true);
+
+		List<SimilarTerm> similarTerms = FuzzyTermMatcher.getSimilarTerms(reader, Field.CONTENTS.createTerm("test"), 0.5f, 3);
+
+		assertEquals(3, similarTerms.size());
+		assertEquals("test", similarTerms.get(0).getTerm().text()); // the same term first
+		assertEquals(3, similarTerms.get(0).getDocFreq()); // in both segments
+		assertEquals(1, similarTerms.get(1).getEdits());
+
+		Query query = new BoundedFuzzyQuery(Field.CONTENTS.createTerm("tset")).rewrite(reader);
+		assertTrue(((BooleanQuery) query).getClauses().length <= BoundedFuzzyQuery.MAX_TERMS);
+
+		reader.close();
+	}
+
+	@Test
+	public void testFindsMisspelledWords() throws Exception
+	{
+		Random random = new Random(2);
+		String[] words = createWords(1000, random);
+		IndexReader reader = IndexReader.open(createIndex(words, 1), true);
+
+		for(int q = 0; q < 20; q++)
+		{
+			String word = words[random.nextInt(words.length)];
+			String text = misspell(word, random);
+			Set<String> found = new TreeSet<String>();
+
+			for(SimilarTerm similarTerm: FuzzyTermMatcher.getSimilarTerms(reader, Field.CONTENTS.createTerm(text), 0.5f, Integer.MAX_VALUE))
+				found.add(similarTerm.getTerm().text());
+
+			assertTrue(text, found.contains(word));
+		}
+
+		reader.close();
+	}
+
+	private static String[] createWords(int count, Random random)
+	{
+		String[] words = new String[count];
+		String letters = "abcdefghijklmnopqrstuvwxyz";
+
+		for(int i = 0; i < count; i++)
+		{
+			StringBuilder word = new StringBuilder();
+			int length = 3 + random.nextInt(8);
+
+			for(int j = 0; j < length; j++)
+				word.append(letters.charAt(random.nextInt(random.nextBoolean() ? 6 : letters.length()))); // some common letters
+
+			words[i] = word.toString();
+		}
+
+		return words;
+	}
+
+	private static String misspell(String word, Random random)
+	{
+		int position = random.nextInt(word.length());
+
+		return word.substring(0, position) + "z" + word.substring(position + 1);
+	}
+
+	private static int getEditDistance(String s1, String s2)
+	{
+		int[][] distances = new int[s1.length() + 1][s2.length() + 1];
+
+		for(int i = 0; i <= s1.length(); i++)
+		{
+			for(int j = 0; j <= s2.length(); j++)
+			{
+				if( i == 0 || j == 0 )
+					distances[i][j] = i + j;
+				else
+					distances[i][j] = Math.min(Math.min(distances[i-1][j] + 1, distances[i][j-1] + 1),
+							distances[i-1][j-1] + (s1.charAt(i-1) == s2.charAt(j-1) ? 0 : 1));
+			}
+		}
+
+		return distances[s1.length()][s2.length()];
+	}
+
+	private static RAMDirectory createIndex(String[] words, int segments) throws Exception
+	{
+		RAMDirectory dir = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true, MaxFieldLength.UNLIMITED);
+
+		for(int i = 0; i < words.length; i++)
+		{
+			Document doc = new Document();
+			doc.add(new org.apache.lucene.document.Field(Field.CONTENTS.toString(), words[i], Store.NO, Index.NOT_ANALYZED_NO_NORMS));
+			writer.addDocument(doc);
+
+			if( (i + 1) % Math.max(1, words.length / segments) == 0 )
+				writer.commit();
+		}
+
+		if( segments == 1 )
+			writer.optimize();
+
+		writer.close();
+
+		return dir;
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import it.unibz.instasearch.indexing.IndexDirectoryProvider.Mode;
+
+import java.io.File;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.SimpleFSDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for IndexDirectoryProvider
+ */
+public class IndexDirectoryProviderTest
+{
+	private static final int DOCS = 1000;
+	private static final int WORDS = 500;
+	private static final int QUERIES = 50;
+
+	private File indexDir;
+
+	@Before
+	public void createIndexDir() throws Exception
+	{
+		indexDir = File.createTempFile("instasearch", "index");
+		indexDir.delete();
+		indexDir.mkdirs();
+	}
+
+	@After
+	public void deleteIndexDir()
+	{
+		for(File file: indexDir.listFiles())
+			file.delete();
+
+		indexDir.delete();
+	}
+
+	@Test
+	public void testChooseMode()
+	{
+		long small = IndexDirectoryProvider.MAX_MMAP_SIZE_32BIT;
+		long large = small + 1;
+
+		assertEquals(Mode.MMAP, IndexDirectoryProvider.chooseMode(false, true, false, large));
+		assertEquals(Mode.MMAP, IndexDirectoryProvider.chooseMode(false, false, false, small));
+		assertEquals(Mode.NIO, IndexDirectoryProvider.chooseMode(false, false, false, large));
+		assertEquals(Mode.MMAP, IndexDirectoryProvider.chooseMode(true, true, true, large));
+		assertEquals(Mode.SIMPLE, IndexDirectoryProvider.chooseMode(true, true, false, small)); // files couldn't be deleted
+		assertEquals(Mode.SIMPLE, IndexDirectoryProvider.chooseMode(true, false, true, large));
+
+		assertEquals(Mode.NIO, Mode.getByName("nio"));
+		assertEquals(Mode.AUTO, Mode.getByName("unknown"));
+	}
+
+	@Test
+	public void testSharedDirectory() throws Exception
+	{
+		IndexDirectoryProvider provider = new IndexDirectoryProvider(Mode.NIO);
+		Directory dir = provider.getDirectory(indexDir);
+
+		assertTrue(dir instanceof NIOFSDirectory);
+		assertSame(dir, provider.getDirectory(indexDir));
+
+		provider.setMode(Mode.SIMPLE);
+		assertSame(dir, provider.getDirectory(indexDir)); // still used by the current generation
+
+		File newLocation = new File(indexDir, "gen-2");
+		assertTrue(provider.getDirectory(newLocation) instanceof SimpleFSDirectory);
+
+		assertEquals(1, provider.closeDirectoriesExcept(newLocation));
+		Directory simpleDir = provider.getDirectory(indexDir);
+		assertNotSame(dir, simpleDir);
+		assertTrue(simpleDir instanceof SimpleFSDirectory);
+
+		provider.setMode(Mode.MMAP);
+		provider.closeDirectory(indexDir);
+		assertTrue(provider.getDirectory(indexDir) instanceof MMapDirectory);
+
+		provider.setMode(Mode.AUTO);
+		provider.closeDirectory(indexDir);
+		assertTrue(provider.getDirectory(indexDir) != null);
+	}
+
+	@Test
+	public void testSameHitsInAllModes() throws Exception
+	{
+		createIndex();
+		int expectedHits = -1;
+
+		for(Mode mode: new Mode[]{Mode.MMAP, Mode.NIO, Mode.SIMPLE})
+		{
+			Directory dir = IndexDirectoryProvider.createDirectory(mode, indexDir);
+			IndexReader reader = IndexReader.open(dir, true);
+			IndexSearcher searcher = new IndexSearcher(reader);
+
+			int hits = search(searcher);
+			assertTrue(hits > 0);
+
+			if( expectedHits == -1 )
+				expectedHits = hits;
+
+			assertEquals(mode.toString(), expectedHits, hits);
+
+			searcher.close();
+			reader.close();
+			dir.close();
+		}
+	}
+
+	private int search(IndexSearcher searcher) throws Exception
+	{
+		int hits = 0;
+
+		for(int i = 0; i < QUERIES; i++)
+			hits += searcher.search(new TermQuery(new Term("contents", "w" + (i * 31) % WORDS)), 10).totalHits;
+
+		return hits;
+	}
+
+	private void createIndex() throws Exception
+	{
+		Directory dir = IndexDirectoryProvider.createDirectory(Mode.SIMPLE, indexDir);
+		IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+		StringBuilder contents = new StringBuilder();
+
+		for(int docId = 0; docId < DOCS; docId++)
+		{
+			contents.setLength(0);
+
+			for(int i = 0; i < 50; i++)
+				contents.append('w').append((docId * 7 + i * 13) % WORDS).append(' ');
+
+			Document doc = new Document();
+			doc.add(new org.apache.lucene.document.Field("contents", contents.toString(),
+					org.apache.lucene.document.Field.Store.YES, org.apache.lucene.document.Field.Index.ANALYZED));
+			writer.addDocument(doc);
+		}
+
+		writer.optimize();
+		writer.close();
+		dir.close();
+	}
+}
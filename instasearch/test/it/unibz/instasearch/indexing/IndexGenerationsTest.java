@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for IndexGenerations
+ */
+public class IndexGenerationsTest
+{
+	private File baseDir;
+
+	@Before
+	public void createBaseDir() throws Exception
+	{
+		baseDir = File.createTempFile("instasearch", "index");
+		baseDir.delete();
+		baseDir.mkdirs();
+	}
+
+	@After
+	public void deleteBaseDir()
+	{
+		for(File file: baseDir.listFiles())
+		{
+			if( file.isDirectory() )
+				for(File child: file.listFiles())
+					child.delete();
+
+			file.delete();
+		}
+
+		baseDir.delete();
+	}
+
+	@Test
+	public void testGenerations() throws Exception
+	{
+		File legacyFile = new File(baseDir, "segments.gen"); // index of an older version
+		legacyFile.createNewFile();
+
+		IndexGenerations generations = new IndexGenerations(baseDir);
+		assertEquals(baseDir, generations.getCurrentDir());
+		assertEquals(0, generations.deleteOldGenerations());
+		assertTrue(legacyFile.exists());
+
+		File first = generations.createGeneration();
+		assertEquals(baseDir, generations.getCurrentDir()); // not published yet
+
+		generations.publish(first);
+		assertEquals(first, generations.getCurrentDir());
+		assertEquals(0, generations.deleteOldGenerations());
+		assertFalse(legacyFile.exists());
+
+		File aborted = generations.createGeneration();
+		new File(aborted, "_0.cfs").createNewFile();
+
+		generations = new IndexGenerations(baseDir); // restart
+		assertEquals(first, generations.getCurrentDir());
+
+		File second = generations.createGeneration();
+		assertFalse(second.equals(aborted));
+
+		generations.publish(second);
+		assertEquals(second, generations.getCurrentDir());
+		assertEquals(2, generations.deleteOldGenerations()); // first and aborted
+		assertFalse(first.exists());
+		assertFalse(aborted.exists());
+
+		assertEquals(second, new IndexGenerations(baseDir).getCurrentDir());
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import it.unibz.instasearch.indexing.IndexManifest.FileStamp;
+
+import java.io.InputStream;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.eclipse.core.runtime.CoreException;
+import org.junit.Test;
+
+/**
+ * Unit test for IndexManifest and the schema version of the index
+ */
+public class IndexManifestTest
+{
+	private static final String CONTENTS = "public class Test {}";
+
+	@Test
+	public void testManifest() throws Exception
+	{
+		StorageIndexer indexer = new StorageIndexer();
+		IndexWriter writer = indexer.createIndexWriter(true);
+		indexer.indexStorage(writer, new TestStorage("/proj/Test.java", CONTENTS), "proj", 100, null);
+		indexer.indexStorage(writer, new TestStorage("/proj/lib.jar/Lib.java", CONTENTS), "proj", 100, "/proj/lib.jar");
+		writer.close();
+
+		IndexReader reader = IndexReader.open(indexer.getIndexDir(), true);
+		IndexManifest manifest = IndexManifest.read(reader);
+		reader.close();
+
+		assertEquals(1, manifest.size()); // JAR entries are not included
+		assertFalse(manifest.contains("/proj/lib.jar/Lib.java"));
+
+		FileStamp stamp = manifest.remove("/proj/Test.java");
+		assertEquals(100, stamp.getModificationStamp());
+		assertEquals(CONTENTS.length(), stamp.getSize());
+		assertEquals(0, manifest.size());
+		assertNull(manifest.remove("/proj/Test.java"));
+
+		String changedContents = CONTENTS.replace("Test", "Best");
+		int size = CONTENTS.length();
+
+		assertTrue(IndexManifest.isUnchanged(stamp, new TestStorage("/proj/Test.java", CONTENTS), 100, size));
+		assertTrue(IndexManifest.isUnchanged(stamp, new TestStorage("/proj/Test.java", CONTENTS), 200, size)); // only touched
+		assertFalse(IndexManifest.isUnchanged(stamp, new TestStorage("/proj/Test.java", changedContents), 200, size));
+		assertFalse(IndexManifest.isUnchanged(stamp, new TestStorage("/proj/Test.java", CONTENTS + " "), 200, size + 1));
+		assertFalse(IndexManifest.isUnchanged(null, new TestStorage("/proj/Test.java", CONTENTS), 100, size));
+	}
+
+	@Test
+	public void testStampWhileIndexing() throws Exception
+	{
+		final int[] reads = {0};
+		String largeContents = CONTENTS + "\n" + CONTENTS + "\n" + CONTENTS;
+		
+		StorageIndexer indexer = new StorageIndexer();
+		indexer.setChunkSize(CONTENTS.length()); // three chunks
+		IndexWriter writer = indexer.createIndexWriter(true);
+		indexer.indexStorage(writer, new TestStorage("/proj/Large.java", largeContents) {
+			@Override
+			public InputStream getContents() throws CoreException {
+				reads[0]++;
+				return super.getContents();
+			}
+		}, "proj", 100, null);
+		indexer.indexStorage(writer, new TestStorage("/proj/lib.so", "value\0"), "proj", 100, null);
+		writer.close();
+		
+		assertEquals(1, reads[0]); // hashed while indexing
+		
+		IndexReader reader = IndexReader.open(indexer.getIndexDir(), true);
+		IndexManifest manifest = IndexManifest.read(reader);
+		assertEquals(4, reader.numDocs());
+		reader.close();
+		
+		FileStamp stamp = manifest.remove("/proj/Large.java"); // from the last chunk
+		assertEquals(largeContents.length(), stamp.getSize());
+		assertEquals(IndexManifest.computeStamp(new TestStorage("/proj/Large.java", largeContents), 100).getHash(), stamp.getHash());
+		
+		FileStamp binaryStamp = manifest.remove("/proj/lib.so"); // contents not read
+		assertNull(binaryStamp.getHash());
+		assertTrue(IndexManifest.isUnchanged(binaryStamp, new TestStorage("/proj/lib.so", ""), 100, 6));
+		assertFalse(IndexManifest.isUnchanged(binaryStamp, new TestStorage("/proj/lib.so", ""), 200, 6));
+	}
+
+	@Test
+	public void testSchemaVersion() throws Exception
+	{
+		StorageIndexer indexer = new StorageIndexer();
+		IndexWriter writer = indexer.createIndexWriter(true);
+		indexer.indexStorage(writer, new TestStorage("/proj/Test.java", CONTENTS), "proj", 100, null);
+		writer.close();
+
+		assertFalse(indexer.isSchemaCurrent()); // index of an older version
+
+		writer = indexer.createIndexWriter(true); // rebuild
+		indexer.indexStorage(writer, new TestStorage("/proj/Test.java", CONTENTS), "proj", 100, null);
+		StorageIndexer.commitSchemaVersion(writer);
+		writer.close();
+		assertTrue(indexer.isSchemaCurrent());
+
+		IndexWriterSession session = indexer.openSession(); // later commits keep the version
+		session.deleteFile("/proj/Other.java");
+		session.close();
+		assertTrue(indexer.isSchemaCurrent());
+
+		indexer.deleteStorage(new TestStorage("/proj/Test.java", CONTENTS));
+		assertTrue(indexer.isSchemaCurrent());
+	}
+}
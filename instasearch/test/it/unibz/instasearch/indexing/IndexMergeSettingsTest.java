@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LogByteSizeMergePolicy;
+import org.junit.Test;
+
+/**
+ * Unit test for IndexMergeSettings and IndexWriteStats
+ */
+public class IndexMergeSettingsTest
+{
+	private static final int FILES = 300;
+	private static final int BATCHES = 40;
+	private static final int FILES_PER_BATCH = 5;
+
+	@Test
+	public void testNeedsOptimize()
+	{
+		IndexMergeSettings settings = new IndexMergeSettings();
+
+		assertFalse(settings.needsOptimize(0, 0));
+		assertFalse(settings.needsOptimize(100, 20));
+		assertTrue(settings.needsOptimize(100, 21));
+
+		settings.setMaxDeletedRatio(0.5);
+		assertFalse(settings.needsOptimize(100, 21));
+
+		settings.setSegmentsPerLevel(1);
+		assertEquals(2, settings.getSegmentsPerLevel());
+	}
+
+	@Test
+	public void testWriteStats()
+	{
+		IndexWriteStats stats = new IndexWriteStats();
+		long hour = 60 * 60 * 1000;
+
+		stats.record(0, 100);
+		stats.record(hour / 2, 50);
+		assertEquals(150, stats.getBytesPerHour(hour / 2));
+		assertEquals(50, stats.getBytesPerHour(hour + 1)); // first write expired
+		assertEquals(150, stats.getTotalBytes());
+	}
+
+	@Test
+	public void testUpdateBatches() throws Exception
+	{
+		StorageIndexer indexer = createIndex();
+		long startBytes = indexer.getWriteStats().getTotalBytes();
+
+		for(int batch = 0; batch < BATCHES; batch++)
+			updateBatch(indexer, batch);
+
+		assertTrue(indexer.getWriteStats().getTotalBytes() > startBytes);
+
+		IndexReader reader = IndexReader.open(indexer.getIndexDir(), true);
+		int segments = reader.getSequentialSubReaders().length;
+		assertEquals(FILES, reader.numDocs());
+		assertFalse(indexer.getMergeSettings().needsOptimize(reader));
+		reader.close();
+
+		assertTrue("segments " + segments, segments <= 2 * IndexMergeSettings.DEFAULT_SEGMENTS_PER_LEVEL);
+		assertFalse(indexer.optimizeIndexIfNeeded());
+	}
+
+	@Test
+	public void testApply() throws Exception
+	{
+		StorageIndexer indexer = new StorageIndexer();
+		indexer.getMergeSettings().setSegmentsPerLevel(4);
+		indexer.getMergeSettings().setMaxMergeMB(64);
+		IndexWriter writer = indexer.createIndexWriter(true);
+
+		LogByteSizeMergePolicy mergePolicy = (LogByteSizeMergePolicy) writer.getMergePolicy();
+		assertEquals(4, mergePolicy.getMergeFactor());
+		assertEquals(64, mergePolicy.getMaxMergeMB(), 0);
+
+		ConcurrentMergeScheduler mergeScheduler = (ConcurrentMergeScheduler) writer.getMergeScheduler();
+		assertEquals(1, mergeScheduler.getMaxThreadCount());
+		assertEquals(Thread.MIN_PRIORITY, mergeScheduler.getMergeThreadPriority());
+
+		writer.close();
+	}
+
+	private static StorageIndexer createIndex() throws Exception
+	{
+		StorageIndexer indexer = new StorageIndexer();
+		indexer.createIndexWriter(true).close();
+
+		IndexWriterSession session = indexer.openSession();
+
+		for(int i = 0; i < FILES; i++)
+			indexer.indexStorage(session.getIndexWriter(), createStorage(i, 0), "proj", 1, null);
+
+		session.close();
+
+		return indexer;
+	}
+
+	private static void updateBatch(StorageIndexer indexer, int batch) throws Exception
+	{
+		IndexWriterSession session = indexer.openSession();
+
+		for(int i = 0; i < FILES_PER_BATCH; i++)
+		{
+			TestStorage storage = createStorage((batch * FILES_PER_BATCH + i) % FILES, batch + 1);
+			session.deleteStorage(storage);
+			indexer.indexStorage(session.getIndexWriter(), storage, "proj", batch + 2, null);
+		}
+
+		session.close();
+	}
+
+	private static TestStorage createStorage(int file, int version)
+	{
+		StringBuilder contents = new StringBuilder();
+
+		for(int line = 0; line < 50; line++)
+			contents.append("int value").append(line).append(" = computeValue(").append(file * 31 + line)
+					.append(", version").append(version).append(");\n");
+
+		return new TestStorage("/proj/File" + file + ".java", contents.toString());
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.TermDocs;
+import org.junit.Test;
+
+/**
+ * Unit test for folder deletion in IndexWriterSession
+ */
+public class IndexWriterSessionTest
+{
+	private static final int FOLDER_FILES = 500;
+	private static final int OTHER_FILES = 100;
+
+	@Test
+	public void testDeleteFolder() throws Exception
+	{
+		StorageIndexer indexer = new StorageIndexer();
+		IndexWriter writer = indexer.createIndexWriter(true);
+		indexer.indexStorage(writer, new TestStorage("/proj/src/A.java", "a"), "proj", 1, null);
+		indexer.indexStorage(writer, new TestStorage("/proj/src/sub/B.java", "b"), "proj", 1, null);
+		indexer.indexStorage(writer, new TestStorage("/proj/src2/C.java", "c"), "proj", 1, null);
+		indexer.indexStorage(writer, new TestStorage("/proj/Src.java", "d"), "proj", 1, null);
+		writer.close();
+
+		IndexWriterSession session = indexer.openSession();
+		indexer.indexStorage(session.getIndexWriter(), new TestStorage("/proj/src/New.java", "e"), "proj", 1, null); // not committed yet
+
+		session.deleteFolder("/proj/src");
+		indexer.indexStorage(session.getIndexWriter(), new TestStorage("/proj/src/A.java", "a"), "proj", 2, null); // added after the delete, kept
+		session.close();
+
+		IndexReader reader = IndexReader.open(indexer.getIndexDir(), true);
+		assertEquals(3, reader.numDocs());
+		assertEquals(1, countDocs(reader, "/proj/src/A.java"));
+		assertEquals(0, countDocs(reader, "/proj/src/sub/B.java"));
+		assertEquals(0, countDocs(reader, "/proj/src/New.java"));
+		assertEquals(1, countDocs(reader, "/proj/src2/C.java"));
+		assertEquals(1, countDocs(reader, "/proj/Src.java"));
+		reader.close();
+	}
+
+	@Test
+	public void testDeleteLargeFolder() throws Exception
+	{
+		StorageIndexer indexer = createIndex();
+
+		IndexWriterSession session = indexer.openSession();
+		session.deleteFolder("/proj/big");
+		session.close();
+
+		assertEquals(OTHER_FILES, countDocs(indexer));
+	}
+
+	private static int countDocs(StorageIndexer indexer) throws Exception
+	{
+		IndexReader reader = IndexReader.open(indexer.getIndexDir(), true);
+		int numDocs = reader.numDocs();
+		reader.close();
+
+		return numDocs;
+	}
+
+	private static int countDocs(IndexReader reader, String filePath) throws Exception
+	{
+		TermDocs termDocs = reader.termDocs(Field.FILE.createTerm(filePath)); // skips deleted documents
+		int count = 0;
+
+		while( termDocs.next() )
+			count++;
+
+		termDocs.close();
+
+		return count;
+	}
+
+	private static StorageIndexer createIndex() throws Exception
+	{
+		StorageIndexer indexer = new StorageIndexer();
+		IndexWriter writer = indexer.createIndexWriter(true);
+
+		for(int i = 0; i < FOLDER_FILES; i++)
+			indexer.indexStorage(writer, new TestStorage("/proj/big/pkg" + i % 10 + "/File" + i + ".java", "int x" + i + ";"), "proj", 1, null);
+
+		for(int i = 0; i < OTHER_FILES; i++)
+			indexer.indexStorage(writer, new TestStorage("/proj/other/File" + i + ".java", "int y" + i + ";"), "proj", 1, null);
+
+		writer.optimize();
+		writer.close();
+
+		return indexer;
+	}
+}
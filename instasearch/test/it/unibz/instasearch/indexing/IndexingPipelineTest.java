@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import it.unibz.instasearch.indexing.IndexingPipeline.FileProcessor;
+import it.unibz.instasearch.indexing.IndexingPipeline.PipelineFile;
+import it.unibz.instasearch.indexing.IndexingPipeline.StageMetrics;
+
+import java.util.Random;
+
+import org.apache.lucene.index.IndexWriter;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.junit.Test;
+
+/**
+ * Unit test for IndexingPipeline.
+ * Builds the index with different numbers of indexing threads
+ * on a workspace where most files are in one folder
+ */
+public class IndexingPipelineTest
+{
+	private static final int FILE_COUNT = 500;
+	private static final int LINES_PER_FILE = 100;
+	private static final int DISTINCT_CONTENTS = 25;
+
+	private static final String[] WORDS = {"public", "class", "getValue", "setValue", "indexWriter",
+		"String", "return", "IndexReader", "CamelCaseIdentifier", "HTTP_REFERER", "my.package.name",
+		"body-css-style", "for", "int", "new", "searchResultDoc", "Term", "docFreq", "List<Integer>"};
+
+	@Test
+	public void testThreadCounts() throws Exception
+	{
+		String[] contents = createContents();
+
+		for(int threads: new int[]{1, 2, 4, 8})
+		{
+			IndexingPipeline pipeline = new IndexingPipeline(64);
+			int numDocs = buildIndex(pipeline, threads, contents);
+
+			assertEquals(FILE_COUNT, numDocs);
+			assertEquals(FILE_COUNT, pipeline.getCompletedFiles());
+		}
+	}
+
+	@Test
+	public void testSkippedFiles() throws Exception
+	{
+		IndexingPipeline pipeline = new IndexingPipeline(4);
+		CountingProcessor last = new CountingProcessor();
+
+		pipeline.addStage("filter", 2, new FileProcessor() {
+			public PipelineFile process(PipelineFile file) throws Exception {
+				return file.getStorage().getName().endsWith(".java") ? file : null;
+			}
+		});
+		pipeline.addStage("count", 1, last);
+		pipeline.start();
+
+		NullProgressMonitor monitor = new NullProgressMonitor();
+
+		for(int i = 0; i < 100; i++)
+		{
+			String path = "/proj/File" + i + (i % 4 == 0 ? ".java" : ".class");
+			assertTrue(pipeline.submit(new PipelineFile(new TestStorage(path, ""), "proj", i), monitor));
+		}
+
+		pipeline.finish(monitor);
+
+		assertEquals(25, last.count);
+		assertEquals(100, pipeline.getSubmittedFiles());
+		assertEquals(100, pipeline.getCompletedFiles());
+
+		StageMetrics filter = pipeline.getStageMetrics().get(0);
+		assertEquals(100, filter.getProcessed()); // including skipped
+		assertEquals(75, filter.getSkipped());
+		assertEquals(2, filter.getThreadCount());
+		assertTrue(filter.getMaxQueueDepth() <= 4);
+		assertEquals(25, pipeline.getStageMetrics().get(1).getProcessed());
+	}
+
+	@Test
+	public void testStageFailure() throws Exception
+	{
+		IndexingPipeline pipeline = new IndexingPipeline(4);
+
+		pipeline.addStage("fail", 1, new FileProcessor() {
+			public PipelineFile process(PipelineFile file) throws Exception {
+				if( file.getModificationStamp() == 10 )
+					throw new IllegalStateException("cannot read " + file.getStorage().getName());
+				return file;
+			}
+		});
+		pipeline.addStage("count", 1, new CountingProcessor());
+		pipeline.start();
+
+		NullProgressMonitor monitor = new NullProgressMonitor();
+		int submitted = 0;
+
+		for(int i = 0; i < 1000 && pipeline.submit(new PipelineFile(new TestStorage("/proj/F" + i, ""), "proj", i), monitor); i++)
+			submitted++;
+
+		assertTrue(pipeline.isStopped());
+		assertTrue(submitted < 1000); // traversal stops early
+
+		try {
+			pipeline.finish(monitor);
+			fail("failure not thrown");
+		} catch(IllegalStateException e) {
+			assertEquals("cannot read F10", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testLoadBudget() throws Exception
+	{
+		LoadBudget budget = new LoadBudget(100);
+
+		int first = budget.reserve(60, 0);
+		assertEquals(60, first);
+		assertEquals(-1, budget.reserve(60, 10)); // waits for the index stage
+
+		LoadedStorage loaded = LoadedStorage.load(new TestStorage("/proj/File.java", "class File"), budget, first);
+		loaded.release();
+		loaded.release(); // only once
+		assertEquals(100, budget.getAvailable());
+
+		assertEquals(100, budget.reserve(1000, 0)); // larger than the budget, takes all of it
+		assertEquals(0, budget.getAvailable());
+		budget.release(100);
+	}
+
+	private static int buildIndex(IndexingPipeline pipeline, int threads, String[] contents) throws Exception
+	{
+		final StorageIndexer indexer = new StorageIndexer();
+		final IndexWriter writer = indexer.createIndexWriter(true);
+
+		pipeline.addStage("read", Math.max(1, threads/2), new FileProcessor() {
+			public PipelineFile process(PipelineFile file) throws Exception {
+				return new PipelineFile(LoadedStorage.load(file.getStorage()), file.getProjectName(), file.getModificationStamp());
+			}
+		});
+		pipeline.addStage("index", threads, new FileProcessor() {
+			public PipelineFile process(PipelineFile file) throws Exception {
+				indexer.indexStorage(writer, file.getStorage(), file.getProjectName(), file.getModificationStamp(), null);
+				return file;
+			}
+		});
+		pipeline.start();
+
+		NullProgressMonitor monitor = new NullProgressMonitor();
+
+		for(int f = 0; f < FILE_COUNT; f++)
+		{
+			String folder = (f < FILE_COUNT * 9/10) ? "big" : "small" + f % 10; // one folder holds most files
+			String path = "/proj/" + folder + "/File" + f + ".java";
+
+			pipeline.submit(new PipelineFile(new TestStorage(path, contents[f % contents.length]), "proj", 0), monitor);
+		}
+
+		pipeline.finish(monitor);
+
+		int numDocs = writer.numDocs();
+		writer.close();
+
+		return numDocs;
+	}
+
+	private static String[] createContents()
+	{
+		Random random = new Random(42);
+		String[] contents = new String[DISTINCT_CONTENTS];
+
+		for(int f = 0; f < contents.length; f++)
+		{
+			StringBuilder sb = new StringBuilder();
+
+			for(int line = 0; line < LINES_PER_FILE; line++)
+			{
+				for(int w = 0; w < 8; w++)
+					sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+
+				sb.append('\n');
+			}
+
+			contents[f] = sb.toString();
+		}
+
+		return contents;
+	}
+
+	private static class CountingProcessor implements FileProcessor
+	{
+		private int count = 0;
+
+		public PipelineFile process(PipelineFile file) throws Exception {
+			count++; // single thread
+			return file;
+		}
+	}
+}
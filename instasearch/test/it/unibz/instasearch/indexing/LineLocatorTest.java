@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.junit.Test;
+
+/**
+ * Unit test for LineLocator and term offsets of result docs
+ */
+public class LineLocatorTest
+{
+	private static final String CONTENTS = "first line\r\nsecond target\n\nthird\rfourth target line\nlast target";
+
+	@Test
+	public void testReadLines() throws Exception
+	{
+		int[] offsets = {CONTENTS.indexOf("second"), CONTENTS.indexOf("fourth"), CONTENTS.indexOf("last")};
+		Map<Integer, String> lines = LineLocator.readLines(new StringReader(CONTENTS), offsets, 100);
+
+		assertEquals("{2=second target, 5=fourth target line, 6=last target}", lines.toString());
+
+		lines = LineLocator.readLines(new StringReader(CONTENTS), offsets, 1);
+		assertEquals("{2=second target}", lines.toString());
+	}
+
+	@Test
+	public void testTermOffsets() throws Exception
+	{
+		StorageIndexer indexer = new StorageIndexer();
+		IndexWriter writer = indexer.createIndexWriter(true);
+		indexer.indexStorage(writer, new TestStorage("/proj/file.txt", CONTENTS), "proj", 0, null);
+		writer.close();
+
+		Directory dir = indexer.getIndexDir();
+		SearchResult result = new TestSearcher(dir).search(new SearchQuery("target", SearchQuery.UNLIMITED_RESULTS));
+		SearchResultDoc doc = result.getResultDocs().get(0);
+
+		int[] offsets = doc.getTermOffsets(Arrays.asList("target"));
+		Map<Integer, String> lines = LineLocator.readLines(new StringReader(CONTENTS), offsets, 100);
+
+		assertEquals("[2, 5, 6]", lines.keySet().toString());
+
+		result.release();
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermAttribute;
+import org.junit.Test;
+
+/**
+ * Unit test for LineTerms
+ */
+public class LineTermsTest
+{
+	private static final String[] LINES = {
+		"public static LineTerms extract(Analyzer analyzer, String text) throws IOException",
+		"redirect($_POST['HTTP_REFERER']); // my.package.name body-css-style",
+		"\tint termIndex = addTerm(termAtt.termBuffer(), termAtt.termLength()); // already lower case",
+		"String s = \"idlTypeForNonGeneratedPorts\"; s = s + s;"
+	};
+
+	@Test
+	public void testTermsAndOffsets() throws Exception
+	{
+		for(String line: LINES)
+		{
+			Map<String, List<Integer>> expected = extractTermMap(line);
+			LineTerms lineTerms = StorageIndexer.extractTextTerms(line);
+
+			assertEquals(line, expected, toMap(lineTerms));
+		}
+
+		LineTerms lineTerms = StorageIndexer.extractTextTerms("");
+		assertEquals(true, lineTerms.isEmpty());
+
+		lineTerms = StorageIndexer.extractTextTerms("get getValue get");
+		assertEquals(0, lineTerms.indexOf("get"));
+		assertEquals(-1, lineTerms.indexOf("set"));
+		assertEquals("[get, getvalue, value]", lineTerms.getTerms().toString());
+	}
+
+	@Test
+	public void testRepeatedExtraction() throws Exception
+	{
+		for(int i = 0; i < LINES.length * 3; i++) // the line terms of the thread are reused
+		{
+			String line = LINES[i % LINES.length];
+			assertEquals(line, extractTermMap(line), toMap(StorageIndexer.extractTextTerms(line)));
+		}
+	}
+
+	private static Map<String, List<Integer>> toMap(LineTerms lineTerms)
+	{
+		Map<String, List<Integer>> terms = new HashMap<String, List<Integer>>();
+
+		for(int token = 0; token < lineTerms.getTokenCount(); token++)
+		{
+			String term = lineTerms.getTerms().get(lineTerms.getTokenTerm(token));
+
+			if( !terms.containsKey(term) )
+				terms.put(term, new ArrayList<Integer>());
+
+			terms.get(term).add(lineTerms.getTokenOffset(token));
+		}
+
+		return terms;
+	}
+
+	/**
+	 * Term extraction with a new token stream and a map of offset lists for each line
+	 */
+	private static Map<String, List<Integer>> extractTermMap(String text) throws IOException
+	{
+		Map<String, List<Integer>> terms = new HashMap<String, List<Integer>>();
+		TokenStream tokenStream = new FileAnalyzer(StorageIndexer.MIN_WORD_LENGTH).tokenStream(new StringReader(text));
+
+		TermAttribute termAtt = (TermAttribute) tokenStream.addAttribute(TermAttribute.class);
+		OffsetAttribute offsetAtt = (OffsetAttribute) tokenStream.addAttribute(OffsetAttribute.class);
+
+		while(tokenStream.incrementToken())
+		{
+			List<Integer> offsets = terms.get(termAtt.term());
+
+			if( offsets == null ) {
+				offsets = new LinkedList<Integer>();
+				terms.put(termAtt.term(), offsets);
+			}
+
+			offsets.add(offsetAtt.startOffset());
+		}
+		tokenStream.close();
+
+		return terms;
+	}
+}
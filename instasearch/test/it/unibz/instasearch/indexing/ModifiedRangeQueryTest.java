@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import static org.junit.Assert.assertEquals;
+import it.unibz.instasearch.indexing.querying.ModifiedTimeConverter;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.junit.Test;
+
+/**
+ * Unit test for the numeric modified field
+ */
+public class ModifiedRangeQueryTest
+{
+	private static final long FIRST_STAMP = 1262304000000L; // 2010-01-01
+	private static final long STAMP_STEP = 60000; // a distinct minute per file
+
+	@Test
+	public void testRangeAndFieldCache() throws Exception
+	{
+		StorageIndexer indexer = new StorageIndexer();
+		IndexWriter writer = indexer.createIndexWriter(true);
+
+		for(int i = 0; i < 100; i++)
+			indexer.indexStorage(writer, new TestStorage("/proj/File" + i + ".java", "int x;"), "proj", FIRST_STAMP + i*STAMP_STEP, null);
+
+		writer.commit();
+
+		for(int i = 100; i < 150; i++) // in another segment
+			indexer.indexStorage(writer, new TestStorage("/proj/File" + i + ".java", "int x;"), "proj", FIRST_STAMP + i*STAMP_STEP, null);
+
+		writer.close();
+
+		IndexReader reader = IndexReader.open(indexer.getIndexDir(), true);
+		IndexSearcher searcher = new IndexSearcher(reader);
+
+		assertEquals(150, count(searcher, ModifiedTimeConverter.createRangeQuery(FIRST_STAMP, Long.MAX_VALUE)));
+		assertEquals(11, count(searcher, ModifiedTimeConverter.createRangeQuery(FIRST_STAMP + 95*STAMP_STEP, FIRST_STAMP + 105*STAMP_STEP)));
+		assertEquals(0, count(searcher, ModifiedTimeConverter.createRangeQuery(0, FIRST_STAMP - 1)));
+
+		ResultReader resultReader = new ResultReader(new DocFreqCache(reader));
+
+		for(int docId = 0; docId < reader.maxDoc(); docId++)
+		{
+			long stored = Long.parseLong(reader.document(docId).get(Field.MODIFIED.toString()));
+			assertEquals(stored, resultReader.getModificationStamp(docId));
+		}
+
+		resultReader.release();
+		searcher.close();
+		reader.close();
+	}
+
+	@Test
+	public void testSortRecentFirst() throws Exception
+	{
+		StorageIndexer indexer = new StorageIndexer();
+		IndexWriter writer = indexer.createIndexWriter(true);
+		long[] stamps = {300, 100, 500, 200, 400};
+
+		for(int i = 0; i < stamps.length; i++)
+			indexer.indexStorage(writer, new TestStorage("/proj/File" + i + ".java", ""), "proj", stamps[i], null);
+
+		writer.close();
+
+		IndexReader reader = IndexReader.open(indexer.getIndexDir(), true);
+		ResultReader resultReader = new ResultReader(new DocFreqCache(reader));
+
+		ScoreDoc[] hits = {new ScoreDoc(3, 2f), new ScoreDoc(0, 1f), new ScoreDoc(1, 1f), new ScoreDoc(2, 1f), new ScoreDoc(4, 0.5f)};
+		Searcher.sortRecentFirst(hits, resultReader);
+
+		int[] expected = {3, 2, 0, 1, 4}; // equal scores ordered by time
+
+		for(int i = 0; i < hits.length; i++)
+			assertEquals(expected[i], hits[i].doc);
+
+		resultReader.release();
+		reader.close();
+	}
+
+	private static int count(IndexSearcher searcher, Query query) throws Exception
+	{
+		TopDocs topDocs = searcher.search(query, 1);
+		return topDocs.totalHits;
+	}
+}
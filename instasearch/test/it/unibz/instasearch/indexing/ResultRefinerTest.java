@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.index.IndexWriter;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that refined results are the same as results of a full search
+ */
+public class ResultRefinerTest
+{
+	private static final int FILE_COUNT = 2000;
+	private static final int LINES_PER_FILE = 20;
+	private static final int SHOWN_FILES_COUNT = 25; // as in the view
+	private static final String[] TYPED_QUERIES = {"index writer", "search result documents", "query parser"};
+
+	private static final String[] WORDS = {"index", "indexer", "indexing", "writer", "written", "search",
+		"searcher", "result", "results", "document", "documents", "docs", "query", "queries", "parser", "parse",
+		"public", "class", "return", "value", "field", "term", "terms", "reader", "filter"};
+
+	private static StorageIndexer indexer;
+
+	@BeforeClass
+	public static void indexFiles() throws Exception
+	{
+		indexer = new StorageIndexer();
+		IndexWriter writer = indexer.createIndexWriter(true);
+		Random random = new Random(42);
+
+		for(int f = 0; f < FILE_COUNT; f++)
+		{
+			StringBuilder sb = new StringBuilder();
+
+			for(int line = 0; line < LINES_PER_FILE; line++)
+			{
+				for(int w = 0; w < 6; w++)
+					sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+
+				sb.append('\n');
+			}
+
+			indexer.indexStorage(writer, new TestStorage("/proj/folder/File" + f + ".java", sb.toString()), "proj", 0, null);
+		}
+
+		writer.close();
+	}
+
+	@Test
+	public void testRefinable()
+	{
+		ResultRefiner refiner = new ResultRefiner(3);
+
+		assertTrue(refiner.isRefinable(query("index writ")));
+		assertFalse(refiner.isRefinable(query("index"))); // also searches file names
+		assertFalse(refiner.isRefinable(query("index Writer"))); // can be split into several terms
+		assertFalse(refiner.isRefinable(query("index the"))); // stop word
+		assertFalse(refiner.isRefinable(query("name:index writer")));
+
+		SearchQuery fuzzyQuery = query("index writ");
+		fuzzyQuery.setFuzzy(true);
+		assertFalse(refiner.isRefinable(fuzzyQuery));
+	}
+
+	@Test
+	public void testTyping() throws Exception
+	{
+		TestSearcher fullSearcher = new TestSearcher(indexer.getIndexDir());
+		fullSearcher.setRefineResults(false);
+
+		TestSearcher refiningSearcher = new TestSearcher(indexer.getIndexDir());
+
+		type(fullSearcher, refiningSearcher);
+	}
+
+	/**
+	 * Types the queries character by character and compares the results of both searchers
+	 */
+	private static void type(TestSearcher fullSearcher, TestSearcher refiningSearcher) throws Exception
+	{
+		for(String typedQuery: TYPED_QUERIES)
+		{
+			for(int len = Searcher.MIN_QUERY_LENGTH; len <= typedQuery.length(); len++)
+			{
+				String searchString = typedQuery.substring(0, len).trim();
+				List<String> fullResults = search(fullSearcher, searchString);
+				List<String> refinedResults = search(refiningSearcher, searchString);
+
+				assertEquals(searchString, fullResults, refinedResults);
+			}
+		}
+	}
+
+	private static List<String> search(Searcher searcher, String searchString) throws Exception
+	{
+		SearchResult result = searcher.search(query(searchString));
+		List<String> files = new ArrayList<String>();
+
+		if( result != null )
+		{
+			for(SearchResultDoc doc: result.getResultDocs())
+				files.add(doc.getFilePath() + " " + doc.getScore());
+		}
+
+		return files;
+	}
+
+	private static SearchQuery query(String searchString)
+	{
+		SearchQuery searchQuery = new SearchQuery(searchString, SHOWN_FILES_COUNT);
+		searchQuery.setExact(false);
+
+		return searchQuery;
+	}
+}
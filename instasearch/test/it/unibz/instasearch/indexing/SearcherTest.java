@@ -161,6 +161,57 @@ public class SearcherTest
 		assertEquals(numDocs, found.size());
 	}
 	
+	@Test
+	public void testFuzzyTierTimed() throws Exception
+	{
+		SearchTierTimes tierTimes = searcher.getTierTimes();
+		long fuzzySearches = tierTimes.getCount(SearchTierTimes.Tier.FUZZY);
+		
+		assertFileMatches("file5.txt", "attp refered"); // nothing found until the fuzzy search
+		
+		assertEquals(fuzzySearches + 1, tierTimes.getCount(SearchTierTimes.Tier.FUZZY));
+	}
+	
+	@Test
+	public void testTermScores() throws Exception
+	{
+		SearchQuery searchQuery = new SearchQuery("unique", SearchQuery.UNLIMITED_RESULTS);
+		SearchResult result = searcher.search(searchQuery);
+		SearchResultDoc doc = result.getResultDocs().get(0);
+		
+		assertEquals(true, doc.getTermScore("unique") > doc.getTermScore("text")); // rare term has higher idf
+		
+		result.release();
+		result.release(); // can be released twice
+		
+		searchQuery = new SearchQuery("unique", SearchQuery.UNLIMITED_RESULTS);
+		doc = searcher.search(searchQuery).getResultDocs().get(0);
+		
+		assertEquals(1, doc.getMatchCount());
+	}
+	
+	@Test
+	public void testDocFreqsShared() throws Exception
+	{
+		SearchResult result = searcher.search(new SearchQuery("file", SearchQuery.UNLIMITED_RESULTS));
+		DocFreqCache docFreqCache = result.getResultReader().getDocFreqCache();
+		int seeks = docFreqCache.getSeekCount();
+		
+		for(SearchResultDoc doc: result.getResultDocs())
+		{
+			doc.getTermScore("file");
+			doc.getTermScore("text");
+		}
+		
+		result = searcher.search(new SearchQuery("file", SearchQuery.UNLIMITED_RESULTS));
+		
+		for(SearchResultDoc doc: result.getResultDocs())
+			doc.getTermScore("file");
+		
+		assertEquals(docFreqCache, result.getResultReader().getDocFreqCache()); // shared by searches on the same reader
+		assertEquals(seeks + 2, docFreqCache.getSeekCount()); // each term looked up once
+	}
+	
 	private void assertFileMatches(String expectedFile, String searchString, String... otherFiles) throws Exception
 	{
 		List<SearchResultDoc> docs = search(searchString);
@@ -198,6 +249,35 @@ public class SearcherTest
 		assertEquals("Exact query comparison failed", exact, isExact.get());
 	}
 	
+	@Test
+	public void testIndexSwitch() throws Exception
+	{
+		StorageIndexer oldIndexer = new StorageIndexer();
+		IndexWriter writer = oldIndexer.createIndexWriter(true);
+		indexFile(writer, "/proj/old.txt", "previous generation");
+		writer.close();
+		
+		StorageIndexer newIndexer = new StorageIndexer();
+		writer = newIndexer.createIndexWriter(true);
+		indexFile(writer, "/proj/new.txt", "rebuilt generation");
+		writer.close();
+		
+		TestSearcher switchingSearcher = new TestSearcher(oldIndexer.getIndexDir());
+		SearchResult oldResult = switchingSearcher.search(new SearchQuery("generation", SearchQuery.UNLIMITED_RESULTS));
+		
+		switchingSearcher.setIndexDir(newIndexer.getIndexDir());
+		switchingSearcher.onIndexSwitch();
+		
+		SearchResult result = switchingSearcher.search(new SearchQuery("generation", SearchQuery.UNLIMITED_RESULTS));
+		assertEquals("/proj/new.txt", result.getResultDocs().get(0).getFilePath());
+		assertEquals(1, result.getResultDocs().size());
+		
+		assertEquals(false, oldResult.getResultReader().isReleased()); // shown results keep the old reader open
+		assertEquals("/proj/old.txt", oldResult.getResultDocs().get(0).getFilePath());
+		oldResult.release();
+		result.release();
+	}
+	
 	private static void indexTestFiles() throws IOException, CoreException 
 	{	
 		IndexWriter writer = indexer.createIndexWriter(true);
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.indexing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import it.unibz.instasearch.indexing.querying.GramWildcardQuery;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+/**
+ * Unit test for TermGramIndex and GramWildcardQuery
+ */
+public class TermGramIndexTest
+{
+	private static final String[] WORDS = {"get", "set", "string", "buffer", "reader", "index", "term", "query", "handler", "value", "name", "list"};
+
+	@Test
+	public void testGrams()
+	{
+		assertEquals(Arrays.asList("ter"), TermGramIndex.getGrams("*ter*"));
+		assertEquals(Arrays.asList("ind", "nde", "dex"), TermGramIndex.getGrams("index*"));
+		assertEquals(Arrays.asList("Abs"), TermGramIndex.getGrams("Abs*B*C*"));
+		assertEquals(Arrays.asList("aaa"), TermGramIndex.getGrams("aaaa"));
+		assertEquals(0, TermGramIndex.getGrams("*ab?cd*").size());
+	}
+
+	@Test
+	public void testSameMatchesAsWildcardQuery() throws Exception
+	{
+		RAMDirectory dir = createIndex(5000, 4); // several segments
+		IndexReader reader = IndexReader.open(dir, true);
+		IndexSearcher searcher = new IndexSearcher(reader);
+		String[] patterns = {"*term*", "*erm*", "*string*", "*reader1*", "get*", "*buf*ing*", "*e?din*", "*ue1", "*xyz*", "*ab*", "*er*", "*"};
+
+		for(String pattern: patterns)
+		{
+			Term term = Field.CONTENTS.createTerm(pattern);
+			assertEquals(pattern, count(searcher, new WildcardQuery(term)), count(searcher, new GramWildcardQuery(term)));
+		}
+
+		searcher.close();
+		reader.close();
+	}
+
+	@Test
+	public void testGramBudget() throws Exception
+	{
+		RAMDirectory dir = createIndex(1000, 1);
+		IndexReader reader = IndexReader.open(dir, true);
+		IndexReader segment = reader.getSequentialSubReaders()[0];
+		String field = Field.CONTENTS.toString();
+
+		TermGramIndex index = TermGramIndex.getIndex(segment, field);
+		assertTrue(index.hasGrams());
+		assertSame(index, TermGramIndex.getIndex(segment, field)); // built once
+
+		TermGramIndex limitedIndex = new TermGramIndex(segment, field, 100);
+		assertFalse(limitedIndex.hasGrams());
+		assertEquals(0, limitedIndex.getGramCount());
+
+		reader.close();
+	}
+
+	private static int count(IndexSearcher searcher, Query query) throws Exception
+	{
+		return searcher.search(query, 1).totalHits;
+	}
+
+	/**
+	 * @return index of documents with a unique term each, made of two words and a number (eg. getReader42)
+	 */
+	private static RAMDirectory createIndex(int terms, int segments) throws Exception
+	{
+		RAMDirectory dir = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true, MaxFieldLength.UNLIMITED);
+		Random random = new Random(1);
+
+		for(int i = 0; i < terms; i++)
+		{
+			String text = WORDS[random.nextInt(WORDS.length)] + WORDS[random.nextInt(WORDS.length)] + i;
+
+			Document doc = new Document();
+			doc.add(new org.apache.lucene.document.Field(Field.CONTENTS.toString(), text, Store.NO, Index.NOT_ANALYZED_NO_NORMS));
+			writer.addDocument(doc);
+
+			if( (i + 1) % (terms / segments) == 0 )
+				writer.commit();
+		}
+
+		if( segments == 1 )
+			writer.optimize();
+
+		writer.close();
+
+		return dir;
+	}
+}
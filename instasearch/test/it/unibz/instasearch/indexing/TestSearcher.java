@@ -19,8 +19,23 @@ import org.junit.Ignore;
 @Ignore
 public class TestSearcher extends Searcher
 {
+	private TestConfig config;
+	
 	public TestSearcher(final Directory dir) {
-		super(new TestConfig(dir));
+		this(new TestConfig(dir));
+	}
+	
+	private TestSearcher(TestConfig config) {
+		super(config);
+		this.config = config;
+	}
+	
+	/**
+	 * Sets the directory returned by the config, eg. to simulate a rebuild into a new directory
+	 * @param dir
+	 */
+	public void setIndexDir(Directory dir) {
+		config.dir = dir;
 	}
 	
 	@Override
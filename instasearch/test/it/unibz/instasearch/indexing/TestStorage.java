@@ -24,21 +24,16 @@ import org.junit.Ignore;
 public class TestStorage implements IStorage
 {
 	private IPath path;
-	private InputStream contents;
+	private byte[] contents;
 
 	public TestStorage(String fullPath, String contentsText)
-	{
-		this(fullPath, new ByteArrayInputStream(contentsText.getBytes()));
-	}
-	
-	private TestStorage(String fullPath, InputStream contents)
 	{
 		this.path = new Path(fullPath);
-		this.contents = contents;
+		this.contents = contentsText.getBytes();
 	}
 	
 	public InputStream getContents() throws CoreException {
-		return contents;
+		return new ByteArrayInputStream(contents);
 	}
 
 	public IPath getFullPath() {
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.jobs;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit test for ChangeStormDetector
+ */
+public class ChangeStormDetectorTest
+{
+	@Test
+	public void testStorm()
+	{
+		ChangeStormDetector<String> detector = new ChangeStormDetector<String>(3);
+
+		for(int i = 0; i < 3; i++)
+			assertFalse(detector.changed("proj"));
+
+		assertFalse(detector.changed("other"));
+		assertFalse(detector.isStorm("proj"));
+
+		assertTrue(detector.changed("proj")); // 4th change
+		assertTrue(detector.isStorm("proj"));
+		assertFalse(detector.changed("proj")); // reported once
+		assertFalse(detector.isStorm("other"));
+
+		detector.clear();
+		assertFalse(detector.isStorm("proj"));
+		assertFalse(detector.changed("proj"));
+
+		detector.setThreshold(1);
+		assertTrue(detector.changed("proj"));
+	}
+}
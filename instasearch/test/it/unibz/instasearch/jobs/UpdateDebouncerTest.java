@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2009 Andrejs Jermakovics.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Andrejs Jermakovics - initial implementation
+ */
+package it.unibz.instasearch.jobs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.junit.Test;
+
+/**
+ * Unit test for UpdateDebouncer and LatencyHistogram
+ */
+public class UpdateDebouncerTest
+{
+	@Test
+	public void testDebounce()
+	{
+		UpdateDebouncer debouncer = new UpdateDebouncer(500, 5000);
+
+		assertEquals(-1, debouncer.getDelay(0)); // no changes, no update
+
+		assertEquals(500, debouncer.changed(1000));
+		assertEquals(500, debouncer.changed(1300)); // waits for quiet time after the last change
+		assertEquals(200, debouncer.getDelay(1600));
+
+		for(long time = 1300; time < 6000; time += 100) // continuous changes
+			debouncer.changed(time);
+
+		assertEquals(0, debouncer.getDelay(6000)); // capped at 5s after the first change
+		assertEquals(100, debouncer.changed(5900));
+
+		debouncer.clear();
+		assertEquals(-1, debouncer.getDelay(7000));
+		assertEquals(500, debouncer.changed(7000));
+
+		debouncer.setMaxDelay(0);
+		assertEquals(500, debouncer.changed(7000)); // never shorter than the quiet time
+	}
+
+	@Test
+	public void testRetryBackoff()
+	{
+		UpdateDebouncer debouncer = new UpdateDebouncer(500, 5000);
+
+		assertEquals(1000, debouncer.failed());
+		assertEquals(2000, debouncer.failed());
+		assertEquals(4000, debouncer.failed());
+
+		for(int i = 0; i < 100; i++)
+			debouncer.failed();
+
+		assertEquals(UpdateDebouncer.MAX_RETRY_DELAY, debouncer.failed());
+
+		debouncer.succeeded();
+		assertEquals(1000, debouncer.failed());
+	}
+
+	@Test
+	public void testScheduleWaitingJob() throws Exception
+	{
+		final List<Long> runTimes = new ArrayList<Long>();
+		
+		Job job = new Job("Update") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				synchronized(runTimes) {
+					runTimes.add(System.currentTimeMillis());
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		job.setSystem(true);
+		
+		UpdateDebouncer debouncer = new UpdateDebouncer(500, 5000);
+		
+		long firstChange = System.currentTimeMillis();
+		debouncer.schedule(job, firstChange);
+		
+		Thread.sleep(300);
+		
+		long secondChange = System.currentTimeMillis();
+		debouncer.schedule(job, secondChange); // within the quiet time, job is waiting
+		
+		job.join(); // returns once waiting after the second deadline
+		Thread.sleep(200);
+		job.join();
+		
+		assertEquals(1, runTimes.size());
+		assertTrue("ran before the second deadline", runTimes.get(0) >= secondChange + 500);
+	}
+
+	@Test
+	public void testHistogram()
+	{
+		LatencyHistogram histogram = new LatencyHistogram("Latency");
+
+		for(int i = 0; i < 90; i++)
+			histogram.record(400);
+
+		for(int i = 0; i < 10; i++)
+			histogram.record(4000);
+
+		assertEquals(100, histogram.getCount());
+		assertEquals(500, histogram.getPercentile(50));
+		assertEquals(500, histogram.getPercentile(90));
+		assertEquals(4000, histogram.getPercentile(95)); // bucket bound capped by max
+		assertTrue(histogram.toString(), histogram.toString().contains("<=500ms 90, <=5000ms 10"));
+
+		histogram.record(100000);
+		assertEquals(100000, histogram.getPercentile(100));
+	}
+}